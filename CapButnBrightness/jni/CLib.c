@@ -283,6 +283,62 @@ SWIGEXPORT jlong JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_St
 }
 
 
+SWIGEXPORT void JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_Stat_1ino_1set(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jlong jarg2) {
+  struct stat *arg1 = (struct stat *) 0 ;
+  unsigned long arg2 ;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(struct stat **)&jarg1; 
+  arg2 = (unsigned long)jarg2; 
+  if (arg1) (arg1)->st_ino = arg2;
+}
+
+
+SWIGEXPORT jlong JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_Stat_1ino_1get(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jlong jresult = 0 ;
+  struct stat *arg1 = (struct stat *) 0 ;
+  unsigned long result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(struct stat **)&jarg1; 
+  result = (unsigned long) ((arg1)->st_ino);
+  jresult = (jlong)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT void JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_Stat_1ctime_1set(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jlong jarg2) {
+  struct stat *arg1 = (struct stat *) 0 ;
+  unsigned long arg2 ;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(struct stat **)&jarg1; 
+  arg2 = (unsigned long)jarg2; 
+  if (arg1) (arg1)->st_ctime = arg2;
+}
+
+
+SWIGEXPORT jlong JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_Stat_1ctime_1get(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jlong jresult = 0 ;
+  struct stat *arg1 = (struct stat *) 0 ;
+  unsigned long result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(struct stat **)&jarg1; 
+  result = (unsigned long) ((arg1)->st_ctime);
+  jresult = (jlong)result; 
+  return jresult;
+}
+
+
 SWIGEXPORT jlong JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_new_1Stat(JNIEnv *jenv, jclass jcls) {
   jlong jresult = 0 ;
   struct stat *result = 0 ;
@@ -358,6 +414,36 @@ SWIGEXPORT jint JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_chm
 }
 
 
+SWIGEXPORT jint JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_writeIntProtected(JNIEnv *jenv, jclass jcls, jstring jarg1, jint jarg2, jint jarg3, jint jarg4) {
+  jint jresult = 0 ;
+  char *arg1 = (char *) 0 ;
+  int arg2 ;
+  unsigned short arg3 ;
+  unsigned short arg4 ;
+  int result;
+  
+  (void)jenv;
+  (void)jcls;
+  arg1 = 0;
+  if (jarg1) {
+    arg1 = (char *)(*jenv)->GetStringUTFChars(jenv, jarg1, 0);
+    if (!arg1) return 0;
+  }
+  arg2 = (int)jarg2; 
+  arg3 = (unsigned short)jarg3; 
+  arg4 = (unsigned short)jarg4; 
+  {
+    result = (int)CLib_writeIntProtected((char const *)arg1,arg2,arg3,arg4);
+    if (result != 0) {
+      CLib_ThrowClibException(jenv);
+    }
+  }
+  jresult = (jint)result; 
+  if (arg1) (*jenv)->ReleaseStringUTFChars(jenv, jarg1, (const char *)arg1);
+  return jresult;
+}
+
+
 SWIGEXPORT jint JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_EACCES_1get(JNIEnv *jenv, jclass jcls) {
   jint jresult = 0 ;
   int result;
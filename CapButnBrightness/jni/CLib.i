@@ -16,16 +16,31 @@ static {
 }
 %}
 
+// also call loadLibrary() from the JNI class, since the functions and constants
+// may be used before the proxy class for stat has been loaded
+%pragma(java) jniclasscode=%{
+  static {
+    System.loadLibrary("CLib");
+  }
+%}
+
+// expose CLib_writeIntProtected() to Java as writeIntProtected()
+%rename CLib_writeIntProtected writeIntProtected;
+
 // use the Java style class name Stat for "struct stat"
 %rename stat Stat;
 // expose the st_XXX values to Java omitting the "st_" prefix
 %rename st_mode mode;
 %rename st_uid uid;
 %rename st_gid gid;
+%rename st_ino ino;
+%rename st_ctime ctime;
 struct stat {
     unsigned int st_mode;
     unsigned long st_uid;
     unsigned long st_gid;
+    unsigned long st_ino;
+    unsigned long st_ctime;
 };
 
 // avoid renaming the "stat" function to "Stat" as well
@@ -40,9 +55,20 @@ struct stat {
 
 int stat(const char *path, struct stat *buf);
 int chmod(const char *path, unsigned short mode);
+int CLib_writeIntProtected(const char *path, int value, unsigned short rwMode,
+    unsigned short roMode);
 
 %clearjavaexception;
 
+// the JNI function for applyBatch() is hand-written in CLib_helper.c since it
+// works with Java arrays directly; it stops at the first failed write, returns
+// its index (or count if none failed) and stores the errno of each attempted
+// write (or 0 on success) into the errnos array
+%typemap(jtype) jobjectArray "String[]"
+%typemap(jstype) jobjectArray "String[]"
+%native(applyBatch) jint applyBatch(jobjectArray paths, jintArray values,
+    jint count, jintArray errnos, jint rwMode, jint roMode);
+
 // provide some the useful errno values
 %constant const int EACCES;
 %constant const int EBADF;
@@ -1,6 +1,11 @@
 #include <jni.h>
 #include <string.h>
 #include <errno.h>
+#include <fcntl.h>
+#include <stdio.h>
+#include <sys/types.h>
+#include <sys/stat.h>
+#include <unistd.h>
 
 #include "CLib_helper.h"
 
@@ -30,3 +35,140 @@ void CLib_ThrowClibException(JNIEnv *jenv) {
 
     (*jenv)->Throw(jenv, exception);
 }
+
+/*
+ * Writes an integer, formatted as decimal digits followed by a newline, to a
+ * file as its entire contents. The permissions of the file are changed to
+ * rwMode before the write and to roMode after it, so that one call from Java
+ * replaces a stat(), two chmod() calls, and the Java file I/O.
+ *
+ * Returns 0 on success; on failure returns -1 with errno set to the error of
+ * the first operation that failed. If the file is not owned by the UID of the
+ * calling process then nothing is done and errno is set to EPERM, so that the
+ * caller can change the owner of the file and try again.
+ */
+int CLib_writeIntProtected(const char *path, int value, unsigned short rwMode,
+        unsigned short roMode) {
+    struct stat buf;
+    if (stat(path, &buf) != 0) {
+        return -1;
+    }
+    if (buf.st_uid != getuid()) {
+        errno = EPERM;
+        return -1;
+    }
+
+    if ((buf.st_mode & 07777) != rwMode) {
+        if (chmod(path, rwMode) != 0) {
+            return -1;
+        }
+    }
+
+    char str[16];
+    const int len = snprintf(str, sizeof(str), "%d\n", value);
+
+    int saved_errno = 0;
+    const int fd = open(path, O_WRONLY | O_TRUNC);
+    if (fd < 0) {
+        saved_errno = errno;
+    } else {
+        int offset = 0;
+        while (offset < len) {
+            const ssize_t count = write(fd, str + offset, len - offset);
+            if (count < 0) {
+                if (errno == EINTR) {
+                    continue;
+                }
+                saved_errno = errno;
+                break;
+            }
+            offset += count;
+        }
+        if (close(fd) != 0 && saved_errno == 0) {
+            saved_errno = errno;
+        }
+    }
+
+    if (chmod(path, roMode) != 0 && saved_errno == 0) {
+        saved_errno = errno;
+    }
+
+    if (saved_errno != 0) {
+        errno = saved_errno;
+        return -1;
+    }
+    return 0;
+}
+
+/*
+ * JNI implementation of CLibJNI.applyBatch(). Invokes CLib_writeIntProtected()
+ * for each of the first count elements of paths and values, in order, and
+ * stores the resulting errno of each, or 0 if it was successful, into errnos.
+ * The batch stops at the first write that fails, since the later writes of a
+ * sequence may depend on the side effects of the earlier ones (eg. writing
+ * brightness resets currents); the elements of errnos after the failed one are
+ * left untouched. Returns the index of the write that failed, or count if all
+ * of the writes were successful.
+ */
+JNIEXPORT jint JNICALL Java_org_sleepydragon_capbutnbrightness_clib_CLibJNI_applyBatch(
+        JNIEnv *jenv, jclass jcls, jobjectArray jpaths, jintArray jvalues,
+        jint count, jintArray jerrnos, jint rwMode, jint roMode) {
+    (void)jcls;
+
+    if (jpaths == NULL || jvalues == NULL || jerrnos == NULL) {
+        CLib_ThrowNew(jenv, "java/lang/NullPointerException", "null array");
+        return 0;
+    }
+    if (count < 0
+            || count > (*jenv)->GetArrayLength(jenv, jpaths)
+            || count > (*jenv)->GetArrayLength(jenv, jvalues)
+            || count > (*jenv)->GetArrayLength(jenv, jerrnos)) {
+        CLib_ThrowNew(jenv, "java/lang/IllegalArgumentException", "invalid count");
+        return 0;
+    }
+
+    jint *values = (*jenv)->GetIntArrayElements(jenv, jvalues, NULL);
+    if (values == NULL) {
+        return 0;
+    }
+    jint *errnos = (*jenv)->GetIntArrayElements(jenv, jerrnos, NULL);
+    if (errnos == NULL) {
+        (*jenv)->ReleaseIntArrayElements(jenv, jvalues, values, JNI_ABORT);
+        return 0;
+    }
+
+    jint i;
+    for (i = 0; i < count; i++) {
+        jstring jpath = (jstring)(*jenv)->GetObjectArrayElement(jenv, jpaths, i);
+        if (jpath == NULL) {
+            errnos[i] = EFAULT;
+            break;
+        }
+
+        const char *path = (*jenv)->GetStringUTFChars(jenv, jpath, NULL);
+        if (path == NULL) {
+            errnos[i] = ENOMEM;
+        } else {
+            const int result = CLib_writeIntProtected(path, values[i],
+                (unsigned short)rwMode, (unsigned short)roMode);
+            errnos[i] = (result == 0) ? 0 : errno;
+            (*jenv)->ReleaseStringUTFChars(jenv, jpath, path);
+        }
+        (*jenv)->DeleteLocalRef(jenv, jpath);
+        if (errnos[i] != 0) {
+            break;
+        }
+    }
+
+    (*jenv)->ReleaseIntArrayElements(jenv, jerrnos, errnos, 0);
+    (*jenv)->ReleaseIntArrayElements(jenv, jvalues, values, JNI_ABORT);
+    return i;
+}
+
+void CLib_ThrowNew(JNIEnv *jenv, const char *className, const char *message) {
+    jclass cls = (*jenv)->FindClass(jenv, className);
+    if (cls == NULL) {
+        return;
+    }
+    (*jenv)->ThrowNew(jenv, cls, message);
+}
@@ -5,4 +5,9 @@
 
 void CLib_ThrowClibException(JNIEnv *jenv);
 
+void CLib_ThrowNew(JNIEnv *jenv, const char *className, const char *message);
+
+int CLib_writeIntProtected(const char *path, int value, unsigned short rwMode,
+    unsigned short roMode);
+
 #endif /* __CLIB_HELPER_H__ */
@@ -17,7 +17,7 @@
 package org.sleepydragon.capbutnbrightness;
 
 import org.sleepydragon.capbutnbrightness.devices.DeviceInfo;
-import org.sleepydragon.capbutnbrightness.devices.DeviceInfoDatabase;
+import org.sleepydragon.capbutnbrightness.devices.DeviceResolver;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -42,8 +42,8 @@ public class AboutActivity extends Activity implements OnClickListener {
         super.onCreate(savedInstanceState);
         this.setContentView(R.layout.activity_about);
 
-        final DeviceInfoDatabase db = new DeviceInfoDatabase();
-        final DeviceInfo device = db.getForCurrentDevice();
+        final DeviceInfo device = 
+            DeviceResolver.getInstance().getDeviceInfo(this);
         final String deviceName = device.getDisplayName();
         final TextView deviceNameTxt =
             (TextView) this.findViewById(R.id.txtDeviceName);
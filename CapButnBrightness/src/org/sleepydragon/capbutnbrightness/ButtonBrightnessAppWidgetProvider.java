@@ -16,7 +16,7 @@
  */
 package org.sleepydragon.capbutnbrightness;
 
-import org.sleepydragon.capbutnbrightness.devices.CapacitiveButtonsBacklightBrightness;
+import org.sleepydragon.capbutnbrightness.devices.DeviceResolver;
 
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
@@ -78,14 +78,13 @@ public class ButtonBrightnessAppWidgetProvider extends AppWidgetProvider {
         // get the current brightness setting and calculate the "next" level
         final Settings settings = new Settings(context);
         final Integer level = settings.getLevel();
-        final CapacitiveButtonsBacklightBrightness buttons =
-            SetBrightnessService.getButtonsWhoseBrightnessToSet();
 
         if (level == null) {
             return SetBrightnessService.Level.BRIGHT;
         } else if (level == 0) {
             // skip dim in the cycle if the device does not support dim
-            final boolean dimSupported = buttons.isDimSupported();
+            final boolean dimSupported =
+                DeviceResolver.getInstance().isDimSupported(context);
             if (dimSupported) {
                 return SetBrightnessService.Level.DIM;
             } else {
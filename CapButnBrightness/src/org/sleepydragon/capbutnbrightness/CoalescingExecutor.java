@@ -0,0 +1,181 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time on a dedicated background thread, keeping at most
+ * one pending task per "target". When a task is submitted for a target that
+ * already has a task waiting to run, the waiting task is dropped and replaced
+ * by the new one ("latest wins"), so that a burst of requests, such as rapid
+ * widget taps or the screen flapping on and off, results in only the most
+ * recent request being run rather than a long backlog of obsolete ones. A task
+ * that has already started running is never interrupted.
+ * <p>
+ * Pending tasks for different targets run in the order that their targets
+ * were first submitted.
+ * <p>
+ * This class is thread safe.
+ */
+public class CoalescingExecutor {
+
+    private final ExecutorService executor;
+    private final AtomicInteger executedCount = new AtomicInteger();
+    private final AtomicInteger dropCount = new AtomicInteger();
+
+    /**
+     * The tasks waiting to be run, keyed by target. All access to this field
+     * must be done while synchronized on it.
+     */
+    private final Map<Object, Runnable> pending =
+        new LinkedHashMap<Object, Runnable>();
+
+    /**
+     * Creates a new instance of CoalescingExecutor.
+     *
+     * @param threadName the name to give to the background thread.
+     * @throws NullPointerException if threadName==null.
+     */
+    public CoalescingExecutor(String threadName) {
+        if (threadName == null) {
+            throw new NullPointerException("threadName==null");
+        }
+        final ThreadFactory threadFactory = new WorkerThreadFactory(threadName);
+        this.executor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    /**
+     * Returns the number of tasks that were dropped because a newer task for
+     * the same target was submitted before they started running.
+     *
+     * @return the number of dropped tasks.
+     */
+    public int getDropCount() {
+        return this.dropCount.get();
+    }
+
+    /**
+     * Returns the number of tasks that have been run, whether or not they
+     * completed successfully.
+     *
+     * @return the number of tasks run.
+     */
+    public int getExecutedCount() {
+        return this.executedCount.get();
+    }
+
+    /**
+     * Returns the number of tasks that are waiting to be run, which is at most
+     * the number of distinct targets.
+     *
+     * @return the number of tasks waiting to be run.
+     */
+    public int getQueueDepth() {
+        synchronized (this.pending) {
+            return this.pending.size();
+        }
+    }
+
+    /**
+     * Stops the background thread once the task that is currently running, if
+     * any, completes. Tasks that are waiting to be run are dropped.
+     */
+    public void shutdown() {
+        synchronized (this.pending) {
+            this.pending.clear();
+        }
+        this.executor.shutdown();
+    }
+
+    /**
+     * Schedules a task to be run on the background thread. If a task for the
+     * same target is waiting to be run then it is dropped and replaced by the
+     * given task.
+     *
+     * @param target the target of the task; tasks whose targets are equal
+     * replace each other.
+     * @param task the task to run.
+     * @return true if a waiting task was dropped, false otherwise.
+     * @throws NullPointerException if target==null or task==null.
+     */
+    public boolean submit(Object target, Runnable task) {
+        if (target == null) {
+            throw new NullPointerException("target==null");
+        } else if (task == null) {
+            throw new NullPointerException("task==null");
+        }
+
+        final Runnable droppedTask;
+        synchronized (this.pending) {
+            droppedTask = this.pending.put(target, task);
+        }
+
+        // the task that is already scheduled to run the dropped task will run
+        // the new task instead, so there is no need to schedule another
+        if (droppedTask != null) {
+            this.dropCount.incrementAndGet();
+            return true;
+        }
+        this.executor.execute(new RunNextTask());
+        return false;
+    }
+
+    /**
+     * Removes and runs the task that has been waiting the longest. One of
+     * these is scheduled on the executor for each task added to pending.
+     */
+    private class RunNextTask implements Runnable {
+
+        public void run() {
+            final Map<Object, Runnable> pending =
+                CoalescingExecutor.this.pending;
+            final Runnable task;
+            synchronized (pending) {
+                final Iterator<Runnable> iterator = pending.values().iterator();
+                if (!iterator.hasNext()) {
+                    return; // shutdown() was invoked
+                }
+                task = iterator.next();
+                iterator.remove();
+            }
+            CoalescingExecutor.this.executedCount.incrementAndGet();
+            task.run();
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String threadName;
+
+        public WorkerThreadFactory(String threadName) {
+            this.threadName = threadName;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, this.threadName);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
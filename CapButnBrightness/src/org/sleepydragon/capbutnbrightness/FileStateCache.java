@@ -0,0 +1,269 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the last known owner and permissions of the files written by
+ * {@link IntFileRootHelper}, so that the ownership of a file that is already
+ * known to be owned by the current process does not need to be re-checked
+ * with a stat() before every write and so that chmod() calls that would not
+ * change the permissions of a file can be skipped. The last value written to
+ * each file is also remembered, so that writes that would not change the value
+ * of a file can be skipped.
+ * <p>
+ * Each entry is identified by the inode and change time (ctime) of the file
+ * as reported by the stat() that created the entry. Whenever a file is
+ * stat()'ed again, {@link #update} compares the inode and ctime with those
+ * recorded and discards everything that was known about the file if either
+ * has changed, such as when the kernel re-creates a sysfs node. Since
+ * {@link #isOwnedBy} does not stat() the file, an entry that says that a file
+ * is owned by the current process stays in place after the file is re-created
+ * until something fails; callers must therefore invoke {@link #invalidate}
+ * whenever an operation on a file fails due to insufficient permissions (eg.
+ * EACCES), or through a handle that may refer to the old file, <em>before</em>
+ * checking its ownership again, so that the check does a fresh stat() and
+ * changes the owner of the new file if needed.
+ * <p>
+ * There is one instance of this class for the entire process, which is
+ * returned from {@link #getInstance()}. This class is thread safe.
+ */
+public class FileStateCache {
+
+    /**
+     * The value of an unknown mode, UID, inode, or ctime.
+     */
+    public static final long UNKNOWN = -1;
+
+    private static final FileStateCache INSTANCE = new FileStateCache();
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger invalidationCount = new AtomicInteger();
+
+    /**
+     * Creates a new instance of FileStateCache.
+     */
+    FileStateCache() {
+    }
+
+    /**
+     * Returns the FileStateCache that is shared by the entire process.
+     *
+     * @return the FileStateCache that is shared by the entire process; never
+     * returns null.
+     */
+    public static FileStateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Forgets everything that is known about all files.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Returns the last known permission bits of a file.
+     *
+     * @param path the path of the file.
+     * @return the permission bits of the file (ie. the st_mode value without
+     * the file type bits), or {@link #UNKNOWN} if they are not known.
+     */
+    public long getMode(String path) {
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(path);
+            return (entry == null) ? UNKNOWN : entry.mode;
+        }
+    }
+
+    /**
+     * Returns the number of calls to {@link #isOwnedBy} that returned true.
+     *
+     * @return the number of times that a stat() was avoided.
+     */
+    public int getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of calls to {@link #invalidate} that discarded an
+     * entry.
+     *
+     * @return the number of invalidations.
+     */
+    public int getInvalidationCount() {
+        return this.invalidationCount.get();
+    }
+
+    /**
+     * Returns the number of calls to {@link #isOwnedBy} that returned false.
+     *
+     * @return the number of times that a stat() was required.
+     */
+    public int getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Forgets everything that is known about a file. This must be invoked
+     * whenever an operation on the file fails in a way that suggests that the
+     * cached information is wrong, such as failing with EACCES.
+     *
+     * @param path the path of the file to forget about.
+     */
+    public void invalidate(String path) {
+        final Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.remove(path);
+        }
+        if (entry != null) {
+            this.invalidationCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns whether or not the given value was the last value successfully
+     * written to a file.
+     *
+     * @param path the path of the file.
+     * @param value the value to check.
+     * @return true if the last value written to the file is known and is equal
+     * to the given value; false otherwise.
+     */
+    public boolean isLastWrittenValue(String path, int value) {
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(path);
+            return (entry != null && entry.lastWrittenValueKnown
+                && entry.lastWrittenValue == value);
+        }
+    }
+
+    /**
+     * Returns whether or not a file is known to be owned by the given UID.
+     *
+     * @param path the path of the file.
+     * @param uid the UID to check.
+     * @return true if the file is known to exist and to be owned by the given
+     * UID; false if it is not owned by the given UID or if its owner is not
+     * known, in which case the caller must stat() the file to find out.
+     */
+    public boolean isOwnedBy(String path, long uid) {
+        final boolean owned;
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(path);
+            owned = (entry != null && entry.uid == uid);
+        }
+        if (owned) {
+            this.hitCount.incrementAndGet();
+        } else {
+            this.missCount.incrementAndGet();
+        }
+        return owned;
+    }
+
+    /**
+     * Records the value that was successfully written to a file. Does nothing
+     * if nothing is known about the file.
+     *
+     * @param path the path of the file.
+     * @param value the value that was written.
+     */
+    public void setLastWrittenValue(String path, int value) {
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(path);
+            if (entry != null) {
+                entry.lastWrittenValue = value;
+                entry.lastWrittenValueKnown = true;
+            }
+        }
+    }
+
+    /**
+     * Records that the permissions of a file were successfully changed. Does
+     * nothing if nothing is known about the file.
+     *
+     * @param path the path of the file.
+     * @param mode the permission bits that were set.
+     */
+    public void setMode(String path, long mode) {
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(path);
+            if (entry != null) {
+                entry.mode = mode;
+            }
+        }
+    }
+
+    /**
+     * Records that the owner of a file was successfully changed. Does nothing
+     * if nothing is known about the file.
+     *
+     * @param path the path of the file.
+     * @param uid the UID of the new owner.
+     */
+    public void setUid(String path, long uid) {
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(path);
+            if (entry != null) {
+                entry.uid = uid;
+            }
+        }
+    }
+
+    /**
+     * Records the results of a stat() of a file. If the file was previously
+     * recorded with a different inode or ctime then the previous information
+     * is discarded entirely.
+     *
+     * @param path the path of the file.
+     * @param ino the st_ino value reported by stat().
+     * @param ctime the st_ctime value reported by stat().
+     * @param uid the st_uid value reported by stat().
+     * @param mode the st_mode value reported by stat(); the file type bits
+     * are ignored.
+     */
+    public void update(String path, long ino, long ctime, long uid, long mode) {
+        synchronized (this.entries) {
+            Entry entry = this.entries.get(path);
+            if (entry == null || entry.ino != ino || entry.ctime != ctime) {
+                entry = new Entry();
+                this.entries.put(path, entry);
+            }
+            entry.ino = ino;
+            entry.ctime = ctime;
+            entry.uid = uid;
+            entry.mode = mode & IntFileRootHelper.PERMISSION_BITS;
+        }
+    }
+
+    private static class Entry {
+        public long ino = UNKNOWN;
+        public long ctime = UNKNOWN;
+        public long uid = UNKNOWN;
+        public long mode = UNKNOWN;
+        public int lastWrittenValue;
+        public boolean lastWrittenValueKnown;
+    }
+}
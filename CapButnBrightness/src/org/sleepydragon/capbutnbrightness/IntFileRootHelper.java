@@ -21,25 +21,29 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.sleepydragon.capbutnbrightness.clib.CLib;
-import org.sleepydragon.capbutnbrightness.clib.CLibConstants;
 import org.sleepydragon.capbutnbrightness.clib.ClibException;
-import org.sleepydragon.capbutnbrightness.clib.Stat;
-
-import android.os.Process;
-
-import com.stericson.RootTools.RootTools;
-import com.stericson.RootTools.exceptions.RootDeniedException;
-import com.stericson.RootTools.execution.Command;
-import com.stericson.RootTools.execution.CommandCapture;
-import com.stericson.RootTools.execution.Shell;
+import org.sleepydragon.capbutnbrightness.metrics.Metrics;
+import org.sleepydragon.capbutnbrightness.metrics.ScreenOnTracer;
+import org.sleepydragon.capbutnbrightness.sysfs.FileOperations;
+import org.sleepydragon.capbutnbrightness.sysfs.FileStatus;
+import org.sleepydragon.capbutnbrightness.sysfs.RootShellProvider;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsEnvironment;
 
 /**
  * A helper class to work with files whose contents consist of an integer value
@@ -53,29 +57,138 @@ import com.stericson.RootTools.execution.Shell;
 public class IntFileRootHelper {
 
     /**
-     * The root shell to use to perform superuser operations. Will initially be
-     * null and will be assigned to non-null when the first root operation is
-     * required. The same shell will then be re-used for all subsequent root
-     * operations. The close() method will close this object and set the
-     * reference back to null.
+     * Object that gets notified of events.
      */
-    private Shell shell;
+    private final OperationNotifier notifier;
 
     /**
-     * Object that gets notified of events.
+     * The object used to receive the results of stat() calls, re-used for
+     * every stat() call so that it does not allocate.
      */
-    private final OperationNotifier notifier;
+    private final FileStatus status = new FileStatus();
+
+    /**
+     * The maximum number of bytes written by {@link #writeIntToFile}, which is
+     * the length of "-2147483648\n".
+     */
+    private static final int MAX_INT_LINE_LENGTH = 12;
+
+    /**
+     * The buffer into which the values written by {@link #writeIntToFile} are
+     * formatted; re-used for every write so that writing does not allocate.
+     */
+    private final byte[] writeBytes = new byte[MAX_INT_LINE_LENGTH];
+
+    /**
+     * A ByteBuffer that wraps writeBytes.
+     */
+    private final ByteBuffer writeBuffer = ByteBuffer.wrap(this.writeBytes);
+
+    /**
+     * An array of length 1 used to pass a single path to ensureOwned() without
+     * allocating a new array.
+     */
+    private final String[] singlePath = new String[1];
+
+    /**
+     * The errno of each entry of the last call to
+     * FileOperations.applyBatch(), re-used by {@link #writeAll} to avoid
+     * allocating; replaced with a larger array when needed.
+     */
+    private int[] batchErrnos = new int[4];
+
+    /**
+     * The buffer into which {@link #read} reads the contents of files;
+     * re-used for every read so that reading does not allocate.
+     */
+    private final byte[] readBytes = new byte[128];
 
     /**
-     * The object to be synchronized on when accessing nextCommandId.
+     * A ByteBuffer that wraps readBytes.
      */
-    private static final Object nextIdLock = new Object();
+    private final ByteBuffer readBuffer = ByteBuffer.wrap(this.readBytes);
 
     /**
-     * The ID to use for the next CommandCapture object. All access to this
-     * value *must* be done while synchronized on nextIdLock.
+     * The channels opened by {@link #read}, keyed by the path of the file. They
+     * are kept open so that subsequent reads of the same file do not need to
+     * open it again, and are closed by {@link #close()}.
      */
-    private static int nextId;
+    private final Map<String, FileChannel> readChannels =
+        new HashMap<String, FileChannel>();
+
+    /**
+     * The mask of the bits of st_mode that are permission bits, rather than
+     * file type bits (S_IRWXU, S_IRWXG, S_IRWXO, S_ISUID, S_ISGID and
+     * S_ISVTX). The mode bits are the same on every Linux architecture, so
+     * they are given here rather than read from CLibConstants, which would
+     * load the native library even when SysfsEnvironment does not use it.
+     */
+    static final long PERMISSION_BITS = 07777;
+
+    /**
+     * The permissions that a file has while it is being written (S_IRUSR,
+     * S_IWUSR, S_IRGRP and S_IROTH).
+     */
+    private static final int READ_WRITE_MODE = 0644;
+
+    /**
+     * The permissions that a file has while it is not being written (S_IRUSR,
+     * S_IRGRP and S_IROTH).
+     */
+    private static final int READ_ONLY_MODE = 0444;
+
+    /**
+     * Whether or not the loaded native library is too old to provide
+     * FileOperations.writeIntProtected(), in which case writes are done in
+     * Java instead.
+     */
+    private static volatile boolean nativeWriteUnavailable;
+
+    /**
+     * The cache of the ownership and permissions of files.
+     */
+    private static final FileStateCache fileStateCache = FileStateCache
+        .getInstance();
+
+    /**
+     * The number of calls to write() that were skipped because the file
+     * already contained the value.
+     */
+    private static final AtomicInteger elidedWriteCount = new AtomicInteger();
+
+    /**
+     * The number of calls to write() that actually wrote to the file.
+     */
+    private static final AtomicInteger performedWriteCount =
+        new AtomicInteger();
+
+    /**
+     * Whether and how to skip writes that would not change the value of a
+     * file; never null.
+     */
+    private ConditionalWriteMode conditionalWriteMode =
+        ConditionalWriteMode.ALWAYS_WRITE;
+
+    /**
+     * The prefix of the lines that are printed by the root shell to report the
+     * exit code of each chown command run by {@link #setFileUIDs}.
+     */
+    private static final String CHOWN_RESULT_MARKER = "CapButnChownResult";
+
+    /**
+     * The future returned from {@link #ensureOwnedAsync} when every file is
+     * already owned by the current process.
+     */
+    private static final FutureTask<Void> ALREADY_OWNED = new FutureTask<Void>(
+        new Runnable() {
+
+            public void run() {
+            }
+        }, null);
+
+    static {
+        ALREADY_OWNED.run();
+    }
 
     /**
      * Creates a new instance of IntFileRootHelper.
@@ -92,15 +205,10 @@ public class IntFileRootHelper {
      * invoked when this object is no longer needed.
      */
     public void close() {
-        final Shell shell = this.shell;
-        if (shell != null) {
-            this.shell = null;
-            try {
-                shell.close();
-            } catch (final IOException e) {
-                // oh well
-            }
+        for (final FileChannel channel : this.readChannels.values()) {
+            closeChannel(channel);
         }
+        this.readChannels.clear();
     }
 
     /**
@@ -115,35 +223,158 @@ public class IntFileRootHelper {
         }
     }
 
-    private Shell getOrCreateRootShell() throws RootShellCreateException {
-        Shell shell = this.shell;
-        if (shell == null) {
-            final OperationNotifier notifier = this.notifier;
-            if (notifier != null) {
-                notifier.rootRequestStarted();
+    /**
+     * Ensures that the UID of each of the given files is equal to the UID of
+     * the current process. The UID of every file is first checked and then the
+     * ownership of all files that are owned by somebody else is changed using a
+     * <em>single</em> command run as root, so that the cost of communicating
+     * with the root shell is paid at most once regardless of the number of
+     * files given.
+     *
+     * @param paths the paths of the files whose ownership to ensure; duplicate
+     * paths are allowed and will only be processed once.
+     * @throws IntWriteException if an error occurs getting or changing the UID
+     * of any of the files, such as requesting root permissions; in this case
+     * the ownership of some files may have been changed successfully.
+     * @throws NullPointerException if paths==null or any element of paths is
+     * null.
+     */
+    public void ensureOwned(String... paths) throws IntWriteException {
+        if (paths == null) {
+            throw new NullPointerException("paths==null");
+        }
+        this.ensureOwned(paths, paths.length);
+    }
+
+    private void ensureOwned(String[] paths, int count)
+            throws IntWriteException {
+        final int processUid =
+            SysfsEnvironment.getFileOperations().getProcessUid();
+        final String[] notOwnedPaths =
+            this.findNotOwned(paths, count, processUid);
+
+        // change the UID of all of the files in one shot
+        if (notOwnedPaths != null) {
+            this.setFileUIDs(notOwnedPaths, processUid);
+        }
+    }
+
+    /**
+     * Ensures that the UID of each of the given files is equal to the UID of
+     * the current process, without waiting for the ownership of the files to
+     * be changed. This is the same as {@link #ensureOwned(String...)} except
+     * that the chown command is only <em>sent</em> to the root shell before
+     * returning; the caller can do other work, such as preparing the values to
+     * write, while the root shell runs the command, and then wait for it using
+     * the returned future.
+     *
+     * @param paths the paths of the files whose ownership to ensure; duplicate
+     * paths are allowed and will only be processed once.
+     * @return a future that completes once the ownership of every file has
+     * been changed, or that fails with an ExecutionException whose cause is a
+     * ChownException if changing the ownership of any file fails; if every
+     * file is already owned by the current process then the future is already
+     * complete; never returns null.
+     * @throws IntWriteException if an error occurs getting the UID of any of
+     * the files or sending the chown command to the root shell, such as
+     * requesting root permissions.
+     * @throws NullPointerException if paths==null or any element of paths is
+     * null.
+     */
+    public Future<Void> ensureOwnedAsync(String... paths)
+            throws IntWriteException {
+        if (paths == null) {
+            throw new NullPointerException("paths==null");
+        }
+        final int processUid =
+            SysfsEnvironment.getFileOperations().getProcessUid();
+        final String[] notOwnedPaths =
+            this.findNotOwned(paths, paths.length, processUid);
+        if (notOwnedPaths == null) {
+            return ALREADY_OWNED;
+        }
+
+        final String[] commandLines =
+            buildChownCommandLines(notOwnedPaths, processUid);
+        final RootShellProvider rootShellProvider =
+            SysfsEnvironment.getRootShellProvider();
+        final long startNanos = System.nanoTime();
+        final Future<String> output;
+        try {
+            output = rootShellProvider.submit(commandLines, this.notifier);
+        } catch (final IOException e) {
+            Metrics.CHOWN.recordSince(startNanos);
+            throw new ChownLaunchException(e.getMessage(), notOwnedPaths[0]);
+        }
+        return new ChownFuture(notOwnedPaths, processUid, output, startNanos);
+    }
+
+    /**
+     * Finds the files whose UID differs from the given UID.
+     *
+     * @param paths the paths of the files to check.
+     * @param count the number of elements of paths to check.
+     * @param processUid the UID of the current process.
+     * @return the distinct paths of the files that are not owned by
+     * processUid, or null if every file is owned by it.
+     * @throws IntWriteException if a file does not exist or getting its UID
+     * fails.
+     * @throws NullPointerException if any of the paths to check is null.
+     */
+    private String[] findNotOwned(String[] paths, int count, int processUid)
+            throws IntWriteException {
+        // files that are known to be owned by this process already do not need
+        // to be checked again; checking for that up front means that nothing
+        // is allocated in the common case where every file is known
+        int start = 0;
+        while (start < count) {
+            final String path = paths[start];
+            if (path == null) {
+                throw new NullPointerException("paths contains null");
+            } else if (!fileStateCache.isOwnedBy(path, processUid)) {
+                break;
             }
-            try {
-                shell = RootTools.getShell(true, 60000);
-            } catch (final IOException e) {
-                if (!RootTools.isRootAvailable()) {
-                    throw new RootShellNotRootedException(
-                        "device needs to be rooted");
-                } else {
-                    throw new RootShellCreateIOException(e.getMessage());
-                }
-            } catch (final TimeoutException e) {
-                throw new RootShellCreateTimeoutException(e.getMessage());
-            } catch (final RootDeniedException e) {
-                throw new RootShellCreateDeniedException(e.getMessage());
-            } finally {
-                if (notifier != null) {
-                    notifier.rootRequestCompleted();
-                }
+            start++;
+        }
+        if (start == count) {
+            return null;
+        }
+
+        // find all files whose UID differs from the UID of the process
+        final List<String> notOwnedPaths = new ArrayList<String>(count - start);
+        for (int i = start; i < count; i++) {
+            final String path = paths[i];
+            if (path == null) {
+                throw new NullPointerException("paths contains null");
             }
+
+            // the ownership of the file at index "start" is already known to
+            // not be cached
+            if (i > start && fileStateCache.isOwnedBy(path, processUid)) {
+                continue;
+            }
+
+            // verify that the file exists
+            final File file = new File(path);
+            if (!file.exists()) {
+                throw new IntFileNotFoundException("file not found: " + path,
+                    path);
+            }
+
+            if (notOwnedPaths.contains(path)) {
+                continue;
+            }
+            final long fileUid = this.getFileUID(path);
+            if (processUid != fileUid) {
+                notOwnedPaths.add(path);
+            }
+        }
+
+        if (notOwnedPaths.isEmpty()) {
+            return null;
         }
-        assert shell != null;
-        this.shell = shell;
-        return shell;
+        final String[] array = new String[notOwnedPaths.size()];
+        return notOwnedPaths.toArray(array);
     }
 
     /**
@@ -161,23 +392,40 @@ public class IntFileRootHelper {
         if (path == null) {
             throw new NullPointerException("path==null");
         }
+        this.protectFilesFromOs(path);
+    }
 
-        // verify that the file exists
-        final File file = new File(path);
-        if (!file.exists()) {
-            throw new IntFileNotFoundException("file not found: " + path, path);
-        }
-
-        // ensure that the UID of the file is equal to the UID of the process;
-        // if they are different, then attempt to change the UID of the file
-        final int processUid = Process.myUid();
-        final long fileUid = getFileUID(path);
-        if (processUid != fileUid) {
-            final Shell shell = this.getOrCreateRootShell();
-            setFileUID(path, processUid, shell);
+    /**
+     * Changes the UID and permissions of several files so that the OS cannot
+     * change their values. This method behaves the same as invoking
+     * {@link #protectFileFromOs(String)} for each of the given paths, except
+     * that the UIDs of all of the files are changed using a single root
+     * command, as described in {@link #ensureOwned(String...)}.
+     *
+     * @param paths the paths of the files to protect.
+     * @throws IntWriteException if an error occurs changing the permissions or
+     * UID of any of the files, such as requesting root permissions or getting
+     * the UID of a file.
+     * @throws NullPointerException if paths==null or any element of paths is
+     * null.
+     */
+    public void protectFilesFromOs(String... paths) throws IntWriteException {
+        this.ensureOwned(paths);
+        for (final String path : paths) {
+            try {
+                makeReadOnly(path);
+            } catch (final ChmodFailedException e) {
+                // the file may have been re-created since its ownership was
+                // cached (eg. by the kernel re-creating a sysfs node), so stat
+                // it again, which changes its owner if needed, and try again
+                if (!isPermissionDenied(e)) {
+                    throw e;
+                }
+                fileStateCache.invalidate(path);
+                this.ensureOwned(path);
+                makeReadOnly(path);
+            }
         }
-
-        makeReadOnly(path);
     }
 
     /**
@@ -197,23 +445,53 @@ public class IntFileRootHelper {
             throw new NullPointerException("path==null");
         }
 
-        // read bytes from the file
-        final byte[] buffer = new byte[128];
-        final int bufferLength = readBytesFromFile(path, buffer);
+        // read bytes from the file, using the persistent handle if there is one
+        final ByteBuffer buffer = this.readBuffer;
+        buffer.clear();
+        final SysfsAttribute attribute = SysfsAttribute.getIfHeld(path);
+        final int bufferLength;
+        if (attribute != null) {
+            bufferLength = attribute.read(buffer);
+        } else {
+            bufferLength = this.readFromChannel(path, buffer);
+        }
 
-        // decode the bytes from the file into a string
-        final String valueStr = decodeStr(buffer, bufferLength);
-        final String valueStrTrimmed = valueStr.trim();
+        // parse an integer from the bytes read from the file
+        return parseInt(this.readBytes, bufferLength);
+    }
 
-        // parse an integer from the string read from the file
-        final int value;
-        try {
-            value = Integer.parseInt(valueStrTrimmed);
-        } catch (final NumberFormatException e) {
-            throw new IntParseException(valueStr);
+    /**
+     * Reads the contents of several files as integers, as if by invoking
+     * {@link #read} for each of them. This is useful for taking a snapshot of
+     * the values of several files at once.
+     *
+     * @param paths the paths of the files to read.
+     * @param values the array into which to store the values; the value read
+     * from the file whose path is at each index of paths is stored at the same
+     * index of this array.
+     * @throws IOException if an error occurs reading from any of the files; in
+     * this case the values of the files before it have been stored.
+     * @throws FileNotFoundException if any of the files does not exist.
+     * @throws IntParseException if the contents of any of the files failed to
+     * be parsed as an integer.
+     * @throws NullPointerException if paths==null, values==null, or any element
+     * of paths is null.
+     * @throws IllegalArgumentException if values is shorter than paths.
+     */
+    public void readAll(String[] paths, int[] values) throws IOException,
+            FileNotFoundException, IntParseException {
+        if (paths == null) {
+            throw new NullPointerException("paths==null");
+        } else if (values == null) {
+            throw new NullPointerException("values==null");
+        } else if (values.length < paths.length) {
+            throw new IllegalArgumentException("values.length ("
+                + values.length + ") < paths.length (" + paths.length + ")");
         }
 
-        return value;
+        for (int i = 0; i < paths.length; i++) {
+            values[i] = this.read(paths[i]);
+        }
     }
 
     /**
@@ -222,7 +500,15 @@ public class IntFileRootHelper {
      * run as root to change the owner to the current process. Then, its
      * permissions are changed to read-write for the user and read-only for the
      * rest. Then the integer is written to the file. Then the file's
-     * permissions are all changed to read-only.
+     * permissions are all changed to read-only. Unless the file has a
+     * persistent handle (see {@link SysfsAttribute}), the chmod, write, chmod
+     * sequence is done by native code in a single JNI call.
+     * <p>
+     * The ownership and permissions of the file are remembered in the
+     * {@link FileStateCache} so that subsequent writes to the same file can
+     * skip checking the owner and skip chmod calls that would not change
+     * anything. If the write fails because permission was denied then the
+     * cached information is discarded and the write is attempted once more.
      *
      * @param path the path of the file to which to write.
      * @param value the integer value to write to the file.
@@ -236,19 +522,231 @@ public class IntFileRootHelper {
             throw new NullPointerException("path==null");
         }
 
-        // verify that the file exists
-        final File file = new File(path);
-        if (!file.exists()) {
-            throw new IntFileNotFoundException("file not found: " + path, path);
+        if (this.isWriteRedundant(path, value)) {
+            elidedWriteCount.incrementAndGet();
+            return;
+        }
+        this.writeUnconditionally(path, value);
+    }
+
+    /**
+     * Writes an integer to a file, as described in {@link #write}, regardless
+     * of the {@link ConditionalWriteMode}.
+     */
+    private void writeUnconditionally(String path, int value)
+            throws IntWriteException {
+        final long startNanos = System.nanoTime();
+        try {
+            this.writeOnce(path, value);
+        } catch (final IntFileWriteException e) {
+            // if permission was denied then the cached ownership or permissions
+            // of the file were probably stale (eg. the OS changed them back) so
+            // forget them and try again, which will re-check everything
+            if (!isPermissionDenied(e)) {
+                throw e;
+            }
+            fileStateCache.invalidate(path);
+            this.writeOnce(path, value);
+        } finally {
+            Metrics.WRITE.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Writes a sequence of integers to files, in order, as if by invoking
+     * {@link #write} for each of them. Where possible, all of the writes are
+     * done by native code in a single JNI call, rather than one call per
+     * write. If one of those writes fails then the batch stops there, and the
+     * writes from the failed one onwards are done one by one, as if by
+     * {@link #write}, which changes the owner of the files if needed or throws
+     * an exception that describes the failure; so the files are always
+     * written in order and each write is done once.
+     * <p>
+     * The writes are done one by one from the start if the native library
+     * does not support batches or if any of the files has a persistent handle
+     * (see {@link SysfsAttribute}).
+     * <p>
+     * If a {@link ConditionalWriteMode} other than
+     * {@link ConditionalWriteMode#ALWAYS_WRITE} is set then the writes are
+     * skipped <em>only if every one of them</em> is redundant; otherwise all
+     * of them are done. Skipping some writes of a sequence while doing others
+     * is not safe, since a write can have side effects on other files (eg.
+     * writing brightness resets currents), which the later writes of the
+     * sequence rely on.
+     *
+     * @param paths the paths of the files to which to write.
+     * @param values the integer values to write to the files; the element at
+     * each index is written to the file whose path is at the same index of
+     * paths.
+     * @param count the number of writes to perform, which are taken from the
+     * start of paths and values.
+     * @throws IntWriteException if any write fails; in this case the writes
+     * before the failed one have been performed.
+     * @throws NullPointerException if paths==null, values==null, or any of the
+     * first count elements of paths is null.
+     * @throws IllegalArgumentException if count is negative or greater than
+     * the length of either array.
+     */
+    public void writeAll(String[] paths, int[] values, int count)
+            throws IntWriteException {
+        if (paths == null) {
+            throw new NullPointerException("paths==null");
+        } else if (values == null) {
+            throw new NullPointerException("values==null");
+        } else if (count < 0 || count > paths.length || count > values.length) {
+            throw new IllegalArgumentException("invalid count: " + count);
+        }
+
+        if (this.isWriteAllRedundant(paths, values, count)) {
+            elidedWriteCount.addAndGet(count);
+            return;
+        }
+
+        int start = 0;
+        if (!nativeWriteUnavailable && !anyHeld(paths, count)) {
+            this.ensureOwned(paths, count);
+            start = this.applyBatch(paths, values, count);
+        }
+
+        for (int i = start; i < count; i++) {
+            this.writeUnconditionally(paths[i], values[i]);
+        }
+    }
+
+    /**
+     * Returns the number of writes by {@link #write} and {@link #writeAll} in
+     * this process that were skipped because the file already contained the
+     * value to write, as determined by the {@link ConditionalWriteMode} of the
+     * helper.
+     *
+     * @return the number of skipped writes.
+     */
+    public static int getElidedWriteCount() {
+        return elidedWriteCount.get();
+    }
+
+    /**
+     * Returns the number of writes in this process that actually wrote to a
+     * file successfully. Each value written counts once, even if writing it
+     * took more than one attempt.
+     *
+     * @return the number of performed writes.
+     */
+    public static int getPerformedWriteCount() {
+        return performedWriteCount.get();
+    }
+
+    /**
+     * Returns whether and how writes that would not change the value of a file
+     * are skipped.
+     *
+     * @return the conditional write mode; never returns null.
+     * @see #setConditionalWriteMode(ConditionalWriteMode)
+     */
+    public ConditionalWriteMode getConditionalWriteMode() {
+        return this.conditionalWriteMode;
+    }
+
+    /**
+     * Sets whether and how writes that would not change the value of a file
+     * are skipped by {@link #write}. The default is
+     * {@link ConditionalWriteMode#ALWAYS_WRITE}.
+     *
+     * @param mode the conditional write mode to set.
+     * @throws NullPointerException if mode==null.
+     * @see #getConditionalWriteMode()
+     */
+    public void setConditionalWriteMode(ConditionalWriteMode mode) {
+        if (mode == null) {
+            throw new NullPointerException("mode==null");
+        }
+        this.conditionalWriteMode = mode;
+    }
+
+    /**
+     * Returns whether or not all of the given writes would leave the files
+     * unchanged, according to the {@link ConditionalWriteMode}.
+     */
+    private boolean isWriteAllRedundant(String[] paths, int[] values,
+            int count) {
+        if (this.conditionalWriteMode == ConditionalWriteMode.ALWAYS_WRITE
+            || count == 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (paths[i] == null) {
+                throw new NullPointerException("paths contains null");
+            } else if (!this.isWriteRedundant(paths[i], values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isWriteRedundant(String path, int value) {
+        final ConditionalWriteMode mode = this.conditionalWriteMode;
+        if (mode == ConditionalWriteMode.ALWAYS_WRITE) {
+            return false;
+        }
+
+        // the write is needed if the value was not the last value written
+        if (!fileStateCache.isLastWrittenValue(path, value)) {
+            return false;
+        } else if (mode == ConditionalWriteMode.SKIP_IF_LAST_WRITTEN) {
+            return true;
+        }
+
+        // read back the value from the file in case something else, such as
+        // the kernel, changed the value since it was written
+        assert mode == ConditionalWriteMode.SKIP_IF_LAST_WRITTEN_AND_UNCHANGED;
+        final int currentValue;
+        try {
+            currentValue = this.read(path);
+        } catch (final IOException e) {
+            return false;
+        } catch (final IntParseException e) {
+            return false;
+        }
+        return (currentValue == value);
+    }
+
+    private void writeOnce(String path, int value) throws IntWriteException {
+        final SysfsAttribute attribute = SysfsAttribute.getIfHeld(path);
+
+        // a persistent handle that is already open for writing was opened
+        // while the file was writable, so there is no need to check the owner
+        // of the file or to change its permissions; if the write fails then
+        // the file may have been re-created, so forget its cached ownership
+        // and permissions and fall back to re-opening the file the usual way
+        if (attribute != null && attribute.isOpenForWriting()) {
+            try {
+                this.writeIntToFile(path, value, attribute);
+                performedWriteCount.incrementAndGet();
+                fileStateCache.setLastWrittenValue(path, value);
+                ScreenOnTracer.markWrites(1);
+                return;
+            } catch (final IntFileWriteException e) {
+                fileStateCache.invalidate(path);
+            }
         }
 
         // ensure that the UID of the file is equal to the UID of the process;
         // if they are different, then attempt to change the UID of the file
-        final int processUid = Process.myUid();
-        final long fileUid = getFileUID(path);
-        if (processUid != fileUid) {
-            final Shell shell = this.getOrCreateRootShell();
-            setFileUID(path, processUid, shell);
+        final String[] singlePath = this.singlePath;
+        singlePath[0] = path;
+        try {
+            this.ensureOwned(singlePath, 1);
+        } finally {
+            singlePath[0] = null;
+        }
+
+        // without a persistent handle to open, let native code do the chmod,
+        // write and chmod with a single JNI call
+        if (attribute == null && !nativeWriteUnavailable) {
+            if (writeIntProtected(path, value)) {
+                fileStateCache.setLastWrittenValue(path, value);
+                return;
+            }
         }
 
         // set the permissions of the file such that it is user writable
@@ -256,22 +754,36 @@ public class IntFileRootHelper {
 
         try {
             // write the integer value to the file
-            writeIntToFile(path, value);
+            this.writeIntToFile(path, value, attribute);
+            performedWriteCount.incrementAndGet();
         } finally {
             makeReadOnly(path);
         }
+        fileStateCache.setLastWrittenValue(path, value);
+        ScreenOnTracer.markWrites(1);
     }
 
     private static void chmod(String path, int mode)
             throws ChmodFailedException {
         assert path != null;
+
+        // avoid the chmod if the file is already known to have the mode
+        if (fileStateCache.getMode(path) == mode) {
+            return;
+        }
+
+        final long startNanos = System.nanoTime();
         try {
-            CLib.chmod(path, mode);
+            SysfsEnvironment.getFileOperations().chmod(path, mode);
         } catch (final ClibException e) {
+            fileStateCache.invalidate(path);
             final String message = e.getMessage();
             final int errno = e.getErrno();
             throw new ChmodFailedException(message, errno, path);
+        } finally {
+            Metrics.CHMOD.recordSince(startNanos);
         }
+        fileStateCache.setMode(path, mode);
     }
 
     private static String decodeStr(byte[] buffer, int bufferLength) {
@@ -285,32 +797,48 @@ public class IntFileRootHelper {
         return s;
     }
 
-    private static long getFileUID(String path) throws StatFailedException {
-        final Stat stat = new Stat();
+    private long getFileUID(String path) throws StatFailedException {
+        final FileStatus status = this.status;
+        final long startNanos = System.nanoTime();
         try {
-            CLib.stat(path, stat);
+            SysfsEnvironment.getFileOperations().stat(path, status);
         } catch (final ClibException e) {
+            fileStateCache.invalidate(path);
             final int errno = e.getErrno();
             final String message = e.getMessage();
             throw new StatFailedException(message, errno, path);
+        } finally {
+            Metrics.GET_FILE_UID.recordSince(startNanos);
         }
-        final long fileUid = stat.getUid();
+
+        final long fileUid = status.uid;
+        fileStateCache.update(path, status.ino, status.ctime, fileUid,
+            status.mode);
         return fileUid;
     }
 
-    private static int getNextId() {
-        final int id;
-        synchronized (nextIdLock) {
-            id = nextId++;
+    private static boolean isPermissionDenied(IntFileWriteException e) {
+        if (e instanceof ChmodFailedException) {
+            final int errno = ((ChmodFailedException) e).getErrno();
+            return (errno == FileOperations.EACCES
+                || errno == FileOperations.EPERM);
+        } else if (e instanceof WriteFailedException) {
+            final int errno = ((WriteFailedException) e).getErrno();
+            return (errno == FileOperations.EACCES
+                || errno == FileOperations.EPERM);
+        } else if (e instanceof IntFileNotFoundException
+            || e instanceof IntFileIOException) {
+            final String message = e.getMessage();
+            return (message != null && (message.contains("EACCES")
+                || message.contains("EPERM") || message
+                    .contains("Permission denied")));
+        } else {
+            return false;
         }
-        return id;
     }
 
     private static void makeReadOnly(String path) throws ChmodFailedException {
-        final int mode =
-            CLibConstants.S_IRUSR | CLibConstants.S_IRGRP
-                | CLibConstants.S_IROTH;
-        chmod(path, mode);
+        chmod(path, READ_ONLY_MODE);
     }
 
     /**
@@ -320,89 +848,336 @@ public class IntFileRootHelper {
      * @throws ChmodFailedException if changing the permissions fails.
      */
     public static void makeWritable(String path) throws ChmodFailedException {
-        final int mode =
-            CLibConstants.S_IRUSR | CLibConstants.S_IWUSR
-                | CLibConstants.S_IRGRP | CLibConstants.S_IROTH;
-        chmod(path, mode);
+        chmod(path, READ_WRITE_MODE);
     }
 
-    private static int readBytesFromFile(String path, byte[] buffer)
+    /**
+     * Reads the contents of a file from offset 0, re-using the channel opened
+     * by a previous read of the file, if any.
+     *
+     * @param path the path of the file to read.
+     * @param buffer the buffer into which to read.
+     * @return the number of bytes read, or -1 if the file is empty.
+     * @throws IOException if reading fails.
+     * @throws FileNotFoundException if the file does not exist.
+     */
+    private int readFromChannel(String path, ByteBuffer buffer)
             throws IOException, FileNotFoundException {
-        final InputStream f = new FileInputStream(path);
+        FileChannel channel = this.readChannels.get(path);
+        if (channel == null) {
+            channel = new FileInputStream(path).getChannel();
+            this.readChannels.put(path, channel);
+        }
         try {
-            return f.read(buffer);
-        } finally {
-            try {
-                f.close();
-            } catch (final IOException e) {
-                // oh well
-            }
+            return channel.read(buffer, 0);
+        } catch (final IOException e) {
+            this.readChannels.remove(path);
+            closeChannel(channel);
+            throw e;
         }
     }
 
-    private static void setFileUID(String path, int uid, Shell shell)
-            throws ChownException {
-        assert path != null;
-        assert shell != null;
+    /**
+     * Parses the decimal integer in the given bytes, ignoring leading and
+     * trailing whitespace (eg. the newline at the end of a sysfs file), the
+     * same as Integer.parseInt(s.trim()), but without allocating unless
+     * parsing fails.
+     *
+     * @param buffer the bytes to parse, which are interpreted as US-ASCII.
+     * @param length the number of bytes at the start of the buffer to parse;
+     * may be -1 to parse zero bytes.
+     * @return the parsed integer.
+     * @throws IntParseException if the bytes are not a valid decimal integer.
+     */
+    static int parseInt(byte[] buffer, int length) throws IntParseException {
+        int start = 0;
+        int end = (length < 0) ? 0 : length;
+        // bytes are signed, so mask them to keep those >= 0x80 from being
+        // taken for whitespace, which trim() does not do either
+        while (start < end && (buffer[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
 
-        // prepare to launch the chown command
-        final String commandStr = "chown " + uid + " " + path;
-        final int commandId = getNextId();
-        final Command command = new CommandCapture(commandId, commandStr);
+        boolean negative = false;
+        int i = start;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = (buffer[i] == '-');
+            i++;
+        }
+        if (i == end) {
+            throw new IntParseException(decodeStr(buffer, length));
+        }
 
-        // launch the chown command
+        // accumulate the value as a negative number, since the magnitude of
+        // Integer.MIN_VALUE is greater than that of Integer.MAX_VALUE
+        final long limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IntParseException(decodeStr(buffer, length));
+            }
+            value = (value * 10) - digit;
+            if (value < limit) {
+                throw new IntParseException(decodeStr(buffer, length));
+            }
+        }
+
+        return (int) (negative ? value : -value);
+    }
+
+    /**
+     * Changes the UID of the given files by running chown as root. The chown
+     * commands for all files are sent to the root shell as a single command
+     * and each chown is followed by an "echo" of a marker line that contains
+     * the index of the path and the exit code of its chown; these marker lines
+     * are then parsed from the output of the command to determine which of the
+     * files, if any, failed to have their UID changed.
+     *
+     * @param paths the paths of the files whose UID to change; must not be
+     * empty.
+     * @param uid the UID to which to change the ownership of the files.
+     * @throws ChownException if changing the UID of any file fails; if several
+     * fail then the exception describes the first of them.
+     * @throws RootShellCreateException if opening the root shell fails.
+     */
+    private void setFileUIDs(String[] paths, int uid) throws ChownException,
+            RootShellCreateException {
+        assert paths != null;
+        assert paths.length > 0;
+
+        // run the chown commands as root and wait for them to complete
+        final String[] commandLines = buildChownCommandLines(paths, uid);
+        final RootShellProvider rootShellProvider =
+            SysfsEnvironment.getRootShellProvider();
+        final String output;
+        final long startNanos = System.nanoTime();
         try {
-            shell.add(command);
+            output = rootShellProvider.run(commandLines, this.notifier);
         } catch (final IOException e) {
-            throw new ChownLaunchException(e.getMessage(), path);
+            throw new ChownLaunchException(e.getMessage(), paths[0]);
+        } catch (final InterruptedException e) {
+            throw new ChownWaitInterruptedException(e.getMessage(), paths[0]);
+        } finally {
+            Metrics.CHOWN.recordSince(startNanos);
         }
 
-        // wait for the chown command to complete
-        final int exitCode;
+        checkChownOutput(paths, uid, output);
+    }
+
+    /**
+     * Creates the command lines that change the UID of the given files, each
+     * of which is followed by an "echo" of a marker line that contains the
+     * index of the path and the exit code of its chown. The paths are quoted,
+     * since they may come from directory listings and the device catalogue
+     * rather than from constants, and the commands are run as root.
+     *
+     * @param paths the paths of the files whose UID to change.
+     * @param uid the UID to which to change the ownership of the files.
+     * @return the command lines, one for each path.
+     */
+    private static String[] buildChownCommandLines(String[] paths, int uid) {
+        final String[] commandLines = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            commandLines[i] =
+                "chown " + uid + " " + quoteShellArgument(paths[i])
+                    + " 2>&1; echo "
+                    + CHOWN_RESULT_MARKER + " " + i + " $?";
+        }
+        return commandLines;
+    }
+
+    /**
+     * Quotes a string so that a shell treats it as a single word with no
+     * expansions, by enclosing it in single quotes and replacing each single
+     * quote within it with '\''.
+     *
+     * @param s the string to quote.
+     * @return the quoted string.
+     */
+    static String quoteShellArgument(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Parses the output of the command lines created by
+     * {@link #buildChownCommandLines} and records the new UID of each file
+     * whose chown succeeded.
+     *
+     * @param paths the paths of the files whose UID was changed.
+     * @param uid the UID to which the ownership of the files was changed.
+     * @param output the output of the commands; may be null.
+     * @throws ChownException if changing the UID of any file failed; if
+     * several failed then the exception describes the first of them.
+     */
+    private static void checkChownOutput(String[] paths, int uid,
+            String output) throws ChownException {
+        // verify that each chown completed with exit code 0, which indicates
+        // success; the output of each chown precedes its marker line
+        final int[] exitCodes = new int[paths.length];
+        final String[] outputs = new String[paths.length];
+        Arrays.fill(exitCodes, -1);
+        if (output != null) {
+            final StringBuilder sb = new StringBuilder();
+            for (final String line : output.split("\n")) {
+                final String lineTrimmed = line.trim();
+                if (!lineTrimmed.startsWith(CHOWN_RESULT_MARKER)) {
+                    sb.append(lineTrimmed).append('\n');
+                    continue;
+                }
+                final String[] fields = lineTrimmed.split(" ");
+                try {
+                    final int index = Integer.parseInt(fields[1]);
+                    exitCodes[index] = Integer.parseInt(fields[2]);
+                    outputs[index] = sb.toString().trim();
+                } catch (final RuntimeException e) {
+                    // malformed marker line; the affected path will be
+                    // reported as failed below
+                }
+                sb.setLength(0);
+            }
+        }
+
+        for (int i = 0; i < paths.length; i++) {
+            if (exitCodes[i] != 0) {
+                final String message;
+                if (outputs[i] != null) {
+                    message = outputs[i];
+                } else if (output != null) {
+                    message = output.trim();
+                } else {
+                    message = null;
+                }
+                throw new ChownExitCodeException(message, exitCodes[i],
+                    paths[i]);
+            }
+            fileStateCache.setUid(paths[i], uid);
+        }
+    }
+
+    /**
+     * Writes an integer to a file using FileOperations.writeIntProtected(),
+     * which makes the file writable, writes the value, and makes the file
+     * read-only again.
+     *
+     * @param path the path of the file to which to write, which must be owned
+     * by the UID of the current process.
+     * @param value the integer value to write to the file.
+     * @return true if the value was written, or false if the native library
+     * does not provide FileOperations.writeIntProtected(), in which case the
+     * caller must write the value some other way.
+     * @throws WriteFailedException if the native write fails; if the file is
+     * not owned by the UID of the current process then the errno of the
+     * exception is EPERM.
+     */
+    private static boolean writeIntProtected(String path, int value)
+            throws WriteFailedException {
         try {
-            command.waitForFinish();
-            exitCode = command.exitCode();
-        } catch (final InterruptedException e) {
-            throw new ChownWaitInterruptedException(e.getMessage(), path);
+            SysfsEnvironment.getFileOperations().writeIntProtected(path, value,
+                READ_WRITE_MODE, READ_ONLY_MODE);
+        } catch (final UnsatisfiedLinkError e) {
+            nativeWriteUnavailable = true;
+            return false;
+        } catch (final ClibException e) {
+            fileStateCache.invalidate(path);
+            final String message = e.getMessage();
+            final int errno = e.getErrno();
+            throw new WriteFailedException(message, errno, path);
+        }
+        performedWriteCount.incrementAndGet();
+        fileStateCache.setMode(path, READ_ONLY_MODE);
+        ScreenOnTracer.markWrites(1);
+        return true;
+    }
+
+    /**
+     * Writes a sequence of integers to files using FileOperations.applyBatch().
+     *
+     * @param paths the paths of the files to which to write, which must be
+     * owned by the UID of the current process.
+     * @param values the integer values to write to the files.
+     * @param count the number of writes to perform.
+     * @return the index of the write that failed, at which the batch
+     * stopped, or, if all writes were successful, count; if the native
+     * library does not provide FileOperations.applyBatch() then 0 is returned.
+     */
+    private int applyBatch(String[] paths, int[] values, int count) {
+        int[] errnos = this.batchErrnos;
+        if (errnos.length < count) {
+            errnos = new int[count];
+            this.batchErrnos = errnos;
+        }
+
+        final int failedIndex;
+        try {
+            failedIndex =
+                SysfsEnvironment.getFileOperations().applyBatch(paths, values,
+                    count, errnos, READ_WRITE_MODE, READ_ONLY_MODE);
+        } catch (final UnsatisfiedLinkError e) {
+            nativeWriteUnavailable = true;
+            return 0;
+        }
+
+        // the writes before the failed one were successful, so remember the
+        // value written and that the files were left read-only; forget
+        // everything about the file of the failed write
+        for (int i = 0; i < failedIndex; i++) {
+            fileStateCache.setMode(paths[i], READ_ONLY_MODE);
+            fileStateCache.setLastWrittenValue(paths[i], values[i]);
+        }
+        if (failedIndex < count) {
+            fileStateCache.invalidate(paths[failedIndex]);
         }
+        performedWriteCount.addAndGet(failedIndex);
+        ScreenOnTracer.markWrites(failedIndex);
+        return failedIndex;
+    }
 
-        // verify that chown completed with exit code 0, which indicates success
-        if (exitCode != 0) {
-            final String output = command.toString();
-            final String outputTrimmed;
-            if (output == null) {
-                outputTrimmed = null;
-            } else {
-                outputTrimmed = output.trim();
+    private static boolean anyHeld(String[] paths, int count) {
+        for (int i = 0; i < count; i++) {
+            if (paths[i] == null) {
+                throw new NullPointerException("paths contains null");
+            } else if (SysfsAttribute.getIfHeld(paths[i]) != null) {
+                return true;
             }
-            throw new ChownExitCodeException(outputTrimmed, exitCode, path);
         }
+        return false;
     }
 
-    private static void writeIntToFile(String path, int value)
-            throws IntFileWriteException {
+    private void writeIntToFile(String path, int value,
+            SysfsAttribute attribute) throws IntFileWriteException {
         assert path != null;
 
-        // convert the int value to an encoded byte array
-        final String valueStr = Integer.toString(value) + "\n";
-        final byte[] buffer;
-        try {
-            buffer = valueStr.getBytes("US-ASCII");
-        } catch (final UnsupportedEncodingException e) {
-            // should never happen since US-ASCII is a built-in encoding
-            throw new RuntimeException(e.toString());
+        // convert the int value to encoded bytes without allocating
+        final int length = formatIntLine(value, this.writeBytes);
+        final ByteBuffer buffer = this.writeBuffer;
+        buffer.clear();
+        buffer.limit(length);
+
+        // write through the persistent handle, if there is one
+        if (attribute != null) {
+            try {
+                attribute.write(buffer);
+            } catch (final IOException e) {
+                throw new IntFileIOException(e.getMessage(), path);
+            }
+            return;
         }
 
-        // write the encoded byte array to the file
+        // write the encoded bytes to the file; this is only reached when the
+        // native library is too old to do the write, so the file is simply
+        // opened for each write
         final FileOutputStream f;
         try {
             f = new FileOutputStream(path);
         } catch (final FileNotFoundException e) {
             throw new IntFileNotFoundException(e.getMessage(), path);
         }
-
         try {
-            f.write(buffer);
+            f.write(this.writeBytes, 0, length);
         } catch (final IOException e) {
             throw new IntFileIOException(e.getMessage(), path);
         } finally {
@@ -414,6 +1189,76 @@ public class IntFileRootHelper {
         }
     }
 
+    private static void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            // oh well
+        }
+    }
+
+    /**
+     * Formats an integer as US-ASCII decimal digits followed by a newline, the
+     * same as encoding Integer.toString(value) + "\n", but without allocating.
+     *
+     * @param value the integer to format.
+     * @param buffer the buffer into which to store the formatted bytes; must
+     * have a length of at least {@link #MAX_INT_LINE_LENGTH}.
+     * @return the number of bytes stored into the buffer.
+     */
+    static int formatIntLine(int value, byte[] buffer) {
+        int length = 0;
+
+        // use a long so that negating Integer.MIN_VALUE does not overflow
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[length++] = '-';
+            remaining = -remaining;
+        }
+
+        int digitCount = 1;
+        for (long x = remaining; x >= 10; x /= 10) {
+            digitCount++;
+        }
+        for (int i = length + digitCount - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        length += digitCount;
+
+        buffer[length++] = '\n';
+        return length;
+    }
+
+    /**
+     * The ways in which {@link IntFileRootHelper#write} can skip writes that
+     * would not change the value of the file.
+     * {@link IntFileRootHelper#writeAll} applies the mode to its sequence of
+     * writes as a whole.
+     */
+    public static enum ConditionalWriteMode {
+
+        /**
+         * Never skip writes.
+         */
+        ALWAYS_WRITE,
+
+        /**
+         * Skip the write if the value is the last value that was written to
+         * the file by this process. This is only safe for files whose value
+         * nothing else will change.
+         */
+        SKIP_IF_LAST_WRITTEN,
+
+        /**
+         * Skip the write if the value is the last value that was written to
+         * the file by this process <em>and</em> reading the file yields that
+         * value. This is safe for files whose value may be changed by
+         * something else, such as the kernel, at the cost of a read.
+         */
+        SKIP_IF_LAST_WRITTEN_AND_UNCHANGED,
+    }
+
     /**
      * Exception thrown if the chmod function call on a file fails.
      */
@@ -495,6 +1340,98 @@ public class IntFileRootHelper {
         }
     }
 
+    /**
+     * The future returned from {@link IntFileRootHelper#ensureOwnedAsync},
+     * which checks the output of the chown commands the first time that it is
+     * waited for.
+     */
+    private static class ChownFuture implements Future<Void> {
+
+        private final String[] paths;
+        private final int uid;
+        private final Future<String> output;
+        private final long startNanos;
+
+        /**
+         * Whether or not the output has been checked. All access to this
+         * field must be done while synchronized on this object.
+         */
+        private boolean checked;
+
+        /**
+         * The exception thrown from checking the output, or null if it has
+         * not been checked or the check succeeded. All access to this field
+         * must be done while synchronized on this object.
+         */
+        private ChownException failure;
+
+        public ChownFuture(String[] paths, int uid, Future<String> output,
+                long startNanos) {
+            this.paths = paths;
+            this.uid = uid;
+            this.output = output;
+            this.startNanos = startNanos;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return this.output.cancel(mayInterruptIfRunning);
+        }
+
+        public Void get() throws InterruptedException, ExecutionException {
+            final String output;
+            try {
+                output = this.output.get();
+            } catch (final ExecutionException e) {
+                throw this.launchFailed(e);
+            }
+            return this.check(output);
+        }
+
+        public Void get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            final String output;
+            try {
+                output = this.output.get(timeout, unit);
+            } catch (final ExecutionException e) {
+                throw this.launchFailed(e);
+            }
+            return this.check(output);
+        }
+
+        public boolean isCancelled() {
+            return this.output.isCancelled();
+        }
+
+        public boolean isDone() {
+            return this.output.isDone();
+        }
+
+        private synchronized Void check(String output)
+                throws ExecutionException {
+            if (!this.checked) {
+                this.checked = true;
+                Metrics.CHOWN.recordSince(this.startNanos);
+                try {
+                    checkChownOutput(this.paths, this.uid, output);
+                } catch (final ChownException e) {
+                    this.failure = e;
+                }
+            }
+            if (this.failure != null) {
+                throw new ExecutionException(this.failure);
+            }
+            return null;
+        }
+
+        private ExecutionException launchFailed(ExecutionException e) {
+            final Throwable cause = e.getCause();
+            final String message = (cause == null) ? null : cause.getMessage();
+            return new ExecutionException(new ChownLaunchException(message,
+                this.paths[0]));
+        }
+    }
+
     /**
      * Exception thrown if launching the chown process fails.
      */
@@ -783,4 +1720,34 @@ public class IntFileRootHelper {
             return this.errno;
         }
     }
+
+    /**
+     * Exception thrown if writing a value to a file with native code fails.
+     */
+    public static class WriteFailedException extends IntFileWriteException {
+
+        private static final long serialVersionUID = -5532718946013854719L;
+        private final int errno;
+
+        /**
+         * Creates a new instance of WriteFailedException.
+         *
+         * @param message the message of this exception.
+         * @param errno the errno value of the operation that failed.
+         * @param path the path of the file whose write failed.
+         */
+        public WriteFailedException(String message, int errno, String path) {
+            super(message, path);
+            this.errno = errno;
+        }
+
+        /**
+         * Returns the errno that was specified to the constructor.
+         *
+         * @return the errno that was specified to the constructor.
+         */
+        public int getErrno() {
+            return this.errno;
+        }
+    }
 }
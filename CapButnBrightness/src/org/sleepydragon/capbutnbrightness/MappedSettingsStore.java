@@ -0,0 +1,381 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Stores the settings in a small file with a fixed binary layout that is
+ * memory-mapped, so that reading a setting is a few loads from memory rather
+ * than parsing a SharedPreferences XML file. Since the mapping is shared, a
+ * value written by one process is seen by all other processes that have the
+ * file mapped.
+ * <p>
+ * The file contains a sequence number that a writer increments before it
+ * starts changing the values, making it odd, and again once it is done,
+ * making it even. Writers are serialized within the process by synchronizing
+ * on this object and across processes by locking the file.
+ * <p>
+ * The flags and the level are read together, while holding the same locks as
+ * a writer, into an immutable snapshot that is published through a volatile
+ * field. A reader only takes the locks if the sequence number in the file
+ * differs from that of the snapshot, that is, if the values have been changed
+ * since the snapshot was taken, so the common case is a volatile read and a
+ * single load from the mapping. Unless the file cannot be locked, the values
+ * are never read from the mapping without the locks, so the flags and the
+ * level always come from the same write.
+ * <p>
+ * The layout of the file is as follows, all values being 32-bit big-endian
+ * integers:
+ * <pre>
+ * offset 0:  magic number (see MAGIC)
+ * offset 4:  layout version (see LAYOUT_VERSION)
+ * offset 8:  sequence number
+ * offset 12: flags (see the FLAG_ constants)
+ * offset 16: brightness level, if FLAG_LEVEL_SET is set
+ * </pre>
+ * This class is thread safe.
+ */
+public class MappedSettingsStore {
+
+    /**
+     * Flag that is set if a brightness level has been saved.
+     */
+    public static final int FLAG_LEVEL_SET = 0x00000001;
+
+    /**
+     * Flag that is set if the brightness should be set when the device boots.
+     */
+    public static final int FLAG_SET_BRIGHTNESS_ON_BOOT = 0x00000002;
+
+    /**
+     * The number of bytes in the file.
+     */
+    public static final int SIZE = 32;
+
+    private static final int MAGIC = 0x43425331; // "CBS1"
+    private static final int LAYOUT_VERSION = 1;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_LAYOUT_VERSION = 4;
+    private static final int OFFSET_SEQUENCE = 8;
+    private static final int OFFSET_FLAGS = 12;
+    private static final int OFFSET_LEVEL = 16;
+
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+
+    /**
+     * The values that were last read from or written to the buffer, or null
+     * if none have been yet. This field is only written while synchronized on
+     * this object.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates a new instance of MappedSettingsStore that stores the settings
+     * in the given buffer.
+     *
+     * @param buffer the buffer in which to store the settings; must have a
+     * capacity of at least {@link #SIZE} bytes.
+     * @param channel the channel of the file that is mapped by the given
+     * buffer, which is locked while writing; may be null if the buffer is not
+     * backed by a file.
+     * @throws NullPointerException if buffer==null.
+     * @throws IllegalArgumentException if the buffer is too small.
+     */
+    MappedSettingsStore(ByteBuffer buffer, FileChannel channel) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer==null");
+        } else if (buffer.capacity() < SIZE) {
+            throw new IllegalArgumentException("buffer too small: "
+                + buffer.capacity());
+        }
+        this.buffer = buffer;
+        this.channel = channel;
+    }
+
+    /**
+     * Creates a new MappedSettingsStore that is not backed by a file, such as
+     * for when the file cannot be opened. The returned store is not
+     * initialized.
+     *
+     * @return a new MappedSettingsStore; never returns null.
+     */
+    public static MappedSettingsStore createInMemory() {
+        final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        return new MappedSettingsStore(buffer, null);
+    }
+
+    /**
+     * Opens the given file, creating it if it does not exist, and maps it into
+     * memory.
+     *
+     * @param file the file to open.
+     * @return a new MappedSettingsStore for the given file; never returns
+     * null; use {@link #isInitialized()} to determine whether or not the file
+     * already contained settings.
+     * @throws IOException if opening or mapping the file fails.
+     * @throws NullPointerException if file==null.
+     */
+    public static MappedSettingsStore open(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file==null");
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        boolean success = false;
+        try {
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() < SIZE) {
+                raf.setLength(SIZE);
+            }
+            final MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            final MappedSettingsStore store =
+                new MappedSettingsStore(buffer, channel);
+            store.repair();
+            success = true;
+            return store;
+        } finally {
+            if (!success) {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the flags.
+     *
+     * @return the flags, a combination of the FLAG_ constants.
+     */
+    public int getFlags() {
+        return this.getSnapshot().flags;
+    }
+
+    /**
+     * Returns the saved brightness level.
+     *
+     * @return the saved brightness level, or null if none is saved.
+     */
+    public Integer getLevel() {
+        final Snapshot snapshot = this.getSnapshot();
+        if ((snapshot.flags & FLAG_LEVEL_SET) == 0) {
+            return null;
+        }
+        return snapshot.level;
+    }
+
+    /**
+     * Returns whether or not the store contains settings, that is, whether
+     * or not {@link #initialize} or a setter has ever been invoked on it.
+     *
+     * @return true if the store contains settings, false otherwise.
+     */
+    public boolean isInitialized() {
+        final ByteBuffer buffer = this.buffer;
+        return (buffer.getInt(OFFSET_MAGIC) == MAGIC && buffer
+            .getInt(OFFSET_LAYOUT_VERSION) == LAYOUT_VERSION);
+    }
+
+    /**
+     * Writes all of the settings at once, such as when migrating them from
+     * another store.
+     *
+     * @param level the brightness level to save; may be null to save no
+     * level.
+     * @param setBrightnessOnBoot whether or not the brightness should be set
+     * when the device boots.
+     * @throws IOException if locking the file fails.
+     */
+    public void initialize(Integer level, boolean setBrightnessOnBoot)
+            throws IOException {
+        int flags = setBrightnessOnBoot ? FLAG_SET_BRIGHTNESS_ON_BOOT : 0;
+        if (level != null) {
+            flags |= FLAG_LEVEL_SET;
+        }
+        this.write(~0, flags, (level == null) ? 0 : level);
+    }
+
+    /**
+     * Saves the brightness level.
+     *
+     * @param level the brightness level to save; may be null to clear the
+     * saved level.
+     * @throws IOException if locking the file fails.
+     */
+    public void setLevel(Integer level) throws IOException {
+        final int flags = (level == null) ? 0 : FLAG_LEVEL_SET;
+        this.write(FLAG_LEVEL_SET, flags, (level == null) ? 0 : level);
+    }
+
+    /**
+     * Saves whether or not the brightness should be set when the device
+     * boots.
+     *
+     * @param enabled true if the brightness should be set when the device
+     * boots, false otherwise.
+     * @throws IOException if locking the file fails.
+     */
+    public void setSetBrightnessOnBoot(boolean enabled) throws IOException {
+        final int flags = enabled ? FLAG_SET_BRIGHTNESS_ON_BOOT : 0;
+        this.write(FLAG_SET_BRIGHTNESS_ON_BOOT, flags, -1);
+    }
+
+    /**
+     * Forces all changes to be written to the file.
+     */
+    public void sync() {
+        if (this.buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) this.buffer).force();
+        }
+    }
+
+    /**
+     * Returns the snapshot of the values, reading a new one if the values have
+     * been changed since it was taken.
+     */
+    private Snapshot getSnapshot() {
+        final Snapshot snapshot = this.snapshot;
+        if (snapshot != null
+            && this.buffer.getInt(OFFSET_SEQUENCE) == snapshot.sequence) {
+            return snapshot;
+        }
+        return this.readSnapshot();
+    }
+
+    /**
+     * Reads the values from the buffer while holding the same locks as a
+     * writer. The sequence number is only odd while a writer holds the lock,
+     * so if it is odd once the lock has been acquired then the writer must
+     * have died, and the sequence number is repaired. If the file cannot be
+     * locked then the values are read anyway, since no writer in this
+     * process can be changing them, but are not kept as the snapshot.
+     */
+    private synchronized Snapshot readSnapshot() {
+        FileLock lock = null;
+        boolean locked = (this.channel == null);
+        try {
+            if (!locked) {
+                try {
+                    lock = this.channel.lock();
+                    locked = true;
+                } catch (final IOException e) {
+                    // read without the lock, as documented above
+                }
+            }
+
+            final ByteBuffer buffer = this.buffer;
+            int sequence = buffer.getInt(OFFSET_SEQUENCE);
+            if (locked && (sequence & 1) != 0) {
+                sequence++;
+                buffer.putInt(OFFSET_SEQUENCE, sequence);
+            }
+            final Snapshot snapshot =
+                new Snapshot(sequence, buffer.getInt(OFFSET_FLAGS),
+                    buffer.getInt(OFFSET_LEVEL));
+            if (locked) {
+                this.snapshot = snapshot;
+            }
+            return snapshot;
+        } finally {
+            if (lock != null) {
+                try {
+                    lock.release();
+                } catch (final IOException e) {
+                    // the lock is released anyway when the channel is closed
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the sequence number even if a writer died while it was odd. The
+     * sequence number is only odd while the writer holds the lock, so if it is
+     * odd once the lock has been acquired then the writer must have died.
+     */
+    private synchronized void repair() throws IOException {
+        final FileLock lock =
+            (this.channel == null) ? null : this.channel.lock();
+        try {
+            final int sequence = this.buffer.getInt(OFFSET_SEQUENCE);
+            if ((sequence & 1) != 0) {
+                this.buffer.putInt(OFFSET_SEQUENCE, sequence + 1);
+            }
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Changes some of the flags, and optionally the level.
+     *
+     * @param mask the flags to change.
+     * @param flags the new values of the flags to change.
+     * @param level the new level, which is only written if mask includes
+     * FLAG_LEVEL_SET.
+     */
+    private synchronized void write(int mask, int flags, int level)
+            throws IOException {
+        final FileLock lock =
+            (this.channel == null) ? null : this.channel.lock();
+        try {
+            final ByteBuffer buffer = this.buffer;
+            final int sequence = buffer.getInt(OFFSET_SEQUENCE) | 1;
+            buffer.putInt(OFFSET_SEQUENCE, sequence);
+            final int oldFlags = buffer.getInt(OFFSET_FLAGS);
+            final int newFlags = (oldFlags & ~mask) | (flags & mask);
+            buffer.putInt(OFFSET_FLAGS, newFlags);
+            if ((mask & FLAG_LEVEL_SET) != 0) {
+                buffer.putInt(OFFSET_LEVEL, level);
+            }
+            buffer.putInt(OFFSET_MAGIC, MAGIC);
+            buffer.putInt(OFFSET_LAYOUT_VERSION, LAYOUT_VERSION);
+            buffer.putInt(OFFSET_SEQUENCE, sequence + 1);
+            this.snapshot =
+                new Snapshot(sequence + 1, newFlags,
+                    buffer.getInt(OFFSET_LEVEL));
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * The flags and the level as they were at a given sequence number.
+     */
+    private static class Snapshot {
+
+        public final int sequence;
+        public final int flags;
+        public final int level;
+
+        public Snapshot(int sequence, int flags, int level) {
+            this.sequence = sequence;
+            this.flags = flags;
+            this.level = level;
+        }
+    }
+}
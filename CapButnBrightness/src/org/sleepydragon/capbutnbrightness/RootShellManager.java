@@ -0,0 +1,373 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.OperationNotifier;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateDeniedException;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateException;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateIOException;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateTimeoutException;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellNotRootedException;
+import org.sleepydragon.capbutnbrightness.metrics.Metrics;
+
+import com.stericson.RootTools.RootTools;
+import com.stericson.RootTools.exceptions.RootDeniedException;
+import com.stericson.RootTools.execution.Shell;
+
+/**
+ * Manages a single root shell that is shared by every {@link IntFileRootHelper}
+ * in the process. Spawning "su" is by far the most expensive part of setting
+ * the capacitive buttons brightness, so rather than opening and closing a root
+ * shell for each operation the shell is kept "warm" and lent out to whoever
+ * needs it. Once the shell has not been borrowed for
+ * {@link #getIdleTimeoutMillis()} milliseconds it is closed so that the su
+ * process does not linger forever.
+ * <p>
+ * Shells are borrowed with {@link #acquire} and must be given back with
+ * {@link #release} when no longer needed. If a borrowed shell is found to be
+ * dead (eg. commands can no longer be written to it) then it should be given
+ * back with {@link #invalidate} instead, so that the next call to
+ * {@link #acquire} creates a new shell.
+ * <p>
+ * This class is thread safe.
+ */
+public class RootShellManager {
+
+    /**
+     * The default number of milliseconds that the root shell is kept open
+     * after it was last released.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * The number of milliseconds to wait for a root shell to be opened.
+     */
+    private static final int SHELL_OPEN_TIMEOUT_MILLIS = 60000;
+
+    private static RootShellManager instance;
+
+    private final Object lock = new Object();
+    private final ScheduledExecutorService evictor;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger evictionCount = new AtomicInteger();
+
+    /**
+     * The shared root shell, or null if there is currently no open root shell.
+     * All access to this field must be done while synchronized on lock.
+     */
+    private Shell shell;
+
+    /**
+     * The number of outstanding calls to acquire() that have not yet been
+     * matched by a call to release() or invalidate(). All access to this field
+     * must be done while synchronized on lock.
+     */
+    private int borrowCount;
+
+    /**
+     * The scheduled task that will close the shell once it has been idle for
+     * long enough, or null if no such task is scheduled. All access to this
+     * field must be done while synchronized on lock.
+     */
+    private ScheduledFuture<?> pendingEviction;
+
+    /**
+     * All access to this field must be done while synchronized on lock.
+     */
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    /**
+     * Creates a new instance of RootShellManager.
+     */
+    RootShellManager() {
+        final ThreadFactory threadFactory = new EvictorThreadFactory();
+        this.evictor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Returns the RootShellManager that is shared by the entire process.
+     *
+     * @return the RootShellManager that is shared by the entire process; never
+     * returns null.
+     */
+    public static RootShellManager getInstance() {
+        synchronized (RootShellManager.class) {
+            if (instance == null) {
+                instance = new RootShellManager();
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Borrows the shared root shell, creating it if necessary. Every
+     * successful call to this method must be matched by a call to either
+     * {@link #release} or {@link #invalidate}.
+     *
+     * @param notifier the object to notify if a request for root privileges
+     * needs to be made; may be null to not send notifications.
+     * @return the root shell; never returns null.
+     * @throws RootShellCreateException if creating the root shell fails.
+     */
+    public Shell acquire(OperationNotifier notifier)
+            throws RootShellCreateException {
+        final long startNanos = System.nanoTime();
+        try {
+            return this.acquireShell(notifier);
+        } finally {
+            Metrics.ROOT_SHELL_ACQUIRE.recordSince(startNanos);
+        }
+    }
+
+    private Shell acquireShell(OperationNotifier notifier)
+            throws RootShellCreateException {
+        synchronized (this.lock) {
+            this.cancelPendingEviction();
+
+            // the shell may have been closed behind our back, such as by
+            // another user of RootTools, in which case it can't be used
+            if (this.shell != null && !Shell.isRootShellOpen()) {
+                this.shell = null;
+            }
+
+            Shell shell = this.shell;
+            if (shell != null) {
+                this.hitCount.incrementAndGet();
+            } else {
+                this.missCount.incrementAndGet();
+                shell = openRootShell(notifier);
+                this.shell = shell;
+            }
+
+            this.borrowCount++;
+            return shell;
+        }
+    }
+
+    /**
+     * Closes the root shell immediately, if it is open and not currently
+     * borrowed. This may be invoked, for example, when the process is about to
+     * go away.
+     */
+    public void evict() {
+        final Shell shell;
+        synchronized (this.lock) {
+            if (this.borrowCount > 0) {
+                return;
+            }
+            this.cancelPendingEviction();
+            shell = this.shell;
+            this.shell = null;
+        }
+        if (shell != null) {
+            this.evictionCount.incrementAndGet();
+            closeShell(shell);
+        }
+    }
+
+    /**
+     * Returns the number of times that the root shell has been closed due to
+     * being idle or due to an explicit call to {@link #evict}.
+     *
+     * @return the number of evictions of the root shell.
+     */
+    public int getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Returns the number of calls to {@link #acquire} that were satisfied by a
+     * root shell that was already open.
+     *
+     * @return the number of calls to {@link #acquire} that did not need to
+     * create a new root shell.
+     */
+    public int getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of milliseconds that the root shell is kept open
+     * after it was last released.
+     *
+     * @return the idle timeout, in milliseconds.
+     * @see #setIdleTimeoutMillis(long)
+     */
+    public long getIdleTimeoutMillis() {
+        synchronized (this.lock) {
+            return this.idleTimeoutMillis;
+        }
+    }
+
+    /**
+     * Returns the number of calls to {@link #acquire} that needed to create a
+     * new root shell, whether or not that creation was successful.
+     *
+     * @return the number of calls to {@link #acquire} that needed to create a
+     * new root shell.
+     */
+    public int getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Gives back a root shell that was borrowed with {@link #acquire} but that
+     * was found to be unusable. The shell is closed and the next call to
+     * {@link #acquire} will create a new one.
+     *
+     * @param shell the shell that was returned from {@link #acquire}.
+     * @throws NullPointerException if shell==null.
+     */
+    public void invalidate(Shell shell) {
+        if (shell == null) {
+            throw new NullPointerException("shell==null");
+        }
+        synchronized (this.lock) {
+            this.borrowCount--;
+            if (this.shell == shell) {
+                this.shell = null;
+            }
+            this.scheduleEvictionIfIdle();
+        }
+        closeShell(shell);
+    }
+
+    /**
+     * Gives back a root shell that was borrowed with {@link #acquire}. The
+     * shell is kept open so that it can be re-used by subsequent calls to
+     * {@link #acquire} and will be closed once it has been idle for
+     * {@link #getIdleTimeoutMillis()} milliseconds.
+     *
+     * @param shell the shell that was returned from {@link #acquire}.
+     * @throws NullPointerException if shell==null.
+     */
+    public void release(Shell shell) {
+        if (shell == null) {
+            throw new NullPointerException("shell==null");
+        }
+        synchronized (this.lock) {
+            this.borrowCount--;
+            this.scheduleEvictionIfIdle();
+        }
+    }
+
+    /**
+     * Sets the number of milliseconds that the root shell is kept open after
+     * it was last released.
+     *
+     * @param idleTimeoutMillis the idle timeout to set, in milliseconds; must
+     * be greater than or equal to zero, where zero means to close the root
+     * shell as soon as it is released.
+     * @throws IllegalArgumentException if idleTimeoutMillis is negative.
+     * @see #getIdleTimeoutMillis()
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("invalid idleTimeoutMillis: "
+                + idleTimeoutMillis);
+        }
+        synchronized (this.lock) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+        }
+    }
+
+    /**
+     * Cancels the scheduled eviction of the root shell, if any. Must be
+     * invoked while synchronized on lock.
+     */
+    private void cancelPendingEviction() {
+        final ScheduledFuture<?> pendingEviction = this.pendingEviction;
+        if (pendingEviction != null) {
+            this.pendingEviction = null;
+            pendingEviction.cancel(false);
+        }
+    }
+
+    /**
+     * Schedules the root shell to be closed after the idle timeout if it is
+     * open and no longer borrowed by anybody. Must be invoked while
+     * synchronized on lock.
+     */
+    private void scheduleEvictionIfIdle() {
+        if (this.borrowCount > 0 || this.shell == null) {
+            return;
+        }
+        this.cancelPendingEviction();
+        this.pendingEviction =
+            this.evictor.schedule(new EvictRunnable(), this.idleTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static void closeShell(Shell shell) {
+        try {
+            shell.close();
+        } catch (final IOException e) {
+            // oh well
+        }
+    }
+
+    private static Shell openRootShell(OperationNotifier notifier)
+            throws RootShellCreateException {
+        if (notifier != null) {
+            notifier.rootRequestStarted();
+        }
+        try {
+            return RootTools.getShell(true, SHELL_OPEN_TIMEOUT_MILLIS);
+        } catch (final IOException e) {
+            if (!RootTools.isRootAvailable()) {
+                throw new RootShellNotRootedException(
+                    "device needs to be rooted");
+            } else {
+                throw new RootShellCreateIOException(e.getMessage());
+            }
+        } catch (final TimeoutException e) {
+            throw new RootShellCreateTimeoutException(e.getMessage());
+        } catch (final RootDeniedException e) {
+            throw new RootShellCreateDeniedException(e.getMessage());
+        } finally {
+            if (notifier != null) {
+                notifier.rootRequestCompleted();
+            }
+        }
+    }
+
+    private class EvictRunnable implements Runnable {
+
+        public void run() {
+            RootShellManager.this.evict();
+        }
+    }
+
+    private static class EvictorThreadFactory implements ThreadFactory {
+
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "RootShellEvictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import org.sleepydragon.capbutnbrightness.devices.CapacitiveButtonsBacklightBrightness;
+import org.sleepydragon.capbutnbrightness.metrics.ScreenOnTracer;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Re-applies the saved capacitive buttons brightness when the screen turns on
+ * or off, directly on the calling thread. This is the "fast path" used by
+ * {@link ScreenPowerOnService}: when the screen turns on the OS writes its own
+ * value to the backlight files, and the saved level needs to be written back
+ * as soon as possible afterwards, so going through {@link SetBrightnessService}
+ * (starting the service, parcelling an intent and handing it off to another
+ * thread) is avoided.
+ * <p>
+ * Everything that does not depend on the saved level, such as looking up the
+ * device's {@link CapacitiveButtonsBacklightBrightness} and its "dim" level, is
+ * done once, when the object is created, rather than on every event.
+ * <p>
+ * Writes made by this class and by {@link SetBrightnessService} are serialized
+ * by synchronizing on the object returned from {@link #getWriteLock()}.
+ * <p>
+ * The latency of re-applying the saved level when the screen turns on is
+ * recorded by the {@link ScreenOnTracer}.
+ */
+public class ScreenEventApplier {
+
+    /**
+     * The options given to set() when the screen turns on.
+     */
+    private static final int SCREEN_ON_OPTIONS =
+        CapacitiveButtonsBacklightBrightness.OPTION_SCREEN_ON
+            | CapacitiveButtonsBacklightBrightness.OPTION_ELIDE_UNCHANGED;
+
+    /**
+     * The options given to set() when the screen turns off.
+     */
+    private static final int SCREEN_OFF_OPTIONS =
+        CapacitiveButtonsBacklightBrightness.OPTION_ELIDE_UNCHANGED;
+
+    private static final Object WRITE_LOCK = new Object();
+
+    private final Settings settings;
+    private final ScreenOnTracer tracer;
+    private final CapacitiveButtonsBacklightBrightness buttons;
+    private final int dimLevel;
+
+    /**
+     * Creates a new instance of ScreenEventApplier.
+     *
+     * @param context the context to use to read the saved brightness level.
+     * @throws NullPointerException if context==null.
+     */
+    public ScreenEventApplier(Context context) {
+        if (context == null) {
+            throw new NullPointerException("context==null");
+        }
+        this.settings = new Settings(context);
+        this.tracer = ScreenOnTracer.getInstance(context);
+        this.buttons =
+            SetBrightnessService.getButtonsWhoseBrightnessToSet(context);
+        this.dimLevel =
+            (this.buttons == null) ? 0 : this.buttons.getDefaultDimLevel();
+    }
+
+    /**
+     * Returns the object on which to synchronize while setting the capacitive
+     * buttons brightness, so that two threads do not write to the backlight
+     * files at the same time.
+     *
+     * @return the object on which to synchronize; never returns null.
+     */
+    public static Object getWriteLock() {
+        return WRITE_LOCK;
+    }
+
+    /**
+     * Turns the capacitive buttons backlight off, if a brightness level has
+     * been saved, since the OS turns it off anyways when the screen turns off.
+     */
+    public void onScreenOff() {
+        if (this.buttons == null || this.settings.getLevel() == null) {
+            return;
+        }
+        this.apply(0, SCREEN_OFF_OPTIONS);
+    }
+
+    /**
+     * Sets the capacitive buttons brightness to the saved brightness level, if
+     * any.
+     *
+     * @param receiveNanos the System.nanoTime() at which the SCREEN_ON
+     * broadcast was received, which is used to trace the latency of
+     * re-applying the level.
+     */
+    public void onScreenOn(long receiveNanos) {
+        if (this.buttons == null) {
+            return;
+        }
+        final boolean tracing = this.tracer.begin(receiveNanos);
+        try {
+            final Integer level = this.settings.getLevel();
+            if (level == null) {
+                return;
+            }
+
+            final int levelValue;
+            if (level == 0 || level == 100) {
+                levelValue = level;
+            } else {
+                levelValue = this.dimLevel;
+            }
+            this.tracer.markPlanned();
+            this.apply(levelValue, SCREEN_ON_OPTIONS);
+        } finally {
+            if (tracing) {
+                this.tracer.end();
+            }
+        }
+    }
+
+    private void apply(int levelValue, int options) {
+        try {
+            synchronized (WRITE_LOCK) {
+                this.tracer.markLocked();
+                this.buttons.set(levelValue, options, null);
+            }
+        } catch (final Exception e) {
+            Log.e(Constants.LOG_TAG, "Re-applying capacitive buttons "
+                + "brightness failed: " + e.getMessage(), e);
+        }
+    }
+}
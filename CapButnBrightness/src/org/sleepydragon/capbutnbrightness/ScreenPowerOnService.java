@@ -18,9 +18,13 @@ package org.sleepydragon.capbutnbrightness;
 
 import android.app.Service;
 import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
 
 /**
  * A service whose sole purpose is to register a broadcast receiver to respond
@@ -28,9 +32,29 @@ import android.os.IBinder;
  * does not work if defined in the AndroidManifest.xml (just do a quick search
  * on stackoverflow.com for ACTION_SCREEN_ON) and to work around this issue this
  * service acts as the "host" for the broadcast receiver.
+ * <p>
+ * A single receiver handles both SCREEN_ON and SCREEN_OFF. It runs on a
+ * dedicated high-priority thread rather than the main thread, and re-applies
+ * the saved brightness level on that thread using a
+ * {@link ScreenEventApplier} that is created once, on that thread, as soon as
+ * the service is created, so that the level is written back as soon as
+ * possible after the OS writes its own value when the screen turns on.
+ * Creating the applier resolves the device, which may parse the device
+ * catalogue and scan sysfs, so it is kept off the main thread, which only
+ * registers the receiver. Events are first passed
+ * through the {@link ScreenStateTracker}, so that duplicate events are
+ * dropped and events that are superseded while waiting to be applied are
+ * collapsed into the latest one, without doing any I/O.
+ * <p>
+ * Since this service lives for as long as the process does, it also holds
+ * the persistent sysfs handles (see {@link SysfsAttribute}) so that the
+ * backlight files do not need to be re-opened on every screen power event.
  */
 public class ScreenPowerOnService extends Service {
 
+    private HandlerThread receiverThread;
+    private BroadcastReceiver receiver;
+
     @Override
     public IBinder onBind(Intent intent) {
         return null; // clients cannot bind to this service
@@ -38,15 +62,33 @@ public class ScreenPowerOnService extends Service {
 
     @Override
     public void onCreate() {
-        final IntentFilter onFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
-        final BroadcastReceiver onRecvr =
-            new SetCapButtonBrightnessBroadcastReceiver();
-        this.registerReceiver(onRecvr, onFilter);
-
-        final IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
-        final BroadcastReceiver offRecvr =
-                new SetCapButtonBrightnessBroadcastReceiver();
-        this.registerReceiver(offRecvr, filter);
+        SysfsAttribute.holdPersistentHandles();
+
+        final HandlerThread thread =
+            new HandlerThread("ScreenPowerOnService",
+                Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        thread.start();
+        this.receiverThread = thread;
+        final Handler handler = new Handler(thread.getLooper());
+
+        ScreenStateTracker.getInstance().reset();
+        final ScreenEventReceiver receiver =
+            new ScreenEventReceiver(this, handler);
+        handler.post(receiver.new CreateApplierTask());
+
+        final IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        this.receiver = receiver;
+        this.registerReceiver(receiver, filter, null, handler);
+    }
+
+    @Override
+    public void onDestroy() {
+        this.unregisterReceiver(this.receiver);
+        this.receiver = null;
+        this.receiverThread.quit();
+        this.receiverThread = null;
+        SysfsAttribute.releasePersistentHandles();
     }
 
     @Override
@@ -54,4 +96,76 @@ public class ScreenPowerOnService extends Service {
         return START_STICKY;
     }
 
+    /**
+     * Re-applies the saved brightness level when the screen turns on or off.
+     * The events are recorded in the {@link ScreenStateTracker} as they are
+     * received and the resulting state is applied by a task posted to the
+     * same handler, so that events that are already queued behind the event
+     * that scheduled the task are collapsed into it.
+     */
+    private static class ScreenEventReceiver extends BroadcastReceiver
+            implements Runnable {
+
+        private final Context context;
+        private final Handler handler;
+        private final ScreenStateTracker tracker;
+
+        /**
+         * The object that applies the events, or null if it has not yet been
+         * created. This field must only be accessed on the thread of the
+         * handler.
+         */
+        private ScreenEventApplier applier;
+
+        public ScreenEventReceiver(Context context, Handler handler) {
+            this.context = context;
+            this.handler = handler;
+            this.tracker = ScreenStateTracker.getInstance();
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final long nanos = System.nanoTime();
+            final String action = intent.getAction();
+            final int state;
+            if (Intent.ACTION_SCREEN_ON.equals(action)) {
+                state = ScreenStateTracker.STATE_ON;
+            } else if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+                state = ScreenStateTracker.STATE_OFF;
+            } else {
+                return;
+            }
+            if (this.tracker.onEvent(state, nanos)) {
+                this.handler.post(this);
+            }
+        }
+
+        public void run() {
+            final long nanos = this.tracker.getStateNanos();
+            final int state = this.tracker.takePendingState();
+            if (state == ScreenStateTracker.STATE_ON) {
+                this.getApplier().onScreenOn(nanos);
+            } else if (state == ScreenStateTracker.STATE_OFF) {
+                this.getApplier().onScreenOff();
+            }
+        }
+
+        private ScreenEventApplier getApplier() {
+            if (this.applier == null) {
+                this.applier = new ScreenEventApplier(this.context);
+            }
+            return this.applier;
+        }
+
+        /**
+         * Creates the applier on the thread of the handler, ahead of the
+         * first event.
+         */
+        public class CreateApplierTask implements Runnable {
+
+            public void run() {
+                ScreenEventReceiver.this.getApplier();
+            }
+        }
+    }
 }
@@ -0,0 +1,206 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of whether the screen is on or off, based on the SCREEN_ON and
+ * SCREEN_OFF broadcasts received by {@link ScreenPowerOnService}, so that
+ * events that would not change anything are collapsed before any I/O is
+ * scheduled:
+ * <ul>
+ * <li>an event that reports the state that the screen is already known to be
+ * in (eg. a second SCREEN_ON without a SCREEN_OFF in between) is a duplicate
+ * and is dropped;</li>
+ * <li>an event that is superseded by another event before the first one has
+ * been applied (eg. a SCREEN_OFF that is still waiting to be applied when
+ * the following SCREEN_ON arrives) is collapsed into the later one, so that
+ * only the latest state is applied.</li>
+ * </ul>
+ * The receiver invokes {@link #onEvent} for each broadcast, which returns
+ * whether a task to apply the state needs to be scheduled, and that task
+ * invokes {@link #takePendingState()} to get the state to apply.
+ * <p>
+ * There is one instance of this class for the entire process, which is
+ * returned from {@link #getInstance()}. This class is thread safe.
+ */
+public class ScreenStateTracker {
+
+    /**
+     * The state of the screen before any event has been received.
+     */
+    public static final int STATE_UNKNOWN = 0;
+
+    /**
+     * The state of the screen after a SCREEN_ON event.
+     */
+    public static final int STATE_ON = 1;
+
+    /**
+     * The state of the screen after a SCREEN_OFF event.
+     */
+    public static final int STATE_OFF = 2;
+
+    private static final ScreenStateTracker INSTANCE = new ScreenStateTracker();
+
+    private final AtomicInteger eventCount = new AtomicInteger();
+    private final AtomicInteger duplicateCount = new AtomicInteger();
+    private final AtomicInteger collapsedCount = new AtomicInteger();
+
+    /**
+     * The state reported by the most recent event that was not dropped. All
+     * access to this field must be done while synchronized on this object.
+     */
+    private int state = STATE_UNKNOWN;
+
+    /**
+     * Whether or not the current state has yet to be applied. All access to
+     * this field must be done while synchronized on this object.
+     */
+    private boolean pending;
+
+    /**
+     * The System.nanoTime() at which the event that reported the current
+     * state was received. All access to this field must be done while
+     * synchronized on this object.
+     */
+    private long stateNanos;
+
+    /**
+     * Creates a new instance of ScreenStateTracker.
+     */
+    ScreenStateTracker() {
+    }
+
+    /**
+     * Returns the ScreenStateTracker that is shared by the entire process.
+     *
+     * @return the ScreenStateTracker that is shared by the entire process;
+     * never returns null.
+     */
+    public static ScreenStateTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the number of events that were collapsed into a later event.
+     *
+     * @return the number of collapsed events.
+     */
+    public int getCollapsedCount() {
+        return this.collapsedCount.get();
+    }
+
+    /**
+     * Returns the number of events that were dropped because the screen was
+     * already known to be in the state that they reported.
+     *
+     * @return the number of duplicate events.
+     */
+    public int getDuplicateCount() {
+        return this.duplicateCount.get();
+    }
+
+    /**
+     * Returns the number of calls to {@link #onEvent}.
+     *
+     * @return the number of events received.
+     */
+    public int getEventCount() {
+        return this.eventCount.get();
+    }
+
+    /**
+     * Returns the current state of the screen.
+     *
+     * @return the state reported by the most recent event that was not
+     * dropped; one of the STATE_ constants.
+     */
+    public synchronized int getState() {
+        return this.state;
+    }
+
+    /**
+     * Returns the time at which the event that reported the current state was
+     * received.
+     *
+     * @return the value given to {@link #onEvent} with the event that reported
+     * the current state.
+     */
+    public synchronized long getStateNanos() {
+        return this.stateNanos;
+    }
+
+    /**
+     * Records an event that reports the state of the screen.
+     *
+     * @param state the state reported by the event; must be either
+     * {@link #STATE_ON} or {@link #STATE_OFF}.
+     * @param nanos the System.nanoTime() at which the event was received.
+     * @return true if the caller must schedule a task that applies the state
+     * returned from {@link #takePendingState()}; false if the event was
+     * dropped as a duplicate or if such a task is already scheduled.
+     * @throws IllegalArgumentException if state is not valid.
+     */
+    public synchronized boolean onEvent(int state, long nanos) {
+        if (state != STATE_ON && state != STATE_OFF) {
+            throw new IllegalArgumentException("invalid state: " + state);
+        }
+        this.eventCount.incrementAndGet();
+        if (state == this.state) {
+            this.duplicateCount.incrementAndGet();
+            return false;
+        }
+
+        this.state = state;
+        this.stateNanos = nanos;
+        if (this.pending) {
+            this.collapsedCount.incrementAndGet();
+            return false;
+        }
+        this.pending = true;
+        return true;
+    }
+
+    /**
+     * Forgets the state of the screen and any state that has yet to be
+     * applied. This must be invoked when the receiver is registered, since a
+     * task scheduled by a previous receiver may never have run.
+     */
+    public synchronized void reset() {
+        this.state = STATE_UNKNOWN;
+        this.pending = false;
+        this.stateNanos = 0;
+    }
+
+    /**
+     * Returns the state to apply, and marks it as applied.
+     *
+     * @return the state to apply, which is one of the STATE_ constants; if
+     * there is no state to apply, such as if the only event received since
+     * the last state was applied was a duplicate, then
+     * {@link #STATE_UNKNOWN} is returned.
+     */
+    public synchronized int takePendingState() {
+        if (!this.pending) {
+            return STATE_UNKNOWN;
+        }
+        this.pending = false;
+        return this.state;
+    }
+}
@@ -16,15 +16,18 @@
  */
 package org.sleepydragon.capbutnbrightness;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.sleepydragon.capbutnbrightness.devices.CapacitiveButtonsBacklightBrightness;
 import org.sleepydragon.capbutnbrightness.devices.CapacitiveButtonsBacklightBrightness.DimBrightnessNotSupportedException;
-import org.sleepydragon.capbutnbrightness.devices.DeviceInfo;
-import org.sleepydragon.capbutnbrightness.devices.DeviceInfoDatabase;
+import org.sleepydragon.capbutnbrightness.devices.DeviceResolver;
+import org.sleepydragon.capbutnbrightness.metrics.Metrics;
 
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
@@ -48,8 +51,18 @@ import android.util.Log;
  * {@link #EXTRA_NAME_LEVEL} must be set to the brightness level to set. A
  * {@link Messenger} may be specified in the {@link #EXTRA_NAME_MESSENGER}
  * attribute if the caller is interested in the result of the operation.
+ * <p>
+ * Requests are run one at a time on a background thread by a
+ * {@link CoalescingExecutor}. Since only the most recent brightness level
+ * matters, a request that is still waiting to run when a newer one arrives is
+ * dropped rather than run, so that bursts of requests (eg. rapid widget taps or
+ * the screen being turned on and off repeatedly) do not result in a backlog of
+ * obsolete writes. A request that is to be saved as the new brightness level
+ * records the level as soon as it is received, and whichever request runs
+ * next saves it on the background thread before setting the brightness, so
+ * that the level is not lost if the request that recorded it is dropped.
  */
-public class SetBrightnessService extends IntentService {
+public class SetBrightnessService extends Service {
 
     /**
      * The action to be used in intents to indicate that the service should set
@@ -121,26 +134,80 @@ public class SetBrightnessService extends IntentService {
     public static final String KEY_MESSAGE = "message";
 
     /**
-     * Creates a new instance of SetBrightnessService.
+     * The executor that runs the requests to set the brightness. This is
+     * shared by the entire process, rather than being owned by the service,
+     * so that its statistics survive the service being stopped and started.
+     */
+    private static final CoalescingExecutor EXECUTOR = new CoalescingExecutor(
+        "SetBrightnessService");
+
+    /**
+     * The target of the tasks submitted to {@link #EXECUTOR}. All requests set
+     * the brightness of the same buttons, so they all replace each other.
+     */
+    private static final Object BUTTONS_TARGET = new Object();
+
+    /**
+     * The most recent level requested to be saved that has not yet been
+     * saved, or null if there is none. This is recorded by onStartCommand(),
+     * on the main thread, and saved by the next task to run, since saving
+     * requires resolving the device, which can be slow.
      */
-    public SetBrightnessService() {
-        super("SetBrightnessService");
+    private static final AtomicReference<Level> PENDING_SAVE =
+        new AtomicReference<Level>();
+
+    /**
+     * Returns the executor that runs the requests to set the brightness, such
+     * as to query its queue depth and the number of dropped requests.
+     *
+     * @return the executor that runs the requests to set the brightness; never
+     * returns null.
+     */
+    public static CoalescingExecutor getExecutor() {
+        return EXECUTOR;
     }
 
     /**
-     * Processes a request to set the backlight brightness.
+     * This service does not support binding.
+     *
+     * @return always returns null.
      */
     @Override
-    protected void onHandleIntent(Intent intent) {
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Records the brightness level specified by the given intent to be saved,
+     * if requested, and schedules the brightness to be set, replacing any
+     * request that has not yet started running. Nothing that may block is done
+     * here, since this is invoked on the main thread.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            this.stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+
         final String action = intent.getAction();
-        if (ACTION_SET_BRIGHTNESS.equals(action)) {
-            this.setBrightness(intent);
-        } else {
+        if (!ACTION_SET_BRIGHTNESS.equals(action)) {
             throw new RuntimeException("unsupported action: " + action);
         }
+
+        final SetBrightnessTask task = this.createTask(intent, startId);
+        if (task.save) {
+            PENDING_SAVE.set(task.level);
+        }
+
+        if (EXECUTOR.submit(BUTTONS_TARGET, task)) {
+            Log.i(Constants.LOG_TAG, "Dropped stale request to set capacitive "
+                + "buttons brightness; queued: " + task.level);
+        }
+        return START_NOT_STICKY;
     }
 
-    private void setBrightness(Intent intent) {
+    private SetBrightnessTask createTask(Intent intent, int startId) {
         final String levelName = intent.getStringExtra(EXTRA_NAME_LEVEL);
         if (levelName == null) {
             throw new RuntimeException("intent must define extra: "
@@ -153,24 +220,47 @@ public class SetBrightnessService extends IntentService {
 
         final Messenger messenger =
             intent.getParcelableExtra(EXTRA_NAME_MESSENGER);
-        this.setBrightness(level, options, save, messenger);
+        return new SetBrightnessTask(level, options, save, messenger, startId);
+    }
+
+    public static CapacitiveButtonsBacklightBrightness getButtonsWhoseBrightnessToSet(
+            Context context) {
+        return DeviceResolver.getInstance().getButtons(context);
     }
 
-    public static CapacitiveButtonsBacklightBrightness getButtonsWhoseBrightnessToSet() {
-        final DeviceInfoDatabase devices = new DeviceInfoDatabase();
-        final DeviceInfo device = devices.getForCurrentDevice();
+    private static Integer getLevelValue(Level level,
+            CapacitiveButtonsBacklightBrightness buttons) {
+        switch (level) {
+            case OFF:
+                return 0;
+            case DIM:
+                return buttons.getDefaultDimLevel();
+            case BRIGHT:
+                return 100;
+            case DEFAULT:
+                return null;
+            default:
+                throw new AssertionError("unsupported level: " + level);
+        }
+    }
+
+    private void saveLevel(Level level) {
         final CapacitiveButtonsBacklightBrightness buttons =
-            device.getCapacitiveButtonsBacklightBrightness();
-        return buttons;
+            getButtonsWhoseBrightnessToSet(this);
+        if (buttons == null) {
+            return;
+        }
+        final Integer levelValue = getLevelValue(level, buttons);
+        final Settings settings = new Settings(this);
+        settings.setLevel(levelValue);
     }
 
-    private void setBrightness(Level level, int options, boolean save,
-            Messenger messenger) {
+    private void setBrightness(Level level, int options, Messenger messenger) {
         Log.i(Constants.LOG_TAG, "Setting capacitive buttons brightness to: "
             + level);
 
         final CapacitiveButtonsBacklightBrightness buttons =
-            getButtonsWhoseBrightnessToSet();
+            getButtonsWhoseBrightnessToSet(this);
 
         // fail immediately if setting the brightness is not supported
         if (buttons == null) {
@@ -181,29 +271,7 @@ public class SetBrightnessService extends IntentService {
         }
 
         // convert the given level to an integer
-        final Integer levelValue;
-        switch (level) {
-            case OFF:
-                levelValue = 0;
-                break;
-            case DIM:
-                levelValue = buttons.getDefaultDimLevel();
-                break;
-            case BRIGHT:
-                levelValue = 100;
-                break;
-            case DEFAULT:
-                levelValue = null;
-                break;
-            default:
-                throw new AssertionError("unsupported level: " + level);
-        }
-
-        // save the new brightness level in the settings
-        if (save) {
-            final Settings settings = new Settings(this);
-            settings.setLevel(levelValue);
-        }
+        final Integer levelValue = getLevelValue(level, buttons);
 
         // send a notification to the widgets to update their image
         ButtonBrightnessAppWidgetProvider.postUpdateWidgets(this);
@@ -211,16 +279,21 @@ public class SetBrightnessService extends IntentService {
         // set the brightness level
         final OperationNotifierMessageSender notifier =
             new OperationNotifierMessageSender(messenger);
+        final long startNanos = System.nanoTime();
         try {
-            if (levelValue == null) {
-                buttons.setDefault(notifier);
-            } else {
-                buttons.set(levelValue, options, notifier);
+            synchronized (ScreenEventApplier.getWriteLock()) {
+                if (levelValue == null) {
+                    buttons.setDefault(notifier);
+                } else {
+                    buttons.set(levelValue, options, notifier);
+                }
             }
         } catch (final Exception e) {
             final String message = formatSetBrightnessErrorMessage(e, this);
             reportError(messenger, message, e);
             return;
+        } finally {
+            Metrics.SET_BRIGHTNESS.recordSince(startNanos);
         }
 
         // report success to the caller
@@ -399,6 +472,49 @@ public class SetBrightnessService extends IntentService {
         }
     }
 
+    /**
+     * A request to set the brightness, which is run by {@link #EXECUTOR}.
+     */
+    private class SetBrightnessTask implements Runnable {
+
+        public final Level level;
+        public final int options;
+        public final boolean save;
+        public final Messenger messenger;
+        public final int startId;
+
+        public SetBrightnessTask(Level level, int options, boolean save,
+                Messenger messenger, int startId) {
+            this.level = level;
+            this.options = options;
+            this.save = save;
+            this.messenger = messenger;
+            this.startId = startId;
+        }
+
+        public void run() {
+            final SetBrightnessService service = SetBrightnessService.this;
+            try {
+                // save the level recorded by this request or by one that it
+                // replaced, which is the most recent level requested to be
+                // saved even if this request is not to be saved
+                final Level levelToSave = PENDING_SAVE.getAndSet(null);
+                if (levelToSave != null) {
+                    service.saveLevel(levelToSave);
+                }
+
+                service.setBrightness(this.level, this.options, this.messenger);
+
+                // the level is written to disk asynchronously; make sure that
+                // it is on disk, now that the hardware has been written
+                new Settings(service).sync();
+            } finally {
+                // only stops the service if no newer request has been received
+                service.stopSelf(this.startId);
+            }
+        }
+    }
+
     /**
      * The brightness levels.
      */
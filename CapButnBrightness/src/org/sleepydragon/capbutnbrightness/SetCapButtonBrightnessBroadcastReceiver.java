@@ -58,7 +58,12 @@ public class SetCapButtonBrightnessBroadcastReceiver extends BroadcastReceiver {
             final int setOptions;
             if (action != null && action.equals(Intent.ACTION_SCREEN_ON)) {
                 setOptions =
-                    CapacitiveButtonsBacklightBrightness.OPTION_SCREEN_ON;
+                    CapacitiveButtonsBacklightBrightness.OPTION_SCREEN_ON
+                        | CapacitiveButtonsBacklightBrightness.OPTION_ELIDE_UNCHANGED;
+            } else if (action != null
+                && action.equals(Intent.ACTION_SCREEN_OFF)) {
+                setOptions =
+                    CapacitiveButtonsBacklightBrightness.OPTION_ELIDE_UNCHANGED;
             } else {
                 setOptions = 0;
             }
@@ -16,21 +16,53 @@
  */
 package org.sleepydragon.capbutnbrightness;
 
+import java.io.File;
+import java.io.IOException;
+
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 
 /**
  * Persistently stores the capacitive button brightness setting.
+ * <p>
+ * The settings are read from a {@link MappedSettingsStore}, which is opened
+ * once per process, so that the getters (which are invoked every time that the
+ * screen turns on and every time that the widget is drawn) are a few loads
+ * from memory, without looking up or parsing any SharedPreferences. The first
+ * time that the store is created its values are migrated from the
+ * SharedPreferences named {@link #PREFS_NAME}.
+ * <p>
+ * The settings are also still written to the SharedPreferences,
+ * asynchronously, since {@link SettingsActivity} edits them there and because
+ * they are used to re-create the store if it is lost. Changes made directly
+ * to the SharedPreferences must be copied into the store by invoking
+ * {@link #copyFromSharedPreferences()}.
+ * <p>
+ * Changes are written to disk asynchronously. Callers that need a change to
+ * be on disk before continuing must invoke {@link #sync()}.
  */
 public class Settings {
 
     public static final String PREFS_NAME = "CapButtonBrightness";
 
-    private static final int PREFS_MODE = Context.MODE_MULTI_PROCESS;
+    /**
+     * The name of the file, in the application's files directory, that is
+     * mapped by the {@link MappedSettingsStore}.
+     */
+    public static final String STORE_FILE_NAME = "settings.bin";
+
+    private static final int PREFS_MODE = Context.MODE_PRIVATE;
     private static final String PREFS_KEY_BRIGHTNESS_LEVEL = "levelInt";
     private static final String PREFS_KEY_SET_BRIGHTNESS_ON_BOOT =
         "setBrightnessOnBoot";
 
+    /**
+     * The store from which the settings are read, or null if it has not yet
+     * been opened.
+     */
+    private static volatile MappedSettingsStore store;
+
     private final Context context;
 
     /**
@@ -48,30 +80,35 @@ public class Settings {
     }
 
     /**
-     * Gets the saved value of the capacitive button brightness.
-     *
-     * @return the saved level, or null, if not set.
-     * @see #setLevel(Integer)
+     * Copies the settings from the SharedPreferences into the store. This must
+     * be invoked whenever the SharedPreferences are modified other than by
+     * this class, such as by {@link SettingsActivity}.
      */
-    public Integer getLevel() {
+    public void copyFromSharedPreferences() {
         final SharedPreferences prefs = this.getSharedPreferences();
+        final Integer level;
         if (!prefs.contains(PREFS_KEY_BRIGHTNESS_LEVEL)) {
-            return null;
+            level = null;
+        } else {
+            level = prefs.getInt(PREFS_KEY_BRIGHTNESS_LEVEL, 100);
+        }
+        final boolean setBrightnessOnBootEnabled =
+            prefs.getBoolean(PREFS_KEY_SET_BRIGHTNESS_ON_BOOT, true);
+        try {
+            this.getStore().initialize(level, setBrightnessOnBootEnabled);
+        } catch (final IOException e) {
+            Log.w(Constants.LOG_TAG, "unable to write settings store", e);
         }
-        final int value = prefs.getInt(PREFS_KEY_BRIGHTNESS_LEVEL, 100);
-        return value;
     }
 
     /**
-     * Gets the SharedPreferences object from this.context from which the
-     * settings are retrieved and to which the settings are written.
+     * Gets the saved value of the capacitive button brightness.
      *
-     * @return the SharedPreferences
+     * @return the saved level, or null, if not set.
+     * @see #setLevel(Integer)
      */
-    private SharedPreferences getSharedPreferences() {
-        final SharedPreferences prefs =
-            this.context.getSharedPreferences(PREFS_NAME, PREFS_MODE);
-        return prefs;
+    public Integer getLevel() {
+        return this.getStore().getLevel();
     }
 
     /**
@@ -83,20 +120,27 @@ public class Settings {
      * @see #setSetBrightnessOnBootEnabled(boolean)
      */
     public boolean isSetBrightnessOnBootEnabled() {
-        final SharedPreferences prefs = this.getSharedPreferences();
-        final boolean enabled =
-            prefs.getBoolean(PREFS_KEY_SET_BRIGHTNESS_ON_BOOT, true);
-        return enabled;
+        final int flags = this.getStore().getFlags();
+        final int flag = MappedSettingsStore.FLAG_SET_BRIGHTNESS_ON_BOOT;
+        return ((flags & flag) != 0);
     }
 
     /**
-     * Sets the saved value of the capacitive button brightness.
+     * Sets the saved value of the capacitive button brightness. The new value
+     * is returned from {@link #getLevel()} immediately but is written to disk
+     * asynchronously.
      *
      * @param level the level to set; may be null, in which case any saved level
      * will be cleared.
      * @see #getLevel()
      */
     public void setLevel(Integer level) {
+        try {
+            this.getStore().setLevel(level);
+        } catch (final IOException e) {
+            Log.w(Constants.LOG_TAG, "unable to write settings store", e);
+        }
+
         final SharedPreferences prefs = this.getSharedPreferences();
         final SharedPreferences.Editor editor = prefs.edit();
         if (level == null) {
@@ -104,12 +148,14 @@ public class Settings {
         } else {
             editor.putInt(PREFS_KEY_BRIGHTNESS_LEVEL, level);
         }
-        editor.commit();
+        editor.apply();
     }
 
     /**
      * Sets whether or not the capacitive button brightness should be set when
-     * the device boots up.
+     * the device boots up. The new value is returned from
+     * {@link #isSetBrightnessOnBootEnabled()} immediately but is written to
+     * disk asynchronously.
      *
      * @param enabled true indicates that the capacitive button brightness
      * should be set when the device boots up; false indicates that it should
@@ -117,9 +163,78 @@ public class Settings {
      * @see #isSetBrightnessOnBootEnabled()
      */
     public void setSetBrightnessOnBootEnabled(boolean enabled) {
+        try {
+            this.getStore().setSetBrightnessOnBoot(enabled);
+        } catch (final IOException e) {
+            Log.w(Constants.LOG_TAG, "unable to write settings store", e);
+        }
+
         final SharedPreferences prefs = this.getSharedPreferences();
         final SharedPreferences.Editor editor = prefs.edit();
         editor.putBoolean(PREFS_KEY_SET_BRIGHTNESS_ON_BOOT, enabled);
-        editor.commit();
+        editor.apply();
+    }
+
+    /**
+     * Waits for all changes that have been made to the settings to be written
+     * to disk. This method blocks and should not be invoked on the main
+     * thread.
+     *
+     * @return true if the changes were written successfully, false otherwise.
+     */
+    public boolean sync() {
+        this.getStore().sync();
+
+        // an empty commit is queued behind all outstanding asynchronous
+        // writes and waits for them to complete
+        final SharedPreferences prefs = this.getSharedPreferences();
+        return prefs.edit().commit();
+    }
+
+    /**
+     * Gets the SharedPreferences object from this.context to which the
+     * settings are written and from which the store is initialized.
+     *
+     * @return the SharedPreferences
+     */
+    private SharedPreferences getSharedPreferences() {
+        final SharedPreferences prefs =
+            this.context.getSharedPreferences(PREFS_NAME, PREFS_MODE);
+        return prefs;
+    }
+
+    /**
+     * Gets the store from which the settings are read, opening it if this is
+     * the first time that the settings are accessed in this process and
+     * migrating the settings from the SharedPreferences if the store did not
+     * exist. If the store cannot be opened then an in-memory store is used
+     * instead, which is initialized from the SharedPreferences.
+     *
+     * @return the store; never returns null.
+     */
+    private MappedSettingsStore getStore() {
+        MappedSettingsStore store = Settings.store;
+        if (store != null) {
+            return store;
+        }
+        synchronized (Settings.class) {
+            store = Settings.store;
+            if (store == null) {
+                final File file =
+                    new File(this.context.getFilesDir(), STORE_FILE_NAME);
+                try {
+                    store = MappedSettingsStore.open(file);
+                } catch (final IOException e) {
+                    Log.w(Constants.LOG_TAG, "unable to open settings store: "
+                        + file, e);
+                    store = MappedSettingsStore.createInMemory();
+                }
+                Settings.store = store;
+                if (!store.isInitialized()) {
+                    this.copyFromSharedPreferences();
+                }
+            }
+            return store;
+        }
     }
 }
@@ -17,6 +17,7 @@
 package org.sleepydragon.capbutnbrightness;
 
 import android.app.Activity;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
@@ -33,7 +34,8 @@ public class SettingsActivity extends Activity {
             .replace(android.R.id.content, new SettingsFragment()).commit();
     }
 
-    public static class SettingsFragment extends PreferenceFragment {
+    public static class SettingsFragment extends PreferenceFragment implements
+            SharedPreferences.OnSharedPreferenceChangeListener {
         @Override
         public void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
@@ -41,5 +43,31 @@ public class SettingsActivity extends Activity {
             pm.setSharedPreferencesName(Settings.PREFS_NAME);
             this.addPreferencesFromResource(R.xml.preferences);
         }
+
+        @Override
+        public void onPause() {
+            final PreferenceManager pm = this.getPreferenceManager();
+            final SharedPreferences prefs = pm.getSharedPreferences();
+            prefs.unregisterOnSharedPreferenceChangeListener(this);
+            super.onPause();
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            final PreferenceManager pm = this.getPreferenceManager();
+            final SharedPreferences prefs = pm.getSharedPreferences();
+            prefs.registerOnSharedPreferenceChangeListener(this);
+        }
+
+        /**
+         * Copies the preferences edited by this fragment into the settings
+         * store, from which they are read.
+         */
+        public void onSharedPreferenceChanged(SharedPreferences prefs,
+                String key) {
+            final Settings settings = new Settings(this.getActivity());
+            settings.copyFromSharedPreferences();
+        }
     }
 }
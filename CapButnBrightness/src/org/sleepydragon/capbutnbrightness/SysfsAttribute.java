@@ -0,0 +1,287 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A long-lived handle to a sysfs attribute file, such as
+ * /sys/class/leds/button-backlight/brightness. Opening and closing a sysfs
+ * node costs more than the write itself, so a SysfsAttribute keeps a
+ * FileChannel open for writing and another one for reading, and uses
+ * positional reads and writes at offset 0 so that the channels never need to
+ * be rewound. If a read or write fails, such as because the kernel re-created
+ * the sysfs node and the old file descriptor became stale, then the channel is
+ * closed, re-opened, and the operation is attempted once more.
+ * <p>
+ * Handles are only kept open while somebody has asked for them to be by
+ * calling {@link #holdPersistentHandles()}, such as a long-running service.
+ * While persistent handles are held, {@link #getIfHeld} returns the shared
+ * SysfsAttribute for a path; otherwise it returns null and callers open and
+ * close files as usual. Once every call to {@link #holdPersistentHandles()} is
+ * matched by a call to {@link #releasePersistentHandles()} all handles are
+ * closed.
+ * <p>
+ * The static methods of this class are thread safe; the instance methods are
+ * synchronized on the instance.
+ */
+public class SysfsAttribute {
+
+    /**
+     * The SysfsAttribute objects that are shared by the process, keyed by
+     * path. All access to this field must be done while synchronized on
+     * SysfsAttribute.class.
+     */
+    private static final Map<String, SysfsAttribute> heldAttributes =
+        new HashMap<String, SysfsAttribute>();
+
+    /**
+     * The number of calls to holdPersistentHandles() that have not yet been
+     * matched by a call to releasePersistentHandles(). All access to this
+     * field must be done while synchronized on SysfsAttribute.class.
+     */
+    private static int holdCount;
+
+    private final String path;
+    private FileChannel writeChannel;
+    private FileChannel readChannel;
+
+    /**
+     * Creates a new instance of SysfsAttribute. No files are opened until they
+     * are needed.
+     *
+     * @param path the path of the sysfs attribute file.
+     * @throws NullPointerException if path==null.
+     */
+    public SysfsAttribute(String path) {
+        if (path == null) {
+            throw new NullPointerException("path==null");
+        }
+        this.path = path;
+    }
+
+    /**
+     * Asks for the handles returned from {@link #getIfHeld} to be kept open
+     * until a matching call to {@link #releasePersistentHandles()}.
+     */
+    public static void holdPersistentHandles() {
+        synchronized (SysfsAttribute.class) {
+            holdCount++;
+        }
+    }
+
+    /**
+     * Undoes one call to {@link #holdPersistentHandles()}. If this was the last
+     * outstanding call then all persistent handles are closed.
+     */
+    public static void releasePersistentHandles() {
+        final SysfsAttribute[] attributes;
+        synchronized (SysfsAttribute.class) {
+            if (holdCount == 0) {
+                return;
+            }
+            holdCount--;
+            if (holdCount > 0) {
+                return;
+            }
+            attributes =
+                heldAttributes.values().toArray(
+                    new SysfsAttribute[heldAttributes.size()]);
+            heldAttributes.clear();
+        }
+
+        for (final SysfsAttribute attribute : attributes) {
+            attribute.close();
+        }
+    }
+
+    /**
+     * Returns the shared SysfsAttribute for the given path, if persistent
+     * handles are currently held.
+     *
+     * @param path the path of the sysfs attribute file.
+     * @return the shared SysfsAttribute for the given path, creating it if
+     * necessary, or null if persistent handles are not currently held.
+     * @throws NullPointerException if path==null.
+     */
+    public static SysfsAttribute getIfHeld(String path) {
+        if (path == null) {
+            throw new NullPointerException("path==null");
+        }
+        synchronized (SysfsAttribute.class) {
+            if (holdCount == 0) {
+                return null;
+            }
+            SysfsAttribute attribute = heldAttributes.get(path);
+            if (attribute == null) {
+                attribute = new SysfsAttribute(path);
+                heldAttributes.put(path, attribute);
+            }
+            return attribute;
+        }
+    }
+
+    /**
+     * Closes the channels opened by this object, if any. The channels will be
+     * re-opened if this object is used again.
+     */
+    public synchronized void close() {
+        closeChannel(this.writeChannel);
+        this.writeChannel = null;
+        closeChannel(this.readChannel);
+        this.readChannel = null;
+    }
+
+    /**
+     * Returns the path of the sysfs attribute file.
+     *
+     * @return the path of the sysfs attribute file; never returns null.
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Returns whether or not this object has a channel open for writing, which
+     * means that {@link #write} will not need to open the file, and therefore
+     * does not need the file to be writable.
+     *
+     * @return true if a channel is open for writing, false otherwise.
+     */
+    public synchronized boolean isOpenForWriting() {
+        return (this.writeChannel != null);
+    }
+
+    /**
+     * Reads the contents of the file from offset 0.
+     *
+     * @param buffer the buffer into which to read; its contents between its
+     * position and limit are overwritten.
+     * @return the number of bytes read, or -1 if the file is empty.
+     * @throws IOException if reading fails, even after re-opening the file.
+     * @throws NullPointerException if buffer==null.
+     */
+    public synchronized int read(ByteBuffer buffer) throws IOException {
+        if (buffer == null) {
+            throw new NullPointerException("buffer==null");
+        }
+        final int position = buffer.position();
+        try {
+            return this.getReadChannel().read(buffer, 0);
+        } catch (final IOException e) {
+            closeChannel(this.readChannel);
+            this.readChannel = null;
+        }
+        buffer.position(position);
+        return this.getReadChannel().read(buffer, 0);
+    }
+
+    /**
+     * Writes bytes to the file at offset 0 and truncates the file to the
+     * number of bytes written. Truncating has no effect on sysfs attribute
+     * files, whose value is replaced by each write as a whole, but gives
+     * regular files the same contents as if they had been opened with
+     * O_TRUNC.
+     *
+     * @param buffer the bytes to write, between its position and limit.
+     * @throws IOException if writing fails, even after re-opening the file.
+     * @throws NullPointerException if buffer==null.
+     */
+    public synchronized void write(ByteBuffer buffer) throws IOException {
+        if (buffer == null) {
+            throw new NullPointerException("buffer==null");
+        }
+        final int position = buffer.position();
+        try {
+            writeFully(this.getWriteChannel(), buffer);
+            return;
+        } catch (final IOException e) {
+            closeChannel(this.writeChannel);
+            this.writeChannel = null;
+        }
+        buffer.position(position);
+        try {
+            writeFully(this.getWriteChannel(), buffer);
+        } catch (final IOException e) {
+            closeChannel(this.writeChannel);
+            this.writeChannel = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the channel that is open for reading, if any; for testing.
+     *
+     * @return the channel open for reading, or null if there is none.
+     */
+    synchronized FileChannel getOpenReadChannel() {
+        return this.readChannel;
+    }
+
+    /**
+     * Returns the channel that is open for writing, if any; for testing.
+     *
+     * @return the channel open for writing, or null if there is none.
+     */
+    synchronized FileChannel getOpenWriteChannel() {
+        return this.writeChannel;
+    }
+
+    private FileChannel getReadChannel() throws IOException {
+        FileChannel channel = this.readChannel;
+        if (channel == null) {
+            channel = new FileInputStream(this.path).getChannel();
+            this.readChannel = channel;
+        }
+        return channel;
+    }
+
+    private FileChannel getWriteChannel() throws IOException {
+        FileChannel channel = this.writeChannel;
+        if (channel == null) {
+            channel = new FileOutputStream(this.path).getChannel();
+            this.writeChannel = channel;
+        }
+        return channel;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.truncate(position);
+    }
+
+    private static void closeChannel(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            // oh well
+        }
+    }
+}
@@ -17,4 +17,12 @@ public class CLib implements CLibConstants {
     return CLibJNI.chmod(path, mode);
   }
 
+  public static int writeIntProtected(String path, int value, int rwMode, int roMode) throws org.sleepydragon.capbutnbrightness.clib.ClibException {
+    return CLibJNI.writeIntProtected(path, value, rwMode, roMode);
+  }
+
+  public static int applyBatch(String[] paths, int[] values, int count, int[] errnos, int rwMode, int roMode) {
+    return CLibJNI.applyBatch(paths, values, count, errnos, rwMode, roMode);
+  }
+
 }
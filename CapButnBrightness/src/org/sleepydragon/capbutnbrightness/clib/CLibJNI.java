@@ -9,16 +9,27 @@
 package org.sleepydragon.capbutnbrightness.clib;
 
 public class CLibJNI {
+
+  static {
+    System.loadLibrary("CLib");
+  }
+
   public final static native void Stat_mode_set(long jarg1, Stat jarg1_, long jarg2);
   public final static native long Stat_mode_get(long jarg1, Stat jarg1_);
   public final static native void Stat_uid_set(long jarg1, Stat jarg1_, long jarg2);
   public final static native long Stat_uid_get(long jarg1, Stat jarg1_);
   public final static native void Stat_gid_set(long jarg1, Stat jarg1_, long jarg2);
   public final static native long Stat_gid_get(long jarg1, Stat jarg1_);
+  public final static native void Stat_ino_set(long jarg1, Stat jarg1_, long jarg2);
+  public final static native long Stat_ino_get(long jarg1, Stat jarg1_);
+  public final static native void Stat_ctime_set(long jarg1, Stat jarg1_, long jarg2);
+  public final static native long Stat_ctime_get(long jarg1, Stat jarg1_);
   public final static native long new_Stat();
   public final static native void delete_Stat(long jarg1);
   public final static native int stat(String jarg1, long jarg2, Stat jarg2_) throws org.sleepydragon.capbutnbrightness.clib.ClibException;
   public final static native int chmod(String jarg1, int jarg2) throws org.sleepydragon.capbutnbrightness.clib.ClibException;
+  public final static native int writeIntProtected(String jarg1, int jarg2, int jarg3, int jarg4) throws org.sleepydragon.capbutnbrightness.clib.ClibException;
+  public final static native int applyBatch(String[] jarg1, int[] jarg2, int jarg3, int[] jarg4, int jarg5, int jarg6);
   public final static native int EACCES_get();
   public final static native int EBADF_get();
   public final static native int EFAULT_get();
@@ -63,6 +63,22 @@ static {
     return CLibJNI.Stat_gid_get(swigCPtr, this);
   }
 
+  public void setIno(long value) {
+    CLibJNI.Stat_ino_set(swigCPtr, this, value);
+  }
+
+  public long getIno() {
+    return CLibJNI.Stat_ino_get(swigCPtr, this);
+  }
+
+  public void setCtime(long value) {
+    CLibJNI.Stat_ctime_set(swigCPtr, this, value);
+  }
+
+  public long getCtime() {
+    return CLibJNI.Stat_ctime_get(swigCPtr, this);
+  }
+
   public Stat() {
     this(CLibJNI.new_Stat(), true);
   }
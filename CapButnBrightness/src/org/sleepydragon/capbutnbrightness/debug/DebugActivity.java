@@ -18,7 +18,7 @@ package org.sleepydragon.capbutnbrightness.debug;
 
 import org.sleepydragon.capbutnbrightness.R;
 import org.sleepydragon.capbutnbrightness.devices.DeviceInfo;
-import org.sleepydragon.capbutnbrightness.devices.DeviceInfoDatabase;
+import org.sleepydragon.capbutnbrightness.devices.DeviceResolver;
 
 import android.app.Activity;
 import android.content.ClipData;
@@ -43,8 +43,8 @@ public class DebugActivity extends Activity {
     }
 
     private String getDebugText() {
-        final DeviceInfoDatabase db = new DeviceInfoDatabase();
-        final DeviceInfo device = db.getForCurrentDevice();
+        final DeviceInfo device = 
+            DeviceResolver.getInstance().getDeviceInfo(this);
         final DebugLinesGenerator lines = new DebugLinesGenerator(this, device);
         final StringBuilder sb = new StringBuilder();
         for (final String line : lines) {
@@ -25,13 +25,28 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
+import org.sleepydragon.capbutnbrightness.CoalescingExecutor;
+import org.sleepydragon.capbutnbrightness.FileStateCache;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper;
 import org.sleepydragon.capbutnbrightness.R;
+import org.sleepydragon.capbutnbrightness.RootShellManager;
+import org.sleepydragon.capbutnbrightness.ScreenStateTracker;
+import org.sleepydragon.capbutnbrightness.SetBrightnessService;
 import org.sleepydragon.capbutnbrightness.clib.CLib;
 import org.sleepydragon.capbutnbrightness.clib.ClibException;
 import org.sleepydragon.capbutnbrightness.clib.Stat;
 import org.sleepydragon.capbutnbrightness.debug.DebugFilesProvider.FileInfo;
+import org.sleepydragon.capbutnbrightness.devices.BacklightCapabilities;
 import org.sleepydragon.capbutnbrightness.devices.CapacitiveButtonsBacklightBrightness;
 import org.sleepydragon.capbutnbrightness.devices.DeviceInfo;
+import org.sleepydragon.capbutnbrightness.devices.DeviceResolver;
+import org.sleepydragon.capbutnbrightness.devices.LedDiscovery;
+import org.sleepydragon.capbutnbrightness.metrics.LatencyStat;
+import org.sleepydragon.capbutnbrightness.metrics.Metrics;
+import org.sleepydragon.capbutnbrightness.metrics.ScreenOnTracer;
+import org.sleepydragon.capbutnbrightness.sysfs.ChannelShellProvider;
+import org.sleepydragon.capbutnbrightness.sysfs.RootShellProvider;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsEnvironment;
 
 import android.content.Context;
 import android.os.Build;
@@ -84,6 +99,8 @@ public class DebugLinesGenerator implements Iterable<String>, Iterator<String> {
         list.add(new DeviceSection());
         list.add(new BuildSection());
         list.add(new MiscSection());
+        list.add(new MetricsSection());
+        list.add(new ScreenOnSection());
         final Section[] array = new Section[list.size()];
         return list.toArray(array);
     }
@@ -350,13 +367,132 @@ public class DebugLinesGenerator implements Iterable<String>, Iterator<String> {
 
     }
 
+    private class MetricsSection implements Section {
+
+        public String[] getLines() {
+            final Context context = DebugLinesGenerator.this.context;
+            final List<String> lines = new ArrayList<String>();
+            lines.add(context.getString(R.string.debug_metrics));
+            for (final LatencyStat stat : Metrics.getAll()) {
+                lines.add(this.getSummaryLine(stat));
+                if (stat.getCount() > 0) {
+                    lines.add(this.getHistogramLine(stat));
+                }
+            }
+            final String[] array = new String[lines.size()];
+            return lines.toArray(array);
+        }
+
+        private String getHistogramLine(LatencyStat stat) {
+            final Context context = DebugLinesGenerator.this.context;
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < LatencyStat.BUCKET_COUNT; i++) {
+                final long count = stat.getBucketCount(i);
+                if (count == 0) {
+                    continue;
+                }
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                if (i == LatencyStat.BUCKET_COUNT - 1) {
+                    sb.append('>');
+                } else {
+                    sb.append('<');
+                }
+                final long bound = LatencyStat.getBucketUpperBoundNanos(i);
+                sb.append(formatNanos(bound)).append(": ").append(count);
+            }
+            final String histogram = sb.toString();
+            final String line =
+                context.getString(R.string.debug_metric_histogram, histogram);
+            return line;
+        }
+
+        private String getSummaryLine(LatencyStat stat) {
+            final Context context = DebugLinesGenerator.this.context;
+            final String name = stat.getName();
+            final long count = stat.getCount();
+            final String min = formatNanos(stat.getMinNanos());
+            final String mean = formatNanos(stat.getMeanNanos());
+            final String max = formatNanos(stat.getMaxNanos());
+            final String line =
+                context.getString(R.string.debug_metric, name, count, min,
+                    mean, max);
+            return line;
+        }
+    }
+
+    private class ScreenOnSection implements Section {
+
+        public String[] getLines() {
+            final Context context = DebugLinesGenerator.this.context;
+            final ScreenOnTracer tracer = ScreenOnTracer.getInstance(context);
+            final ScreenOnTracer.Trace[] traces = tracer.getTraces();
+            final String totals = this.getTotalsLine(traces);
+            if (traces.length == 0) {
+                return new String[] { totals };
+            }
+            final String hops = this.getHopsLine(traces);
+            return new String[] { totals, hops };
+        }
+
+        private String getHopsLine(ScreenOnTracer.Trace[] traces) {
+            final Context context = DebugLinesGenerator.this.context;
+            final String plan = getPercentile(traces, 50,
+                ScreenOnTracer.HOP_PLAN);
+            final String lock = getPercentile(traces, 50,
+                ScreenOnTracer.HOP_LOCK);
+            final String firstWrite = getPercentile(traces, 50,
+                ScreenOnTracer.HOP_FIRST_WRITE);
+            final String lastWrite = getPercentile(traces, 50,
+                ScreenOnTracer.HOP_LAST_WRITE);
+            final String line =
+                context.getString(R.string.debug_screen_on_hops, plan, lock,
+                    firstWrite, lastWrite);
+            return line;
+        }
+
+        private String getTotalsLine(ScreenOnTracer.Trace[] traces) {
+            final Context context = DebugLinesGenerator.this.context;
+            final int count = traces.length;
+            final String p50 = getPercentile(traces, 50, -1);
+            final String p90 = getPercentile(traces, 90, -1);
+            final String p99 = getPercentile(traces, 99, -1);
+            final String max = getPercentile(traces, 100, -1);
+            final String line =
+                context.getString(R.string.debug_screen_on, count, p50, p90,
+                    p99, max);
+            return line;
+        }
+
+        private String getPercentile(ScreenOnTracer.Trace[] traces,
+                int percentile, int hop) {
+            final int micros =
+                ScreenOnTracer.getPercentileMicros(traces, percentile, hop);
+            if (micros < 0) {
+                return "-";
+            }
+            return formatNanos(micros * 1000L);
+        }
+    }
+
     private class MiscSection implements Section {
 
         public String[] getLines() {
             final String uid = this.getUidLine();
             final String cpu1 = this.getCpuLine1();
             final String cpu2 = this.getCpuLine2();
-            return new String[] { uid, cpu1, cpu2 };
+            final String rootShell = this.getRootShellLine();
+            final String fileStateCache = this.getFileStateCacheLine();
+            final String writes = this.getWritesLine();
+            final String requests = this.getRequestsLine();
+            final String resolution = this.getDeviceResolutionLine();
+            final String capabilities = this.getCapabilitiesLine();
+            final String ledDiscovery = this.getLedDiscoveryLine();
+            final String screenEvents = this.getScreenEventsLine();
+            return new String[] { uid, cpu1, cpu2, rootShell, fileStateCache,
+                writes, requests, resolution, capabilities, ledDiscovery,
+                screenEvents };
         }
 
         private String getUidLine() {
@@ -367,6 +503,39 @@ public class DebugLinesGenerator implements Iterable<String>, Iterator<String> {
             return uid;
         }
 
+        private String getCapabilitiesLine() {
+            final Context context = DebugLinesGenerator.this.context;
+            final BacklightCapabilities capabilities =
+                BacklightCapabilities.getInstance();
+            final int bits = capabilities.getCapabilities();
+            final int probes = capabilities.getProbeCount();
+            final String line =
+                context.getString(R.string.debug_capabilities, bits, probes);
+            return line;
+        }
+
+        private String getLedDiscoveryLine() {
+            final Context context = DebugLinesGenerator.this.context;
+            final LedDiscovery.Result result =
+                LedDiscovery.getInstance().getResult();
+            final String buttons =
+                getNodeName(result, LedDiscovery.KIND_BUTTONS);
+            final String keyboard =
+                getNodeName(result, LedDiscovery.KIND_KEYBOARD);
+            final String backlight =
+                getNodeName(result, LedDiscovery.KIND_BACKLIGHT);
+            final String line =
+                context.getString(R.string.debug_led_discovery, buttons,
+                    keyboard, backlight, result.getNodeCount(),
+                    result.getListCount(), formatNanos(result.getNanos()));
+            return line;
+        }
+
+        private String getNodeName(LedDiscovery.Result result, int kind) {
+            final LedDiscovery.Node node = result.getNode(kind);
+            return (node == null) ? "-" : node.getName();
+        }
+
         private String getCpuLine1() {
             final Context context = DebugLinesGenerator.this.context;
             final String cpuAbi = Build.CPU_ABI;
@@ -381,6 +550,98 @@ public class DebugLinesGenerator implements Iterable<String>, Iterator<String> {
             return cpu;
         }
 
+        private String getDeviceResolutionLine() {
+            final Context context = DebugLinesGenerator.this.context;
+            final DeviceResolver resolver = DeviceResolver.getInstance();
+            final long nanos = resolver.getResolutionNanos();
+            final long micros =
+                (nanos == DeviceResolver.NOT_RESOLVED) ? -1 : (nanos / 1000);
+            final String line =
+                context.getString(R.string.debug_device_resolution, micros);
+            return line;
+        }
+
+        private String getFileStateCacheLine() {
+            final Context context = DebugLinesGenerator.this.context;
+            final FileStateCache cache = FileStateCache.getInstance();
+            final int hits = cache.getHitCount();
+            final int misses = cache.getMissCount();
+            final int invalidations = cache.getInvalidationCount();
+            final String line =
+                context.getString(R.string.debug_file_state_cache, hits,
+                    misses, invalidations);
+            return line;
+        }
+
+        private String getRequestsLine() {
+            final Context context = DebugLinesGenerator.this.context;
+            final CoalescingExecutor executor =
+                SetBrightnessService.getExecutor();
+            final int executed = executor.getExecutedCount();
+            final int dropped = executor.getDropCount();
+            final int queued = executor.getQueueDepth();
+            final String line =
+                context.getString(R.string.debug_requests, executed, dropped,
+                    queued);
+            return line;
+        }
+
+        private String getRootShellLine() {
+            final Context context = DebugLinesGenerator.this.context;
+            final RootShellProvider provider =
+                SysfsEnvironment.getRootShellProvider();
+            final int hits;
+            final int misses;
+            final int evictions;
+            if (provider instanceof ChannelShellProvider) {
+                final ChannelShellProvider channelProvider =
+                    (ChannelShellProvider) provider;
+                hits = channelProvider.getHitCount();
+                misses = channelProvider.getMissCount();
+                evictions = channelProvider.getEvictionCount();
+            } else {
+                final RootShellManager manager = RootShellManager.getInstance();
+                hits = manager.getHitCount();
+                misses = manager.getMissCount();
+                evictions = manager.getEvictionCount();
+            }
+            final String line =
+                context.getString(R.string.debug_root_shell, hits, misses,
+                    evictions);
+            return line;
+        }
+
+        private String getScreenEventsLine() {
+            final Context context = DebugLinesGenerator.this.context;
+            final ScreenStateTracker tracker = ScreenStateTracker.getInstance();
+            final int received = tracker.getEventCount();
+            final int duplicates = tracker.getDuplicateCount();
+            final int collapsed = tracker.getCollapsedCount();
+            final String line =
+                context.getString(R.string.debug_screen_events, received,
+                    duplicates, collapsed);
+            return line;
+        }
+
+        private String getWritesLine() {
+            final Context context = DebugLinesGenerator.this.context;
+            final int performed = IntFileRootHelper.getPerformedWriteCount();
+            final int elided = IntFileRootHelper.getElidedWriteCount();
+            final String line =
+                context.getString(R.string.debug_writes, performed, elided);
+            return line;
+        }
+
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1000L) {
+            return nanos + "ns";
+        } else if (nanos < 1000000L) {
+            return (nanos / 1000L) + "us";
+        } else {
+            return (nanos / 1000000L) + "ms";
+        }
     }
 
     private static interface Section {
@@ -0,0 +1,232 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.io.File;
+
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsBackend;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsEnvironment;
+
+/**
+ * Determines which of the files that control the capacitive buttons backlight
+ * exist, by listing the directory that contains them once and recording the
+ * result as a bitmap of the CAPABILITY_ constants.
+ * Every check of whether a file in that directory exists, such as those done
+ * by {@link CapacitiveButtonsBacklightBrightness#isSupported()} and
+ * {@link CapacitiveButtonsBacklightBrightness#isDimSupported()} for each
+ * candidate device, is then answered from the bitmap rather than by a stat()
+ * of the file. Files that are not known to this class are still checked with
+ * a stat().
+ * <p>
+ * The directory is listed again if the {@link SysfsBackend} changes, or after
+ * {@link #invalidate()} is invoked.
+ * <p>
+ * There is one instance of this class for the entire process, which is
+ * returned from {@link #getInstance()}. This class is thread safe.
+ */
+public class BacklightCapabilities {
+
+    /**
+     * The bit that is set if the capacitive buttons backlight directory exists.
+     */
+    public static final int CAPABILITY_DIRECTORY = 0x00000001;
+
+    /**
+     * The bit that is set if the brightness file exists.
+     */
+    public static final int CAPABILITY_BRIGHTNESS = 0x00000002;
+
+    /**
+     * The bit that is set if the currents file exists.
+     */
+    public static final int CAPABILITY_CURRENTS = 0x00000004;
+
+    /**
+     * The bit that is set if the lut_coefficient file exists.
+     */
+    public static final int CAPABILITY_LUT_COEFFICIENT = 0x00000008;
+
+    private static final String DIR =
+        CapacitiveButtonsBacklightBrightness.BUTTONS_BACKLIGHT_DIR;
+
+    /**
+     * The paths of the files that are known to this class, with the bit of
+     * each at the same index of FILE_BITS.
+     */
+    private static final String[] FILE_PATHS = {
+        CapacitiveButtonsBacklightBrightness.BRIGHTNESS_PATH,
+        CapacitiveButtonsBacklightBrightness.CURRENTS_PATH,
+        CapacitiveButtonsBacklightBrightness.LUT_COEFFICIENT_PATH, };
+
+    private static final int[] FILE_BITS = { CAPABILITY_BRIGHTNESS,
+        CAPABILITY_CURRENTS, CAPABILITY_LUT_COEFFICIENT, };
+
+    private static final BacklightCapabilities INSTANCE =
+        new BacklightCapabilities();
+
+    /**
+     * The bitmap produced by the last listing of the directory. All access to
+     * this field must be done while synchronized on this object.
+     */
+    private int capabilities;
+
+    /**
+     * The SysfsBackend that was in use when the directory was listed, or null
+     * if it has not been listed since the last invalidation. All access to
+     * this field must be done while synchronized on this object.
+     */
+    private SysfsBackend probedBackend;
+
+    /**
+     * The number of times that the directory has been listed. All access to
+     * this field must be done while synchronized on this object.
+     */
+    private int probeCount;
+
+    /**
+     * Creates a new instance of BacklightCapabilities.
+     */
+    BacklightCapabilities() {
+    }
+
+    /**
+     * Returns the BacklightCapabilities that is shared by the entire process.
+     *
+     * @return the BacklightCapabilities that is shared by the entire process;
+     * never returns null.
+     */
+    public static BacklightCapabilities getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the bit that represents a file.
+     *
+     * @param path the path of the sysfs file, before mapping by the
+     * SysfsBackend.
+     * @return the CAPABILITY_ constant that represents the file, or 0 if the
+     * file is not known to this class.
+     * @throws NullPointerException if path==null.
+     */
+    public static int getCapability(String path) {
+        if (path == null) {
+            throw new NullPointerException("path==null");
+        }
+        for (int i = 0; i < FILE_PATHS.length; i++) {
+            if (FILE_PATHS[i].equals(path)) {
+                return FILE_BITS[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns which of the files known to this class exist, listing the
+     * directory if necessary.
+     *
+     * @return a combination of the CAPABILITY_ constants.
+     */
+    public synchronized int getCapabilities() {
+        final SysfsBackend backend = SysfsEnvironment.getBackend();
+        if (this.probedBackend != backend) {
+            this.capabilities = probe();
+            this.probedBackend = backend;
+            this.probeCount++;
+        }
+        return this.capabilities;
+    }
+
+    /**
+     * Returns the number of times that the directory has been listed.
+     *
+     * @return the number of times that the directory has been listed.
+     */
+    public synchronized int getProbeCount() {
+        return this.probeCount;
+    }
+
+    /**
+     * Returns whether or not a file exists. If the file is known to this class
+     * then the answer comes from the bitmap; otherwise, the file is stat()'ed.
+     *
+     * @param path the path of the sysfs file, before mapping by the
+     * SysfsBackend.
+     * @return true if the file exists, false otherwise.
+     * @throws NullPointerException if path==null.
+     */
+    public boolean exists(String path) {
+        final int capability = getCapability(path);
+        if (capability == 0) {
+            final String mappedPath =
+                CapacitiveButtonsBacklightBrightness.sysfsPath(path);
+            return new File(mappedPath).exists();
+        }
+        return ((this.getCapabilities() & capability) != 0);
+    }
+
+    /**
+     * Returns whether or not all of the given files exist, as if by invoking
+     * {@link #exists} for each of them.
+     *
+     * @param paths the paths of the sysfs files, before mapping by the
+     * SysfsBackend.
+     * @return true if all of the files exist, including if paths is empty;
+     * false otherwise.
+     * @throws NullPointerException if paths==null or any element of it is
+     * null.
+     */
+    public boolean existAll(String[] paths) {
+        for (final String path : paths) {
+            if (!this.exists(path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the result of listing the directory, so that it is listed again
+     * the next time that it is needed. This must be invoked if files may have
+     * appeared in or disappeared from the directory.
+     */
+    public synchronized void invalidate() {
+        this.probedBackend = null;
+        this.capabilities = 0;
+    }
+
+    private static int probe() {
+        final String dirPath =
+            CapacitiveButtonsBacklightBrightness.sysfsPath(DIR);
+        final String[] names = new File(dirPath).list();
+        if (names == null) {
+            return 0;
+        }
+
+        int capabilities = CAPABILITY_DIRECTORY;
+        final int nameStart = DIR.length() + 1;
+        for (final String name : names) {
+            for (int i = 0; i < FILE_PATHS.length; i++) {
+                final String path = FILE_PATHS[i];
+                if (path.length() == nameStart + name.length()
+                    && path.startsWith(name, nameStart)) {
+                    capabilities |= FILE_BITS[i];
+                }
+            }
+        }
+        return capabilities;
+    }
+}
@@ -16,16 +16,38 @@
  */
 package org.sleepydragon.capbutnbrightness.devices;
 
-import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.sleepydragon.capbutnbrightness.Constants;
 import org.sleepydragon.capbutnbrightness.IntFileRootHelper;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.ConditionalWriteMode;
 import org.sleepydragon.capbutnbrightness.debug.DebugFilesProvider;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsBackend;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsEnvironment;
 
 import android.util.Log;
 
 /**
  * Methods that control the brightness of the capacitive buttons backlight.
+ * <p>
+ * Subclasses describe the writes that set a given brightness level by
+ * implementing {@link #compilePlan}. The resulting {@link WritePlan} is
+ * cached for each combination of level and options, so that each call to
+ * {@link #set} after the first only looks up and executes the plan. The cached
+ * plans are discarded if the {@link SysfsBackend} changes, and can be
+ * discarded explicitly with {@link #invalidatePlans()} if the files that exist
+ * may have changed.
+ * <p>
+ * Each object writes the files of one LED node, which is identified by
+ * {@link #getNodePath()}. The plan of each call to {@link #set} is executed
+ * while holding a lock that is shared by all objects that write the same node,
+ * so that the writes of concurrent calls for a node are never interleaved and
+ * are performed in the order that the calls were made.
  */
 public abstract class CapacitiveButtonsBacklightBrightness implements
         DebugFilesProvider {
@@ -42,6 +64,13 @@ public abstract class CapacitiveButtonsBacklightBrightness implements
     public static final String LUT_COEFFICIENT_PATH = BUTTONS_BACKLIGHT_DIR
         + "/lut_coefficient";
 
+    /**
+     * The paths of the files that are returned from the implementation of
+     * {@link #getManagedFiles()} in this class.
+     */
+    private static final String[] ALL_PATHS = { CURRENTS_PATH,
+        BRIGHTNESS_PATH };
+
     /**
      * Option to set() which indicates that the method is being invoked in
      * response to the screen turning on. In this case, the method may perform
@@ -52,12 +81,74 @@ public abstract class CapacitiveButtonsBacklightBrightness implements
      */
     public static final int OPTION_SCREEN_ON = 0x00000001;
 
+    /**
+     * Option to set() which indicates that the writes should be skipped if
+     * every file already contains the value that would be written to it. The
+     * writes are skipped all together or not at all, since a write can change
+     * the value of another file (eg. writing brightness resets currents). This
+     * is useful when set() is invoked in response to an event, such as the
+     * screen turning on or off, which often leaves the files with the desired
+     * values already.
+     *
+     * @see #set
+     * @see IntFileRootHelper.ConditionalWriteMode
+     */
+    public static final int OPTION_ELIDE_UNCHANGED = 0x00000002;
+
+    /**
+     * The options that affect the plan compiled by {@link #compilePlan}; the
+     * cache of plans is keyed on these bits of the options given to set().
+     */
+    private static final int PLAN_OPTIONS_MASK =
+        OPTION_SCREEN_ON | OPTION_ELIDE_UNCHANGED;
+
+    /**
+     * The locks that are held while executing plans, keyed by the path of the
+     * LED node; see {@link #getNodeLock}. All access to this field must be done
+     * while synchronized on it.
+     */
+    private static final Map<String, Lock> NODE_LOCKS =
+        new HashMap<String, Lock>();
+
+    /**
+     * The plans compiled by {@link #compilePlan}, indexed by
+     * {@link #getPlanIndex}, or null if no plans have been compiled since the
+     * cache was last discarded. All access to this field must be done while
+     * synchronized on this object.
+     */
+    private WritePlan[] plans;
+
+    /**
+     * The SysfsBackend that was in use when the plans were compiled. All
+     * access to this field must be done while synchronized on this object.
+     */
+    private SysfsBackend plansBackend;
+
     public FileInfo[] getDebugFiles() {
         return new FileInfo[] { new FileInfo(CURRENTS_PATH, FileContents.INT),
             new FileInfo(BRIGHTNESS_PATH, FileContents.INT),
             new FileInfo(LUT_COEFFICIENT_PATH, FileContents.INT), };
     }
 
+    /**
+     * Compiles the plan of writes that sets the brightness of the capacitive
+     * buttons backlight to the given level. This method is invoked by
+     * {@link #getPlan} the first time that a plan is needed for a given level
+     * and options, and the plan is then reused, so everything that the plan
+     * depends on, such as which files exist, must be checked by this method.
+     * The paths of the files in the plan must be mapped with
+     * {@link #sysfsPath}.
+     *
+     * @param level the brightness level, as given to {@link #set}; this value
+     * is between 0 and 100, inclusive.
+     * @param options the options given to {@link #set}.
+     * @return the plan; never returns null.
+     * @throws DimBrightnessNotSupportedException if the given level means a
+     * "dim" setting but the device does not support dim.
+     */
+    protected abstract WritePlan compilePlan(int level, int options)
+            throws DimBrightnessNotSupportedException;
+
     /**
      * Returns the default brightness level to use when the "dim" option is
      * selected by a user.
@@ -70,6 +161,114 @@ public abstract class CapacitiveButtonsBacklightBrightness implements
         return 50;
     }
 
+    /**
+     * Returns the lock that is held while executing the plans of every object
+     * that writes the files of an LED node. The lock is fair, so that plans
+     * for the node are executed in the order that they were requested.
+     *
+     * @param nodePath the path of the LED node, as returned from
+     * {@link #getNodePath()}.
+     * @return the lock of the node; the same object is returned for every
+     * invocation with an equal path.
+     * @throws NullPointerException if nodePath==null.
+     */
+    static Lock getNodeLock(String nodePath) {
+        if (nodePath == null) {
+            throw new NullPointerException("nodePath==null");
+        }
+        synchronized (NODE_LOCKS) {
+            Lock lock = NODE_LOCKS.get(nodePath);
+            if (lock == null) {
+                lock = new ReentrantLock(true);
+                NODE_LOCKS.put(nodePath, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Returns the path of the LED node whose files are written by this object.
+     * The path is that of the real sysfs directory, before mapping with
+     * {@link #sysfsPath}.
+     * <p>
+     * The implementation of this method in this class returns
+     * {@link #BUTTONS_BACKLIGHT_DIR}; subclasses that write the files of
+     * another node must override it.
+     *
+     * @return the path of the LED node; never returns null.
+     */
+    public String getNodePath() {
+        return BUTTONS_BACKLIGHT_DIR;
+    }
+
+    /**
+     * Returns the plan of writes that sets the brightness of the capacitive
+     * buttons backlight to the given level, compiling it with
+     * {@link #compilePlan} if it has not already been compiled.
+     *
+     * @param level a value between 0 and 100, inclusive, as given to
+     * {@link #set}.
+     * @param options the options, as given to {@link #set}.
+     * @return the plan; never returns null.
+     * @throws IllegalArgumentException if the given level is less than 0 or
+     * greater than 100.
+     * @throws DimBrightnessNotSupportedException if the given level means a
+     * "dim" setting but the device does not support dim.
+     */
+    public WritePlan getPlan(int level, int options)
+            throws DimBrightnessNotSupportedException {
+        if (level < 0 || level > 100) {
+            throw new IllegalArgumentException("invalid level: " + level);
+        }
+        final int index = getPlanIndex(level, options);
+        final SysfsBackend backend = SysfsEnvironment.getBackend();
+        synchronized (this) {
+            if (this.plans == null || this.plansBackend != backend) {
+                this.plans = new WritePlan[getPlanIndex(100, 0) + 1
+                    + PLAN_OPTIONS_MASK];
+                this.plansBackend = backend;
+            }
+            WritePlan plan = this.plans[index];
+            if (plan == null) {
+                plan = this.compilePlan(level, options & PLAN_OPTIONS_MASK);
+                this.plans[index] = plan;
+            }
+            return plan;
+        }
+    }
+
+    private static int getPlanIndex(int level, int options) {
+        return (level * (PLAN_OPTIONS_MASK + 1))
+            + (options & PLAN_OPTIONS_MASK);
+    }
+
+    /**
+     * Discards all plans compiled by {@link #compilePlan}, so that they are
+     * compiled again the next time that they are needed. This must be invoked
+     * if the files that exist may have changed.
+     */
+    public synchronized void invalidatePlans() {
+        this.plans = null;
+        this.plansBackend = null;
+    }
+
+    /**
+     * Returns the files whose ownership and permissions are changed by the
+     * plans created with {@link #newPlanBuilder()}, and which are made
+     * writable again by {@link #setDefault}. The paths are those of the real
+     * sysfs files, before mapping with {@link #sysfsPath}.
+     * <p>
+     * The implementation of this method in this class returns
+     * {@link #CURRENTS_PATH} and {@link #BRIGHTNESS_PATH}; subclasses that
+     * write other files must override it.
+     *
+     * @return a non-null array of non-null Strings whose values are the paths
+     * of the files managed by this object.
+     */
+    protected String[] getManagedFiles() {
+        return ALL_PATHS.clone();
+    }
+
     /**
      * Returns a list of files that must exist in order for setting of the
      * capacitive buttons brightness of this device to <em>dim</em> to be
@@ -88,7 +287,9 @@ public abstract class CapacitiveButtonsBacklightBrightness implements
 
     /**
      * Returns a list of files that must exist in order for setting of the
-     * capacitive buttons brightness of this device to be supported. This method
+     * capacitive buttons brightness of this device to be supported. The paths
+     * are those of the real sysfs files, before mapping with
+     * {@link #sysfsPath}. This method
      * is invoked by the implementation of {@link #isSupported} to determine if
      * this device is supported.
      *
@@ -101,14 +302,16 @@ public abstract class CapacitiveButtonsBacklightBrightness implements
      * Returns whether or not setting the capacitive button brightness to
      * <em>dim</em> is supported. The implementation of this method in this
      * class returns true if and only if every files returned by
-     * {@link #getRequiredDimFiles()} exists.
+     * {@link #getRequiredDimFiles()} exists, according to the
+     * {@link BacklightCapabilities}.
      *
      * @return true if setting the capacitive button brightness to dim is
      * supported; false if it is not supported.
      */
     public boolean isDimSupported() {
         final String[] paths = this.getRequiredDimFiles();
-        final boolean supported = allFilesExist(paths);
+        final boolean supported =
+            BacklightCapabilities.getInstance().existAll(paths);
         return supported;
     }
 
@@ -116,19 +319,22 @@ public abstract class CapacitiveButtonsBacklightBrightness implements
      * Returns whether or not setting the capacitive button brightness is
      * supported. The implementation of this method in this class returns true
      * if and only if every files returned by {@link #getRequiredFiles()}
-     * exists.
+     * exists, according to the {@link BacklightCapabilities}.
      *
      * @return true if setting the capacitive button brightness is supported;
      * false if it is not supported.
      */
     public boolean isSupported() {
         final String[] paths = this.getRequiredFiles();
-        final boolean supported = allFilesExist(paths);
+        final boolean supported =
+            BacklightCapabilities.getInstance().existAll(paths);
         return supported;
     }
 
     /**
-     * Sets the brightness of the capacitive buttons backlight.
+     * Sets the brightness of the capacitive buttons backlight by executing the
+     * plan returned from {@link #getPlan}, while holding the lock of the node
+     * returned from {@link #getNodeLock}.
      * <p>
      * If this device does not actually support the given brightness level then
      * the implementation will choose an appropriate alternative.
@@ -149,10 +355,29 @@ public abstract class CapacitiveButtonsBacklightBrightness implements
      * @throws DimBrightnessNotSupportedException if the given level means a
      * "dim" setting but the device does not support dim.
      */
-    public abstract void set(int level, int options,
+    public void set(int level, int options,
             IntFileRootHelper.OperationNotifier notifier)
             throws IntFileRootHelper.IntWriteException,
-            DimBrightnessNotSupportedException;
+            DimBrightnessNotSupportedException {
+        final WritePlan plan = this.getPlan(level, options);
+        if (plan.getCount() == 0) {
+            return;
+        }
+
+        final Lock lock = getNodeLock(this.getNodePath());
+        lock.lock();
+        try {
+            final IntFileRootHelper intFile =
+                newIntFileRootHelper(notifier, options);
+            try {
+                plan.execute(intFile);
+            } finally {
+                intFile.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
      * Sets the brightness of the capacitive buttons backlight to its default
@@ -172,55 +397,126 @@ public abstract class CapacitiveButtonsBacklightBrightness implements
             throw new RuntimeException("should never happen: " + e);
         }
 
-        try {
-            IntFileRootHelper.makeWritable(CURRENTS_PATH);
-        } catch (final IntFileRootHelper.ChmodFailedException e) {
-            Log.w(Constants.LOG_TAG,
-                "unable to make file writeable when restoring default: "
-                    + CURRENTS_PATH, e);
+        for (final String path : this.getManagedFiles()) {
+            try {
+                IntFileRootHelper.makeWritable(sysfsPath(path));
+            } catch (final IntFileRootHelper.ChmodFailedException e) {
+                Log.w(Constants.LOG_TAG,
+                    "unable to make file writeable when restoring default: "
+                        + path, e);
+            }
         }
-        try {
-            IntFileRootHelper.makeWritable(BRIGHTNESS_PATH);
-        } catch (final IntFileRootHelper.ChmodFailedException e) {
-            Log.w(Constants.LOG_TAG,
-                "unable to make file writeable when restoring default: "
-                    + BRIGHTNESS_PATH, e);
+    }
+
+    /**
+     * Changes the ownership of the given files to the UID of the current
+     * process, so that a single request to the root shell is made for all of
+     * them rather than one request for each file as it is written. On failure,
+     * a warning is logged but no exceptions are thrown; in that case the
+     * ownership will be attempted again, file by file, as each file is written
+     * and any failure will be reported then.
+     *
+     * @param intFile the IntFileRootHelper to use to access the files.
+     * @param paths the mapped paths of the files, which must exist.
+     * @throws NullPointerException if intFile==null or paths==null.
+     */
+    static void ensureFilesOwned(IntFileRootHelper intFile, String[] paths) {
+        if (intFile == null) {
+            throw new NullPointerException("intFile==null");
+        } else if (paths == null) {
+            throw new NullPointerException("paths==null");
+        }
+        if (paths.length > 0) {
+            try {
+                intFile.ensureOwned(paths);
+            } catch (final IntFileRootHelper.IntWriteException e) {
+                Log.w(Constants.LOG_TAG,
+                    "unable to change ownership of files", e);
+            }
         }
     }
 
-    private static boolean allFilesExist(String[] paths) {
+    /**
+     * Creates and returns a new IntFileRootHelper that is configured according
+     * to the given options.
+     *
+     * @param notifier the object to be notified when events occur; may be
+     * null.
+     * @param options the options that were given to {@link #set}.
+     * @return a new IntFileRootHelper.
+     */
+    protected static IntFileRootHelper newIntFileRootHelper(
+            IntFileRootHelper.OperationNotifier notifier, int options) {
+        final IntFileRootHelper intFile = new IntFileRootHelper(notifier);
+        if ((options & OPTION_ELIDE_UNCHANGED) == OPTION_ELIDE_UNCHANGED) {
+            intFile
+                .setConditionalWriteMode(ConditionalWriteMode.SKIP_IF_LAST_WRITTEN_AND_UNCHANGED);
+        }
+        return intFile;
+    }
+
+    /**
+     * Creates and returns a new WritePlan.Builder whose protected paths are
+     * those files returned from {@link #getManagedFiles()} that currently
+     * exist.
+     *
+     * @return a new WritePlan.Builder.
+     */
+    protected WritePlan.Builder newPlanBuilder() {
+        final WritePlan.Builder builder = new WritePlan.Builder();
+        builder.setProtectedPaths(getExistingFiles(this.getManagedFiles()));
+        return builder;
+    }
+
+    private static String[] getExistingFiles(String[] paths) {
+        final List<String> existingPaths = new ArrayList<String>(paths.length);
+        final BacklightCapabilities capabilities =
+            BacklightCapabilities.getInstance();
         for (final String path : paths) {
-            final File file = new File(path);
-            if (!file.exists()) {
-                return false;
+            if (capabilities.exists(path)) {
+                existingPaths.add(sysfsPath(path));
             }
         }
-        return true;
+        final String[] array = new String[existingPaths.size()];
+        return existingPaths.toArray(array);
     }
 
     /**
-     * Changes the permissions of all files to read-only, to prevent the OS from
-     * messing with them. On failure, a warning is logged but no exceptions are
-     * thrown.
+     * Returns the path of the file that actually backs a sysfs file, according
+     * to the {@link org.sleepydragon.capbutnbrightness.sysfs.SysfsBackend} in
+     * use. This must be used to map the paths of all files that are accessed,
+     * such as {@link #BRIGHTNESS_PATH}, so that the files can be replaced, for
+     * example by ordinary files when benchmarking.
+     *
+     * @param path the path of the sysfs file.
+     * @return the path of the file that backs the sysfs file.
+     * @throws NullPointerException if path==null.
+     */
+    protected static String sysfsPath(String path) {
+        return SysfsEnvironment.getBackend().getPath(path);
+    }
+
+    /**
+     * Changes the permissions of the given files to read-only, to prevent the
+     * OS from messing with them. On failure, a warning is logged but no
+     * exceptions are thrown.
      *
      * @param intFile the IntFileRootHelper to use to access the files.
-     * @throws NullPointerException if intFile==null.
+     * @param paths the mapped paths of the files, which must exist.
+     * @throws NullPointerException if intFile==null or paths==null.
      */
-    protected static void makeAllFilesReadOnly(IntFileRootHelper intFile) {
+    static void makeFilesReadOnly(IntFileRootHelper intFile, String[] paths) {
         if (intFile == null) {
             throw new NullPointerException("intFile==null");
+        } else if (paths == null) {
+            throw new NullPointerException("paths==null");
         }
-        final String[] paths = { CURRENTS_PATH, BRIGHTNESS_PATH };
-        for (final String path : paths) {
-            final File file = new File(path);
-            if (file.exists()) {
-                try {
-                    intFile.protectFileFromOs(path);
-                } catch (final IntFileRootHelper.IntWriteException e) {
-                    Log.w(Constants.LOG_TAG,
-                        "unable to protect file from changes by the OS: "
-                            + BRIGHTNESS_PATH, e);
-                }
+        if (paths.length > 0) {
+            try {
+                intFile.protectFilesFromOs(paths);
+            } catch (final IntFileRootHelper.IntWriteException e) {
+                Log.w(Constants.LOG_TAG,
+                    "unable to protect files from changes by the OS", e);
             }
         }
     }
@@ -16,46 +16,101 @@
  */
 package org.sleepydragon.capbutnbrightness.devices;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.sleepydragon.capbutnbrightness.Constants;
+
+import android.content.Context;
 import android.os.Build;
+import android.util.Log;
 
 /**
- * A collection of DeviceInfo objects.
+ * A collection of DeviceInfo objects, which are created from the profiles in
+ * the catalogue of known devices, the asset {@link #CATALOGUE_ASSET}.
+ * <p>
+ * When a DeviceInfoDatabase is created the catalogue is read into an index
+ * keyed by device ID, without parsing any of the profiles. Each profile is
+ * parsed into a {@link DeviceProfile} the first time that the DeviceInfo of
+ * its device is needed, so that looking up a known device only parses the
+ * profile of that device (and that of the device it is "like", if any).
+ * <p>
+ * Devices that are not in the catalogue are represented by an
+ * {@link UnknownDeviceInfo}, whose capacitive buttons backlight is the one
+ * found by {@link LedDiscovery}, if any; if a keyboard backlight is found as
+ * well then both are set together with a {@link MultiLedBrightness}.
+ * <p>
+ * This class is thread safe.
  */
 public class DeviceInfoDatabase {
 
-    private final Map<String, DeviceInfo> devices;
-    private final DeviceInfo unknownDeviceInfo;
+    /**
+     * The special ID given to {@link #getById} to get the DeviceInfo for the
+     * current device as if it is unknown.
+     */
+    public static final String UNKNOWN_DEVICE_ID = "unknown";
+
+    /**
+     * The name of the asset that contains the catalogue of known devices.
+     */
+    public static final String CATALOGUE_ASSET = "devices.txt";
+
+    /**
+     * The maximum number of "like" attributes that are followed when parsing
+     * a profile, to detect profiles that are, indirectly, like themselves.
+     */
+    private static final int MAX_LIKE_DEPTH = 8;
+
+    private final Map<String, Entry> index;
+    private final Map<String, DeviceInfo> devices =
+        new HashMap<String, DeviceInfo>();
+    private final Map<String, DeviceProfile> profiles =
+        new HashMap<String, DeviceProfile>();
 
     /**
-     * Creates a new DeviceInfoDatabase object.
+     * The DeviceInfo returned for an unknown device, or null if it has not
+     * yet been created. All access to this field must be done while
+     * synchronized on this object.
      */
-    public DeviceInfoDatabase() {
-        // create a list containing information about known devices
-        final Collection<DeviceInfo> list = new ArrayList<DeviceInfo>();
-        list.add(new DeviceInfo("evita", "HTC One X", new HtcOneXEvita()));
-        list.add(new DeviceInfo("endeavoru", "HTC One X",
-            new HtcOneXEndeavoru()));
-        list.add(new DeviceInfo("evitareul", "HTC One X+", new HtcOneXPlus()));
-        list.add(new DeviceInfo("enrc2b", "HTC One X+", new HtcOneXPlus()));
-        list.add(new DeviceInfo("m7", "HTC One", new HtcOne()));
-        list.add(new DeviceInfo("ville", "HTC One S", new HtcOneXPlus()));
-        list.add(new DeviceInfo("pyramid", "HTC Sensation", new HtcSensation()));
-
-        // create a sentinel object that represents an unknown device
-        this.unknownDeviceInfo = new UnknownDeviceInfo();
-
-        // convert the list into a map for more efficient lookup
-        final Map<String, DeviceInfo> map = new HashMap<String, DeviceInfo>();
-        for (final DeviceInfo deviceInfo : list) {
-            final String id = deviceInfo.getId();
-            map.put(id, deviceInfo);
-        }
-        this.devices = map;
+    private DeviceInfo unknownDeviceInfo;
+
+    /**
+     * Creates a new DeviceInfoDatabase object, reading the index of the
+     * catalogue of known devices. If the catalogue cannot be read then an
+     * error is logged and every device is unknown.
+     *
+     * @param context the context whose assets contain the catalogue.
+     * @throws NullPointerException if context==null.
+     */
+    public DeviceInfoDatabase(Context context) {
+        if (context == null) {
+            throw new NullPointerException("context==null");
+        }
+        this.index = loadIndex(context);
+    }
+
+    /**
+     * Creates a new DeviceInfoDatabase object, reading the index of the
+     * catalogue of known devices from a file rather than from the assets of a
+     * context, such as when benchmarking on a plain JVM.
+     *
+     * @param catalogue the file that contains the catalogue, such as
+     * assets/devices.txt in the source tree.
+     * @throws IOException if reading the catalogue fails.
+     * @throws NullPointerException if catalogue==null.
+     */
+    public DeviceInfoDatabase(File catalogue) throws IOException {
+        if (catalogue == null) {
+            throw new NullPointerException("catalogue==null");
+        }
+        this.index = loadIndex(new FileInputStream(catalogue));
     }
 
     /**
@@ -65,21 +120,32 @@ public class DeviceInfoDatabase {
      * ID that will return a DeviceInfo object for the current device as if it
      * is unknown.
      * @return the DeviceInfo object with the given ID, or null if the given ID
-     * is not known, including if id==null; if "unknown" is given then an
-     * instance of {@link UnknownDeviceInfo} will be returned.
+     * is not known, including if id==null or if the profile of the device is
+     * malformed; if "unknown" is given then an instance of
+     * {@link UnknownDeviceInfo} will be returned.
      */
-    public DeviceInfo getById(String id) {
+    public synchronized DeviceInfo getById(String id) {
         final DeviceInfo deviceInfo;
         if (id == null) {
             deviceInfo = null;
-        } else if (id.equals("unknown")) {
-            deviceInfo = this.unknownDeviceInfo;
+        } else if (id.equals(UNKNOWN_DEVICE_ID)) {
+            deviceInfo = this.getUnknownDevice();
         } else {
-            deviceInfo = this.devices.get(id);
+            deviceInfo = this.getKnownDevice(id);
         }
         return deviceInfo;
     }
 
+    /**
+     * Returns the IDs of the devices in the catalogue.
+     *
+     * @return a new array containing the IDs of the devices in the
+     * catalogue, in the order that they appear in it; never returns null.
+     */
+    public synchronized String[] getKnownIds() {
+        return this.index.keySet().toArray(new String[this.index.size()]);
+    }
+
     /**
      * Gets a DeviceInfo object suitable for the current device.
      *
@@ -87,29 +153,163 @@ public class DeviceInfoDatabase {
      * if the current device is not known then an instance of
      * {@link UnknownDeviceInfo} will be returned.
      */
-    public DeviceInfo getForCurrentDevice() {
+    public synchronized DeviceInfo getForCurrentDevice() {
         // try to find an exact match
-        final String deviceId = Build.DEVICE;
-        for (final String curDeviceId : this.devices.keySet()) {
-            if (curDeviceId.equals(deviceId)) {
-                final DeviceInfo deviceInfo = this.devices.get(curDeviceId);
-                return deviceInfo;
-            }
+        final DeviceInfo exactMatch = this.getKnownDevice(Build.DEVICE);
+        if (exactMatch != null) {
+            return exactMatch;
         }
 
-        // try to find one whose capacitive buttons are supported
-        for (final DeviceInfo deviceInfo : this.devices.values()) {
+        // try to find one whose capacitive buttons are supported, which has
+        // to parse the profile of every device
+        for (final String id : this.index.keySet()) {
+            final DeviceInfo deviceInfo = this.getKnownDevice(id);
             final CapacitiveButtonsBacklightBrightness buttons =
-                deviceInfo.getCapacitiveButtonsBacklightBrightness();
+                (deviceInfo == null) ? null : deviceInfo
+                    .getCapacitiveButtonsBacklightBrightness();
             if (buttons != null && buttons.isSupported()) {
                 return deviceInfo;
             }
         }
 
         // return the "unknown" device
+        return this.getUnknownDevice();
+    }
+
+    /**
+     * Gets the DeviceInfo of a device in the catalogue, parsing its profile
+     * if this is the first time that it is needed. Must be invoked while
+     * synchronized on this object.
+     */
+    private DeviceInfo getKnownDevice(String id) {
+        DeviceInfo deviceInfo = this.devices.get(id);
+        if (deviceInfo != null) {
+            return deviceInfo;
+        }
+        final Entry entry = this.index.get(id);
+        if (entry == null) {
+            return null;
+        }
+
+        final DeviceProfile profile;
+        try {
+            profile = this.getProfile(id, 0);
+        } catch (final IllegalArgumentException e) {
+            Log.e(Constants.LOG_TAG, "invalid profile of device " + id
+                + " in " + CATALOGUE_ASSET, e);
+            return null;
+        }
+        deviceInfo = new DeviceInfo(id, entry.name, profile);
+        this.devices.put(id, deviceInfo);
+        return deviceInfo;
+    }
+
+    /**
+     * Gets the DeviceInfo that represents an unknown device, creating it from
+     * the result of {@link LedDiscovery} if this is the first time that it is
+     * needed. Must be invoked while synchronized on this object.
+     */
+    private DeviceInfo getUnknownDevice() {
+        if (this.unknownDeviceInfo == null) {
+            final LedDiscovery.Result result =
+                LedDiscovery.getInstance().getResult();
+            final LedDiscovery.Node buttonsNode =
+                result.getNode(LedDiscovery.KIND_BUTTONS);
+            final LedDiscovery.Node keyboardNode =
+                result.getNode(LedDiscovery.KIND_KEYBOARD);
+            final CapacitiveButtonsBacklightBrightness buttons;
+            if (buttonsNode == null) {
+                buttons = null;
+            } else if (keyboardNode == null) {
+                buttons = new DiscoveredLedBrightness(buttonsNode);
+            } else {
+                buttons =
+                    new MultiLedBrightness(
+                        new CapacitiveButtonsBacklightBrightness[] {
+                            new DiscoveredLedBrightness(buttonsNode),
+                            new DiscoveredLedBrightness(keyboardNode), });
+            }
+            this.unknownDeviceInfo = new UnknownDeviceInfo(buttons);
+        }
         return this.unknownDeviceInfo;
     }
 
+    /**
+     * Gets the parsed profile of a device, parsing it and the profile that it
+     * is "like", if any, if necessary. Must be invoked while synchronized on
+     * this object.
+     */
+    private DeviceProfile getProfile(String id, int depth) {
+        DeviceProfile profile = this.profiles.get(id);
+        if (profile != null) {
+            return profile;
+        }
+        final Entry entry = this.index.get(id);
+        if (entry == null) {
+            throw new IllegalArgumentException("unknown device: " + id);
+        } else if (depth > MAX_LIKE_DEPTH) {
+            throw new IllegalArgumentException("too many levels of "
+                + DeviceProfile.KEY_LIKE + ": " + id);
+        }
+
+        final String like = DeviceProfile.getLike(entry.attributes);
+        final DeviceProfile base =
+            (like == null) ? null : this.getProfile(like, depth + 1);
+        profile = DeviceProfile.parse(entry.attributes, base);
+        this.profiles.put(id, profile);
+        return profile;
+    }
+
+    private static Map<String, Entry> loadIndex(Context context) {
+        try {
+            return loadIndex(context.getAssets().open(CATALOGUE_ASSET));
+        } catch (final IOException e) {
+            Log.e(Constants.LOG_TAG, "unable to read " + CATALOGUE_ASSET, e);
+            return new LinkedHashMap<String, Entry>();
+        }
+    }
+
+    /**
+     * Reads the index of the catalogue from the given stream, which is closed
+     * before returning.
+     */
+    private static Map<String, Entry> loadIndex(InputStream in)
+            throws IOException {
+        final Map<String, Entry> index = new LinkedHashMap<String, Entry>();
+        try {
+            final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            while (true) {
+                final String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                addToIndex(index, line.trim());
+            }
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+
+    private static void addToIndex(Map<String, Entry> index, String line) {
+        if (line.length() == 0 || line.charAt(0) == '#') {
+            return;
+        }
+        final int nameStart = line.indexOf('|');
+        final int attributesStart =
+            (nameStart < 0) ? -1 : line.indexOf('|', nameStart + 1);
+        if (attributesStart < 0) {
+            Log.w(Constants.LOG_TAG, "malformed line in " + CATALOGUE_ASSET
+                + ": " + line);
+            return;
+        }
+        final String id = line.substring(0, nameStart);
+        final String name = line.substring(nameStart + 1, attributesStart);
+        final String attributes = line.substring(attributesStart + 1);
+        index.put(id, new Entry(name, attributes));
+    }
+
     /**
      * A specialization of DeviceInfo that represents an "unknown" device.
      */
@@ -117,10 +317,39 @@ public class DeviceInfoDatabase {
 
         /**
          * Creates a new UnknownDeviceInfo whose ID will be the Build.DEVICE of
-         * the current device.
+         * the current device and which has no known mechanism to control the
+         * brightness of the capacitive buttons backlight.
          */
         public UnknownDeviceInfo() {
-            super(Build.DEVICE, "Unknown Device", null);
+            this(null);
+        }
+
+        /**
+         * Creates a new UnknownDeviceInfo whose ID will be the Build.DEVICE of
+         * the current device.
+         *
+         * @param buttons an object that can be used to control the brightness
+         * of the capacitive buttons backlight, such as a
+         * {@link DiscoveredLedBrightness}; may be null if there is no known
+         * mechanism to do this.
+         */
+        public UnknownDeviceInfo(CapacitiveButtonsBacklightBrightness buttons) {
+            super(Build.DEVICE, "Unknown Device", buttons);
+        }
+    }
+
+    /**
+     * An entry in the index of the catalogue: the name of a device and its
+     * unparsed profile.
+     */
+    private static class Entry {
+
+        public final String name;
+        public final String attributes;
+
+        public Entry(String name, String attributes) {
+            this.name = name;
+            this.attributes = attributes;
         }
     }
 }
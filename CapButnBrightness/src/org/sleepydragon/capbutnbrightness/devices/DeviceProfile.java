@@ -0,0 +1,302 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.util.Arrays;
+
+/**
+ * A CapacitiveButtonsBacklightBrightness whose files and writes are described
+ * by a profile from the catalogue of known devices (see
+ * {@link DeviceInfoDatabase}) rather than by code. A profile is a list of
+ * space-separated key=value attributes that give the files that must exist
+ * and the writes to perform for each level; the format is documented in the
+ * catalogue itself, assets/devices.txt.
+ * <p>
+ * Profiles are parsed with {@link #parse}. All paths in a profile are
+ * relative to {@link #BUTTONS_BACKLIGHT_DIR}.
+ */
+public class DeviceProfile extends CapacitiveButtonsBacklightBrightness {
+
+    /**
+     * The key of the attribute that names the device whose profile another
+     * profile is based on.
+     */
+    public static final String KEY_LIKE = "like";
+
+    private static final String KEY_REQUIRES = "requires";
+    private static final String KEY_DIM_REQUIRES = "dim_requires";
+    private static final String SCREEN_ON_PREFIX = "screen_on_";
+
+    /**
+     * The keys of the write sequences, indexed by the SEQUENCE_ constants;
+     * the screen-on sequences are the same keys with SCREEN_ON_PREFIX.
+     */
+    private static final String[] SEQUENCE_KEYS = { "off", "dim", "bright" };
+
+    private static final int SEQUENCE_OFF = 0;
+    private static final int SEQUENCE_DIM = 1;
+    private static final int SEQUENCE_BRIGHT = 2;
+    private static final int SEQUENCE_SCREEN_ON_OFFSET = 3;
+    private static final int SEQUENCE_COUNT = 6;
+
+    private final String[] requiredFiles;
+    private final String[] requiredDimFiles;
+
+    /**
+     * The sequences that were given by the attributes of this profile or of
+     * its base profile, indexed by the SEQUENCE_ constants; the screen-on
+     * sequences that were not given are null. These, rather than the filled
+     * in sequences, are inherited by profiles based on this one, so that a
+     * screen-on sequence that was not given is taken from the derived
+     * profile's own off, dim or bright sequence.
+     */
+    private final Sequence[] specifiedSequences;
+
+    /**
+     * The sequences to write, indexed by the SEQUENCE_ constants, with the
+     * screen-on sequences that were not given filled in from the off, dim and
+     * bright sequences.
+     */
+    private final Sequence[] sequences;
+
+    private DeviceProfile(String[] requiredFiles, String[] requiredDimFiles,
+            Sequence[] specifiedSequences, Sequence[] sequences) {
+        this.requiredFiles = requiredFiles;
+        this.requiredDimFiles = requiredDimFiles;
+        this.specifiedSequences = specifiedSequences;
+        this.sequences = sequences;
+    }
+
+    /**
+     * Returns the value of the "like" attribute of a profile, which is the ID
+     * of the device whose profile must be given as the base profile to
+     * {@link #parse}.
+     *
+     * @param attributes the attributes of the profile.
+     * @return the value of the "like" attribute, or null if the profile does
+     * not have one.
+     * @throws NullPointerException if attributes==null.
+     */
+    public static String getLike(String attributes) {
+        for (final String attribute : splitAttributes(attributes)) {
+            final int index = attribute.indexOf('=');
+            if (index > 0 && attribute.substring(0, index).equals(KEY_LIKE)) {
+                return attribute.substring(index + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a profile.
+     *
+     * @param attributes the attributes of the profile.
+     * @param base the profile whose attributes are used for those that are
+     * not specified in the given attributes; may be null if the profile does
+     * not have a "like" attribute.
+     * @return a new DeviceProfile; never returns null.
+     * @throws NullPointerException if attributes==null.
+     * @throws IllegalArgumentException if the attributes are malformed, or if
+     * they do not specify the required files and the off, dim and bright
+     * writes, either directly or via the base profile.
+     */
+    public static DeviceProfile parse(String attributes, DeviceProfile base) {
+        String[] requiredFiles = null;
+        String[] requiredDimFiles = null;
+        final Sequence[] sequences = new Sequence[SEQUENCE_COUNT];
+        if (base != null) {
+            requiredFiles = base.requiredFiles;
+            requiredDimFiles = base.requiredDimFiles;
+            System.arraycopy(base.specifiedSequences, 0, sequences, 0,
+                SEQUENCE_COUNT);
+        }
+
+        for (final String attribute : splitAttributes(attributes)) {
+            final int index = attribute.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("invalid attribute: "
+                    + attribute);
+            }
+            final String key = attribute.substring(0, index);
+            final String value = attribute.substring(index + 1);
+            final int sequenceIndex = getSequenceIndex(key);
+            if (sequenceIndex >= 0) {
+                sequences[sequenceIndex] = Sequence.parse(value);
+            } else if (key.equals(KEY_REQUIRES)) {
+                requiredFiles = parsePaths(value);
+            } else if (key.equals(KEY_DIM_REQUIRES)) {
+                requiredDimFiles = parsePaths(value);
+            } else if (!key.equals(KEY_LIKE)) {
+                throw new IllegalArgumentException("unknown key: " + key);
+            }
+        }
+
+        if (requiredFiles == null) {
+            throw new IllegalArgumentException("missing " + KEY_REQUIRES);
+        } else if (requiredDimFiles == null) {
+            requiredDimFiles = new String[0];
+        }
+        final Sequence[] filledSequences = sequences.clone();
+        for (int i = 0; i < SEQUENCE_KEYS.length; i++) {
+            if (sequences[i] == null) {
+                throw new IllegalArgumentException("missing "
+                    + SEQUENCE_KEYS[i]);
+            }
+            final int screenOnIndex = i + SEQUENCE_SCREEN_ON_OFFSET;
+            if (filledSequences[screenOnIndex] == null) {
+                filledSequences[screenOnIndex] = sequences[i];
+            }
+        }
+
+        return new DeviceProfile(requiredFiles, requiredDimFiles, sequences,
+            filledSequences);
+    }
+
+    protected WritePlan compilePlan(int level, int options)
+            throws DimBrightnessNotSupportedException {
+        final boolean dim = (level != 0 && level != 100);
+        if (dim && !this.isDimSupported()) {
+            throw new DimBrightnessNotSupportedException(
+                "file does not exist: "
+                    + Arrays.toString(this.requiredDimFiles));
+        }
+
+        int sequenceIndex;
+        if (level == 0) {
+            sequenceIndex = SEQUENCE_OFF;
+        } else if (dim) {
+            sequenceIndex = SEQUENCE_DIM;
+        } else {
+            sequenceIndex = SEQUENCE_BRIGHT;
+        }
+        if ((options & OPTION_SCREEN_ON) == OPTION_SCREEN_ON) {
+            sequenceIndex += SEQUENCE_SCREEN_ON_OFFSET;
+        }
+
+        final Sequence sequence = this.sequences[sequenceIndex];
+        if (sequence.paths.length == 0) {
+            return WritePlan.EMPTY;
+        }
+        final BacklightCapabilities capabilities =
+            BacklightCapabilities.getInstance();
+        final WritePlan.Builder plan = this.newPlanBuilder();
+        for (int i = 0; i < sequence.paths.length; i++) {
+            final String path = sequence.paths[i];
+            if (sequence.optional[i] && !capabilities.exists(path)) {
+                continue;
+            }
+            plan.add(sysfsPath(path), sequence.values[i]);
+        }
+        return plan.build();
+    }
+
+    public String[] getRequiredDimFiles() {
+        return this.requiredDimFiles.clone();
+    }
+
+    public String[] getRequiredFiles() {
+        return this.requiredFiles.clone();
+    }
+
+    private static int getSequenceIndex(String key) {
+        int offset = 0;
+        String name = key;
+        if (key.startsWith(SCREEN_ON_PREFIX)) {
+            offset = SEQUENCE_SCREEN_ON_OFFSET;
+            name = key.substring(SCREEN_ON_PREFIX.length());
+        }
+        for (int i = 0; i < SEQUENCE_KEYS.length; i++) {
+            if (SEQUENCE_KEYS[i].equals(name)) {
+                return i + offset;
+            }
+        }
+        return -1;
+    }
+
+    private static String[] parsePaths(String value) {
+        if (value.length() == 0) {
+            return new String[0];
+        }
+        final String[] names = value.split(",");
+        final String[] paths = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            paths[i] = toPath(names[i]);
+        }
+        return paths;
+    }
+
+    private static String[] splitAttributes(String attributes) {
+        final String trimmed = attributes.trim();
+        if (trimmed.length() == 0) {
+            return new String[0];
+        }
+        return trimmed.split("\\s+");
+    }
+
+    private static String toPath(String name) {
+        if (name.length() == 0 || name.indexOf('/') >= 0) {
+            throw new IllegalArgumentException("invalid file name: " + name);
+        }
+        return BUTTONS_BACKLIGHT_DIR + "/" + name;
+    }
+
+    /**
+     * A sequence of writes, as given by one of the off, dim and bright
+     * attributes.
+     */
+    private static class Sequence {
+
+        public final String[] paths;
+        public final int[] values;
+        public final boolean[] optional;
+
+        private Sequence(String[] paths, int[] values, boolean[] optional) {
+            this.paths = paths;
+            this.values = values;
+            this.optional = optional;
+        }
+
+        public static Sequence parse(String value) {
+            final String[] writes =
+                (value.length() == 0) ? new String[0] : value.split(",");
+            final String[] paths = new String[writes.length];
+            final int[] values = new int[writes.length];
+            final boolean[] optional = new boolean[writes.length];
+            for (int i = 0; i < writes.length; i++) {
+                final String write = writes[i];
+                final int index = write.indexOf(':');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("invalid write: "
+                        + write);
+                }
+                String name = write.substring(0, index);
+                if (name.endsWith("?")) {
+                    optional[i] = true;
+                    name = name.substring(0, name.length() - 1);
+                }
+                paths[i] = toPath(name);
+                try {
+                    values[i] = Integer.parseInt(write.substring(index + 1));
+                } catch (final NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid write: "
+                        + write);
+                }
+            }
+            return new Sequence(paths, values, optional);
+        }
+    }
+}
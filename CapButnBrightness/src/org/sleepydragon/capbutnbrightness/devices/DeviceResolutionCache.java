@@ -0,0 +1,178 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persistently stores the result of resolving the current device, so that a
+ * new process (such as the one started by the OS to deliver BOOT_COMPLETED)
+ * does not need to probe the files of every known device again. The stored
+ * result is only used if it was stored by the same firmware, as identified by
+ * Build.FINGERPRINT, and the existence of the capacitive buttons backlight
+ * directory has not changed since.
+ */
+public class DeviceResolutionCache {
+
+    public static final String PREFS_NAME = "DeviceResolution";
+
+    private static final String PREFS_KEY_FINGERPRINT = "fingerprint";
+    private static final String PREFS_KEY_DEVICE_ID = "deviceId";
+    private static final String PREFS_KEY_SUPPORTED = "supported";
+    private static final String PREFS_KEY_DIM_SUPPORTED = "dimSupported";
+    private static final String PREFS_KEY_BACKLIGHT_DIR_EXISTS =
+        "backlightDirExists";
+
+    private final Context context;
+
+    /**
+     * Creates a new DeviceResolutionCache.
+     *
+     * @param context the context to use to read and write the stored result.
+     * @throws NullPointerException if context==null.
+     */
+    public DeviceResolutionCache(Context context) {
+        if (context == null) {
+            throw new NullPointerException("context==null");
+        }
+        this.context = context;
+    }
+
+    /**
+     * Returns the stored result, if it is still valid.
+     *
+     * @param fingerprint the Build.FINGERPRINT of the current firmware.
+     * @param backlightDirExists whether or not the capacitive buttons backlight
+     * directory currently exists.
+     * @return the stored result, or null if there is no stored result or it
+     * was stored by a different firmware or when the existence of the
+     * backlight directory was different.
+     * @throws NullPointerException if fingerprint==null.
+     */
+    public Entry load(String fingerprint, boolean backlightDirExists) {
+        if (fingerprint == null) {
+            throw new NullPointerException("fingerprint==null");
+        }
+        final SharedPreferences prefs = this.getSharedPreferences();
+        final String storedFingerprint =
+            prefs.getString(PREFS_KEY_FINGERPRINT, null);
+        final String deviceId = prefs.getString(PREFS_KEY_DEVICE_ID, null);
+        if (deviceId == null || !fingerprint.equals(storedFingerprint)) {
+            return null;
+        }
+        final boolean storedBacklightDirExists =
+            prefs.getBoolean(PREFS_KEY_BACKLIGHT_DIR_EXISTS, false);
+        if (storedBacklightDirExists != backlightDirExists) {
+            return null;
+        }
+        final boolean supported = prefs.getBoolean(PREFS_KEY_SUPPORTED, false);
+        final boolean dimSupported =
+            prefs.getBoolean(PREFS_KEY_DIM_SUPPORTED, false);
+        return new Entry(deviceId, supported, dimSupported);
+    }
+
+    /**
+     * Stores a result, replacing any previously stored result.
+     *
+     * @param fingerprint the Build.FINGERPRINT of the current firmware.
+     * @param backlightDirExists whether or not the capacitive buttons backlight
+     * directory exists.
+     * @param entry the result to store.
+     * @throws NullPointerException if fingerprint==null or entry==null.
+     */
+    public void store(String fingerprint, boolean backlightDirExists,
+            Entry entry) {
+        if (fingerprint == null) {
+            throw new NullPointerException("fingerprint==null");
+        } else if (entry == null) {
+            throw new NullPointerException("entry==null");
+        }
+        final SharedPreferences prefs = this.getSharedPreferences();
+        final SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(PREFS_KEY_FINGERPRINT, fingerprint);
+        editor.putString(PREFS_KEY_DEVICE_ID, entry.getDeviceId());
+        editor.putBoolean(PREFS_KEY_SUPPORTED, entry.isSupported());
+        editor.putBoolean(PREFS_KEY_DIM_SUPPORTED, entry.isDimSupported());
+        editor.putBoolean(PREFS_KEY_BACKLIGHT_DIR_EXISTS, backlightDirExists);
+        editor.commit();
+    }
+
+    private SharedPreferences getSharedPreferences() {
+        return this.context.getSharedPreferences(PREFS_NAME,
+            Context.MODE_PRIVATE);
+    }
+
+    /**
+     * A stored result of resolving the current device.
+     */
+    public static class Entry {
+
+        private final String deviceId;
+        private final boolean supported;
+        private final boolean dimSupported;
+
+        /**
+         * Creates a new Entry.
+         *
+         * @param deviceId the ID of the resolved device, as accepted by
+         * {@link DeviceInfoDatabase#getById}.
+         * @param supported whether or not setting the capacitive buttons
+         * brightness is supported.
+         * @param dimSupported whether or not setting the capacitive buttons
+         * brightness to "dim" is supported.
+         * @throws NullPointerException if deviceId==null.
+         */
+        public Entry(String deviceId, boolean supported, boolean dimSupported) {
+            if (deviceId == null) {
+                throw new NullPointerException("deviceId==null");
+            }
+            this.deviceId = deviceId;
+            this.supported = supported;
+            this.dimSupported = dimSupported;
+        }
+
+        /**
+         * Returns the ID of the resolved device.
+         *
+         * @return the ID of the resolved device; never returns null.
+         */
+        public String getDeviceId() {
+            return this.deviceId;
+        }
+
+        /**
+         * Returns whether or not setting the capacitive buttons brightness to
+         * "dim" is supported.
+         *
+         * @return true if dim is supported, false otherwise.
+         */
+        public boolean isDimSupported() {
+            return this.dimSupported;
+        }
+
+        /**
+         * Returns whether or not setting the capacitive buttons brightness is
+         * supported.
+         *
+         * @return true if it is supported, false otherwise.
+         */
+        public boolean isSupported() {
+            return this.supported;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import org.sleepydragon.capbutnbrightness.devices.DeviceResolutionCache.Entry;
+
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Resolves the {@link DeviceInfo} for the current device once and remembers
+ * it for the lifetime of the process. Creating a {@link DeviceInfoDatabase}
+ * reads the catalogue of known devices from the application's assets and, on
+ * devices that are not known by ID,
+ * {@link DeviceInfoDatabase#getForCurrentDevice()} parses every profile and
+ * checks the files of every candidate against the
+ * {@link BacklightCapabilities}; since the answer does not change while the
+ * process is running, this work is done once, the first time it is needed,
+ * rather than every time that the brightness is set.
+ * <p>
+ * The result is also persisted with a {@link DeviceResolutionCache}, along
+ * with whether or not the device supports setting the brightness and setting
+ * it to "dim", so that subsequent processes skip the probing entirely unless
+ * the firmware changes or the capacitive buttons backlight directory appears
+ * or disappears, which is answered by the {@link BacklightCapabilities}
+ * without any further I/O.
+ * <p>
+ * There is one instance of this class for the entire process, which is
+ * returned from {@link #getInstance()}. This class is thread safe.
+ */
+public class DeviceResolver {
+
+    /**
+     * The value returned from {@link #getResolutionNanos()} if the device has
+     * not yet been resolved.
+     */
+    public static final long NOT_RESOLVED = -1;
+
+    private static final DeviceResolver INSTANCE = new DeviceResolver();
+
+    /**
+     * The resolved device, or null if it has not yet been resolved. All
+     * access to this field must be done while synchronized on this object.
+     */
+    private DeviceInfo deviceInfo;
+
+    /**
+     * Whether or not the resolved device supports setting the brightness and
+     * setting it to "dim", respectively. All access to these fields must be
+     * done while synchronized on this object.
+     */
+    private boolean supported;
+    private boolean dimSupported;
+
+    /**
+     * Whether or not deviceInfo was restored from the persisted result rather
+     * than by probing. All access to this field must be done while
+     * synchronized on this object.
+     */
+    private boolean restored;
+
+    /**
+     * The number of nanoseconds that it took to resolve deviceInfo, or
+     * NOT_RESOLVED. All access to this field must be done while synchronized
+     * on this object.
+     */
+    private long resolutionNanos = NOT_RESOLVED;
+
+    /**
+     * Creates a new instance of DeviceResolver.
+     */
+    DeviceResolver() {
+    }
+
+    /**
+     * Returns the DeviceResolver that is shared by the entire process.
+     *
+     * @return the DeviceResolver that is shared by the entire process; never
+     * returns null.
+     */
+    public static DeviceResolver getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the object that controls the brightness of the capacitive
+     * buttons backlight of the current device, resolving the current device
+     * if necessary.
+     *
+     * @return the object that controls the brightness of the capacitive
+     * buttons backlight, or null if there is no known mechanism for
+     * controlling it on the current device.
+     * @see DeviceInfo#getCapacitiveButtonsBacklightBrightness()
+     */
+    public CapacitiveButtonsBacklightBrightness getButtons(Context context) {
+        final DeviceInfo deviceInfo = this.getDeviceInfo(context);
+        return deviceInfo.getCapacitiveButtonsBacklightBrightness();
+    }
+
+    /**
+     * Returns the DeviceInfo for the current device, resolving it if
+     * necessary.
+     *
+     * @param context the context to use to read the catalogue of known
+     * devices and to access the persisted result of a previous resolution.
+     * @return the DeviceInfo for the current device; never returns null.
+     * @throws NullPointerException if context==null.
+     * @see DeviceInfoDatabase#getForCurrentDevice()
+     */
+    public synchronized DeviceInfo getDeviceInfo(Context context) {
+        if (context == null) {
+            throw new NullPointerException("context==null");
+        }
+        if (this.deviceInfo == null) {
+            final long startTime = System.nanoTime();
+            this.resolve(context);
+            this.resolutionNanos = System.nanoTime() - startTime;
+        }
+        return this.deviceInfo;
+    }
+
+    /**
+     * Returns how long it took to resolve the current device.
+     *
+     * @return the number of nanoseconds that it took to resolve the current
+     * device, or {@link #NOT_RESOLVED} if it has not been resolved yet.
+     */
+    public synchronized long getResolutionNanos() {
+        return this.resolutionNanos;
+    }
+
+    /**
+     * Returns whether or not the resolved device was restored from the result
+     * persisted by a previous process, rather than by probing.
+     *
+     * @return true if the resolved device was restored, false if it was
+     * probed or has not been resolved yet.
+     */
+    public synchronized boolean isRestored() {
+        return this.restored;
+    }
+
+    /**
+     * Returns whether or not setting the capacitive buttons brightness to
+     * "dim" is supported by the current device, resolving it if necessary.
+     *
+     * @param context the context to use to read the catalogue of known
+     * devices and to access the persisted result of a previous resolution.
+     * @return true if dim is supported, false otherwise.
+     * @see CapacitiveButtonsBacklightBrightness#isDimSupported()
+     */
+    public synchronized boolean isDimSupported(Context context) {
+        this.getDeviceInfo(context);
+        return this.dimSupported;
+    }
+
+    /**
+     * Returns whether or not setting the capacitive buttons brightness is
+     * supported by the current device, resolving it if necessary.
+     *
+     * @param context the context to use to read the catalogue of known
+     * devices and to access the persisted result of a previous resolution.
+     * @return true if setting the brightness is supported, false otherwise.
+     * @see CapacitiveButtonsBacklightBrightness#isSupported()
+     */
+    public synchronized boolean isSupported(Context context) {
+        this.getDeviceInfo(context);
+        return this.supported;
+    }
+
+    /**
+     * Forgets the resolved device, so that it is resolved again the next time
+     * that it is needed. This is only needed if the files that are checked
+     * during the resolution have changed, such as when a different
+     * {@link org.sleepydragon.capbutnbrightness.sysfs.SysfsBackend} has been
+     * installed. The write plans of the previously-resolved device, which may
+     * still be in use by other objects, are discarded too, as are the listing
+     * of the capacitive buttons backlight directory and the LED nodes found
+     * by {@link LedDiscovery}.
+     */
+    public synchronized void invalidate() {
+        final DeviceInfo deviceInfo = this.deviceInfo;
+        if (deviceInfo != null) {
+            final CapacitiveButtonsBacklightBrightness buttons =
+                deviceInfo.getCapacitiveButtonsBacklightBrightness();
+            if (buttons != null) {
+                buttons.invalidatePlans();
+            }
+        }
+        BacklightCapabilities.getInstance().invalidate();
+        LedDiscovery.getInstance().invalidate();
+        this.deviceInfo = null;
+        this.supported = false;
+        this.dimSupported = false;
+        this.restored = false;
+        this.resolutionNanos = NOT_RESOLVED;
+    }
+
+    /**
+     * Resolves the current device, restoring it from the persisted result if
+     * that is still valid. Must be invoked while synchronized on this object.
+     */
+    private void resolve(Context context) {
+        final DeviceInfoDatabase db = new DeviceInfoDatabase(context);
+        final String fingerprint = Build.FINGERPRINT;
+        final int capabilities =
+            BacklightCapabilities.getInstance().getCapabilities();
+        final boolean backlightDirExists =
+            ((capabilities & BacklightCapabilities.CAPABILITY_DIRECTORY) != 0);
+        final DeviceResolutionCache cache = new DeviceResolutionCache(context);
+
+        final Entry cachedEntry = cache.load(fingerprint, backlightDirExists);
+        final DeviceInfo cachedDeviceInfo =
+            (cachedEntry == null) ? null : db.getById(cachedEntry
+                .getDeviceId());
+        if (cachedDeviceInfo != null) {
+            this.deviceInfo = cachedDeviceInfo;
+            this.supported = cachedEntry.isSupported();
+            this.dimSupported = cachedEntry.isDimSupported();
+            this.restored = true;
+            return;
+        }
+
+        final DeviceInfo deviceInfo = db.getForCurrentDevice();
+        final CapacitiveButtonsBacklightBrightness buttons =
+            deviceInfo.getCapacitiveButtonsBacklightBrightness();
+        this.deviceInfo = deviceInfo;
+        this.supported = (buttons != null && buttons.isSupported());
+        this.dimSupported = (buttons != null && buttons.isDimSupported());
+        this.restored = false;
+
+        final String deviceId;
+        if (deviceInfo instanceof DeviceInfoDatabase.UnknownDeviceInfo) {
+            deviceId = DeviceInfoDatabase.UNKNOWN_DEVICE_ID;
+        } else {
+            deviceId = deviceInfo.getId();
+        }
+        final Entry entry =
+            new Entry(deviceId, this.supported, this.dimSupported);
+        cache.store(fingerprint, backlightDirExists, entry);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A CapacitiveButtonsBacklightBrightness for an LED node that was found by
+ * {@link LedDiscovery} on a device that is not in the catalogue of known
+ * devices. Since nothing is known about the node other than that it follows
+ * the generic LED class interface, the brightness is set only by writing the
+ * brightness file: 0 for off, max_brightness for bright and a proportional
+ * value for dim, which is only supported if max_brightness is known and
+ * greater than 1.
+ */
+public class DiscoveredLedBrightness extends
+        CapacitiveButtonsBacklightBrightness {
+
+    /**
+     * The value written for "bright" if the max_brightness of the node is not
+     * known, which is the maximum brightness of most LED drivers.
+     */
+    private static final int DEFAULT_MAX_BRIGHTNESS = 255;
+
+    private final LedDiscovery.Node node;
+    private final String brightnessPath;
+
+    /**
+     * Creates a new DiscoveredLedBrightness.
+     *
+     * @param node the node whose brightness is to be controlled.
+     * @throws NullPointerException if node==null.
+     */
+    public DiscoveredLedBrightness(LedDiscovery.Node node) {
+        if (node == null) {
+            throw new NullPointerException("node==null");
+        }
+        this.node = node;
+        this.brightnessPath = node.getAttributePath("brightness");
+    }
+
+    protected WritePlan compilePlan(int level, int options)
+            throws DimBrightnessNotSupportedException {
+        final int value;
+        if (level == 0) {
+            value = 0;
+        } else if (level == 100) {
+            value = this.getMaxBrightness();
+        } else if (!this.isDimSupported()) {
+            throw new DimBrightnessNotSupportedException(
+                "max_brightness is not known for " + this.node.getName());
+        } else {
+            final int maxBrightness = this.getMaxBrightness();
+            value = Math.max(1, (maxBrightness * level + 50) / 100);
+        }
+
+        final WritePlan.Builder plan = this.newPlanBuilder();
+        plan.add(sysfsPath(this.brightnessPath), value);
+        return plan.build();
+    }
+
+    public FileInfo[] getDebugFiles() {
+        final List<FileInfo> files = new ArrayList<FileInfo>();
+        files.add(new FileInfo(this.brightnessPath, FileContents.INT));
+        final int attributes = this.node.getAttributes();
+        if ((attributes & LedDiscovery.ATTRIBUTE_MAX_BRIGHTNESS) != 0) {
+            files.add(new FileInfo(this.node
+                .getAttributePath("max_brightness"), FileContents.INT));
+        }
+        if ((attributes & LedDiscovery.ATTRIBUTE_CURRENTS) != 0) {
+            files.add(new FileInfo(this.node.getAttributePath("currents"),
+                FileContents.INT));
+        }
+        final FileInfo[] array = new FileInfo[files.size()];
+        return files.toArray(array);
+    }
+
+    /**
+     * Returns the node whose brightness is controlled by this object.
+     *
+     * @return the node whose brightness is controlled by this object; never
+     * returns null.
+     */
+    public LedDiscovery.Node getNode() {
+        return this.node;
+    }
+
+    public String getNodePath() {
+        return this.node.getPath();
+    }
+
+    protected String[] getManagedFiles() {
+        return new String[] { this.brightnessPath };
+    }
+
+    public String[] getRequiredFiles() {
+        return new String[] { this.brightnessPath };
+    }
+
+    /**
+     * Returns whether or not setting the capacitive button brightness to
+     * <em>dim</em> is supported, which is the case if the max_brightness of
+     * the node is known and greater than 1.
+     *
+     * @return true if setting the capacitive button brightness to dim is
+     * supported; false if it is not supported.
+     */
+    public boolean isDimSupported() {
+        return (this.node.getMaxBrightness() > 1);
+    }
+
+    private int getMaxBrightness() {
+        final int maxBrightness = this.node.getMaxBrightness();
+        return (maxBrightness > 0) ? maxBrightness : DEFAULT_MAX_BRIGHTNESS;
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsBackend;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsEnvironment;
+
+/**
+ * Discovers the LED nodes in {@link #LEDS_DIR} that are most likely to be the
+ * capacitive buttons backlight, the keyboard backlight and the screen
+ * backlight, for devices that are not in the catalogue of known devices.
+ * <p>
+ * The directory is listed once and every node is first scored by its name
+ * alone, which needs no I/O; only the nodes whose names look like one of the
+ * KIND_ constants are then listed themselves, to find which of the ATTRIBUTE_
+ * files they have, and only the best node of each kind has its
+ * max_brightness file read. Devices commonly have hundreds of LED nodes (one
+ * for each MMC slot, GPIO, and so on) and this keeps the cost of discovery
+ * proportional to the number of plausible nodes rather than the total.
+ * <p>
+ * The result is cached until the {@link SysfsBackend} changes or
+ * {@link #invalidate()} is invoked.
+ * <p>
+ * There is one instance of this class for the entire process, which is
+ * returned from {@link #getInstance()}. This class is thread safe.
+ */
+public class LedDiscovery {
+
+    /**
+     * The directory that contains the LED nodes.
+     */
+    public static final String LEDS_DIR = "/sys/class/leds";
+
+    /**
+     * The kind of node that is the capacitive buttons backlight.
+     */
+    public static final int KIND_BUTTONS = 0;
+
+    /**
+     * The kind of node that is the keyboard backlight.
+     */
+    public static final int KIND_KEYBOARD = 1;
+
+    /**
+     * The kind of node that is the screen backlight.
+     */
+    public static final int KIND_BACKLIGHT = 2;
+
+    /**
+     * The number of KIND_ constants.
+     */
+    public static final int KIND_COUNT = 3;
+
+    /**
+     * The bit that is set if a node has a brightness file; nodes without one
+     * are never candidates.
+     */
+    public static final int ATTRIBUTE_BRIGHTNESS = 0x00000001;
+
+    /**
+     * The bit that is set if a node has a max_brightness file.
+     */
+    public static final int ATTRIBUTE_MAX_BRIGHTNESS = 0x00000002;
+
+    /**
+     * The bit that is set if a node has a currents file.
+     */
+    public static final int ATTRIBUTE_CURRENTS = 0x00000004;
+
+    /**
+     * The bit that is set if a node has a lut_coefficient file.
+     */
+    public static final int ATTRIBUTE_LUT_COEFFICIENT = 0x00000008;
+
+    /**
+     * The names of the files of the ATTRIBUTE_ constants, with the bit of
+     * each at the same index of ATTRIBUTE_BITS and the amount that each adds
+     * to the score of a node at the same index of ATTRIBUTE_SCORES.
+     */
+    private static final String[] ATTRIBUTE_NAMES = { "brightness",
+        "max_brightness", "currents", "lut_coefficient", };
+
+    private static final int[] ATTRIBUTE_BITS = { ATTRIBUTE_BRIGHTNESS,
+        ATTRIBUTE_MAX_BRIGHTNESS, ATTRIBUTE_CURRENTS,
+        ATTRIBUTE_LUT_COEFFICIENT, };
+
+    private static final int[] ATTRIBUTE_SCORES = { 0, 8, 4, 4, };
+
+    /**
+     * The substrings of node names that indicate each kind of node, indexed
+     * by the KIND_ constants, with the score of each at the same indices of
+     * NAME_SCORES. The score of a name for a kind is that of the first
+     * substring that it contains, so more specific substrings come first.
+     */
+    private static final String[][] NAME_PATTERNS = {
+        { "button-backlight", "button", "touchkey", "keypad", "kpdbl",
+            "menu-backlight", },
+        { "keyboard-backlight", "kbd_backlight", "keyboard", "kbd", },
+        { "lcd-backlight", "wled", "backlight", }, };
+
+    private static final int[][] NAME_SCORES = { { 100, 60, 60, 50, 50, 50, },
+        { 100, 100, 60, 50, }, { 100, 60, 40, }, };
+
+    private static final LedDiscovery INSTANCE = new LedDiscovery();
+
+    /**
+     * The result of the last discovery. All access to this field must be
+     * done while synchronized on this object.
+     */
+    private Result result;
+
+    /**
+     * The SysfsBackend that was in use when result was discovered, or null if
+     * there has been no discovery since the last invalidation. All access to
+     * this field must be done while synchronized on this object.
+     */
+    private SysfsBackend discoveredBackend;
+
+    /**
+     * The number of times that discovery has been performed. All access to
+     * this field must be done while synchronized on this object.
+     */
+    private int discoveryCount;
+
+    /**
+     * Creates a new instance of LedDiscovery.
+     */
+    LedDiscovery() {
+    }
+
+    /**
+     * Returns the LedDiscovery that is shared by the entire process.
+     *
+     * @return the LedDiscovery that is shared by the entire process; never
+     * returns null.
+     */
+    public static LedDiscovery getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the result of discovery, performing the discovery if necessary.
+     *
+     * @return the result of discovery; never returns null.
+     */
+    public synchronized Result getResult() {
+        final SysfsBackend backend = SysfsEnvironment.getBackend();
+        if (this.discoveredBackend != backend) {
+            this.result = discover();
+            this.discoveredBackend = backend;
+            this.discoveryCount++;
+        }
+        return this.result;
+    }
+
+    /**
+     * Returns the number of times that discovery has been performed.
+     *
+     * @return the number of times that discovery has been performed.
+     */
+    public synchronized int getDiscoveryCount() {
+        return this.discoveryCount;
+    }
+
+    /**
+     * Forgets the result of discovery, so that discovery is performed again
+     * the next time that the result is needed.
+     */
+    public synchronized void invalidate() {
+        this.result = null;
+        this.discoveredBackend = null;
+    }
+
+    /**
+     * Returns the kind of node that a name most likely belongs to, and the
+     * score of the name for that kind.
+     *
+     * @param name the name of the node.
+     * @return the KIND_ constant in the low 8 bits and the score in the
+     * remaining bits; the score is 0 if the name does not look like any kind
+     * of node.
+     * @throws NullPointerException if name==null.
+     */
+    static int scoreName(String name) {
+        final String lowerName = name.toLowerCase();
+        int bestKind = 0;
+        int bestScore = 0;
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            final String[] patterns = NAME_PATTERNS[kind];
+            for (int i = 0; i < patterns.length; i++) {
+                if (lowerName.indexOf(patterns[i]) >= 0) {
+                    final int score = NAME_SCORES[kind][i];
+                    if (score > bestScore) {
+                        bestKind = kind;
+                        bestScore = score;
+                    }
+                    break;
+                }
+            }
+        }
+        return (bestScore << 8) | bestKind;
+    }
+
+    private static Result discover() {
+        final long startNanos = System.nanoTime();
+        final String dirPath =
+            CapacitiveButtonsBacklightBrightness.sysfsPath(LEDS_DIR);
+        final String[] names = new File(dirPath).list();
+        if (names == null) {
+            return new Result(new Node[KIND_COUNT], 0, 0,
+                System.nanoTime() - startNanos);
+        }
+
+        final Node[] nodes = new Node[KIND_COUNT];
+        int listCount = 0;
+        for (final String name : names) {
+            final int nameScore = scoreName(name);
+            final int score = nameScore >>> 8;
+            if (score == 0) {
+                continue;
+            }
+            final int kind = nameScore & 0xFF;
+
+            // the name is plausible, so see which attributes the node has
+            final String[] attributeNames = new File(dirPath, name).list();
+            listCount++;
+            if (attributeNames == null) {
+                continue;
+            }
+            final int attributes = getAttributes(attributeNames);
+            if ((attributes & ATTRIBUTE_BRIGHTNESS) == 0) {
+                continue;
+            }
+
+            final int totalScore = score + getAttributesScore(attributes);
+            final Node best = nodes[kind];
+            if (best == null || totalScore > best.score
+                || (totalScore == best.score
+                    && name.compareTo(best.name) < 0)) {
+                nodes[kind] =
+                    new Node(name, kind, totalScore, attributes, -1);
+            }
+        }
+
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            final Node node = nodes[kind];
+            if (node != null
+                && (node.attributes & ATTRIBUTE_MAX_BRIGHTNESS) != 0) {
+                final String path =
+                    CapacitiveButtonsBacklightBrightness.sysfsPath(node
+                        .getAttributePath("max_brightness"));
+                nodes[kind] =
+                    new Node(node.name, node.kind, node.score,
+                        node.attributes, readInt(path));
+            }
+        }
+
+        return new Result(nodes, names.length, listCount, System.nanoTime()
+            - startNanos);
+    }
+
+    private static int getAttributes(String[] names) {
+        int attributes = 0;
+        for (final String name : names) {
+            for (int i = 0; i < ATTRIBUTE_NAMES.length; i++) {
+                if (ATTRIBUTE_NAMES[i].equals(name)) {
+                    attributes |= ATTRIBUTE_BITS[i];
+                    break;
+                }
+            }
+        }
+        return attributes;
+    }
+
+    private static int getAttributesScore(int attributes) {
+        int score = 0;
+        for (int i = 0; i < ATTRIBUTE_BITS.length; i++) {
+            if ((attributes & ATTRIBUTE_BITS[i]) != 0) {
+                score += ATTRIBUTE_SCORES[i];
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Reads a small integer from a file, returning -1 if the file cannot be
+     * read or does not contain an integer. The max_brightness file of an LED
+     * node is readable by all users, so root is not needed.
+     */
+    private static int readInt(String path) {
+        try {
+            final FileInputStream in = new FileInputStream(path);
+            try {
+                final byte[] buffer = new byte[16];
+                final int count = in.read(buffer);
+                if (count <= 0) {
+                    return -1;
+                }
+                final String text = new String(buffer, 0, count, "US-ASCII");
+                return Integer.parseInt(text.trim());
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            return -1;
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * An LED node that was discovered.
+     */
+    public static class Node {
+
+        private final String name;
+        private final int kind;
+        private final int score;
+        private final int attributes;
+        private final int maxBrightness;
+
+        private Node(String name, int kind, int score, int attributes,
+                int maxBrightness) {
+            this.name = name;
+            this.kind = kind;
+            this.score = score;
+            this.attributes = attributes;
+            this.maxBrightness = maxBrightness;
+        }
+
+        /**
+         * Returns the files that this node has.
+         *
+         * @return a combination of the ATTRIBUTE_ constants; always includes
+         * {@link #ATTRIBUTE_BRIGHTNESS}.
+         */
+        public int getAttributes() {
+            return this.attributes;
+        }
+
+        /**
+         * Returns the path of a file of this node.
+         *
+         * @param attribute the name of the file, such as "brightness".
+         * @return the path of the sysfs file, before mapping by the
+         * SysfsBackend.
+         * @throws NullPointerException if attribute==null.
+         */
+        public String getAttributePath(String attribute) {
+            if (attribute == null) {
+                throw new NullPointerException("attribute==null");
+            }
+            return this.getPath() + "/" + attribute;
+        }
+
+        /**
+         * Returns the kind of this node.
+         *
+         * @return one of the KIND_ constants.
+         */
+        public int getKind() {
+            return this.kind;
+        }
+
+        /**
+         * Returns the value of the max_brightness file of this node.
+         *
+         * @return the value of the max_brightness file, or -1 if this node
+         * does not have one or it could not be read.
+         */
+        public int getMaxBrightness() {
+            return this.maxBrightness;
+        }
+
+        /**
+         * Returns the name of this node, which is the name of its directory
+         * in {@link LedDiscovery#LEDS_DIR}.
+         *
+         * @return the name of this node; never returns null.
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Returns the path of the directory of this node.
+         *
+         * @return the path of the sysfs directory, before mapping by the
+         * SysfsBackend; never returns null.
+         */
+        public String getPath() {
+            return LEDS_DIR + "/" + this.name;
+        }
+
+        /**
+         * Returns the score of this node, which is higher the more likely
+         * that this node is of its kind.
+         *
+         * @return the score of this node; always greater than 0.
+         */
+        public int getScore() {
+            return this.score;
+        }
+    }
+
+    /**
+     * The result of discovery: the best node of each kind and some
+     * statistics about the work that was done to find them.
+     */
+    public static class Result {
+
+        private final Node[] nodes;
+        private final int nodeCount;
+        private final int listCount;
+        private final long nanos;
+
+        private Result(Node[] nodes, int nodeCount, int listCount, long nanos) {
+            this.nodes = nodes;
+            this.nodeCount = nodeCount;
+            this.listCount = listCount;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the number of nodes whose directories were listed, because
+         * their names looked like one of the kinds of node.
+         *
+         * @return the number of nodes whose directories were listed.
+         */
+        public int getListCount() {
+            return this.listCount;
+        }
+
+        /**
+         * Returns the number of nanoseconds that discovery took.
+         *
+         * @return the number of nanoseconds that discovery took.
+         */
+        public long getNanos() {
+            return this.nanos;
+        }
+
+        /**
+         * Returns the best node of a kind.
+         *
+         * @param kind one of the KIND_ constants.
+         * @return the best node of the given kind, or null if there is none.
+         * @throws ArrayIndexOutOfBoundsException if kind is not one of the
+         * KIND_ constants.
+         */
+        public Node getNode(int kind) {
+            return this.nodes[kind];
+        }
+
+        /**
+         * Returns the number of nodes in {@link LedDiscovery#LEDS_DIR}.
+         *
+         * @return the number of nodes in the directory, or 0 if it does not
+         * exist.
+         */
+        public int getNodeCount() {
+            return this.nodeCount;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper;
+
+/**
+ * A CapacitiveButtonsBacklightBrightness that sets the brightness of several
+ * LED nodes, such as the capacitive buttons backlight and the keyboard
+ * backlight, from one level change. The first of the nodes is the "primary"
+ * node, which determines whether the level is supported at all; the other
+ * nodes follow the level as best they can and are skipped for a "dim" level
+ * that they do not support.
+ * <p>
+ * {@link #set} writes the nodes in parallel: the primary node is written by
+ * the calling thread while the others are written by a small pool of worker
+ * threads that is shared by all instances, so that the time taken is that of
+ * the slowest node rather than the sum of all of them. Each node is written
+ * with its own {@link CapacitiveButtonsBacklightBrightness#set}, which holds
+ * the lock of that node and so keeps the writes to each node in order.
+ * <p>
+ * This class is thread safe.
+ */
+public class MultiLedBrightness extends CapacitiveButtonsBacklightBrightness {
+
+    /**
+     * The number of worker threads that write the non-primary nodes.
+     */
+    private static final int WORKER_THREAD_COUNT = 2;
+
+    /**
+     * The worker threads, or null if they have not yet been started. All
+     * access to this field must be done while synchronized on
+     * MultiLedBrightness.class.
+     */
+    private static ExecutorService executor;
+
+    private final CapacitiveButtonsBacklightBrightness[] nodes;
+
+    /**
+     * Creates a new MultiLedBrightness.
+     *
+     * @param nodes the objects that set the brightness of each node; the
+     * first is the primary node; must contain at least one element.
+     * @throws NullPointerException if nodes==null or any element of it is
+     * null.
+     * @throws IllegalArgumentException if nodes is empty.
+     */
+    public MultiLedBrightness(CapacitiveButtonsBacklightBrightness[] nodes) {
+        if (nodes == null) {
+            throw new NullPointerException("nodes==null");
+        } else if (nodes.length == 0) {
+            throw new IllegalArgumentException("nodes is empty");
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] == null) {
+                throw new NullPointerException("nodes[" + i + "]==null");
+            }
+        }
+        this.nodes = nodes.clone();
+    }
+
+    /**
+     * Returns the plan of the primary node; the plans of the other nodes are
+     * executed by their own objects.
+     */
+    protected WritePlan compilePlan(int level, int options)
+            throws DimBrightnessNotSupportedException {
+        return this.nodes[0].getPlan(level, options);
+    }
+
+    public FileInfo[] getDebugFiles() {
+        final List<FileInfo> files = new ArrayList<FileInfo>();
+        for (final CapacitiveButtonsBacklightBrightness node : this.nodes) {
+            for (final FileInfo file : node.getDebugFiles()) {
+                files.add(file);
+            }
+        }
+        final FileInfo[] array = new FileInfo[files.size()];
+        return files.toArray(array);
+    }
+
+    public int getDefaultDimLevel() {
+        return this.nodes[0].getDefaultDimLevel();
+    }
+
+    protected String[] getManagedFiles() {
+        return this.nodes[0].getManagedFiles();
+    }
+
+    public String getNodePath() {
+        return this.nodes[0].getNodePath();
+    }
+
+    /**
+     * Returns the objects that set the brightness of each node.
+     *
+     * @return a new array whose first element is the primary node.
+     */
+    public CapacitiveButtonsBacklightBrightness[] getNodes() {
+        return this.nodes.clone();
+    }
+
+    public String[] getRequiredDimFiles() {
+        return this.nodes[0].getRequiredDimFiles();
+    }
+
+    public String[] getRequiredFiles() {
+        return this.nodes[0].getRequiredFiles();
+    }
+
+    public void invalidatePlans() {
+        super.invalidatePlans();
+        for (final CapacitiveButtonsBacklightBrightness node : this.nodes) {
+            node.invalidatePlans();
+        }
+    }
+
+    public boolean isDimSupported() {
+        return this.nodes[0].isDimSupported();
+    }
+
+    public boolean isSupported() {
+        return this.nodes[0].isSupported();
+    }
+
+    /**
+     * Sets the brightness of every node in parallel, waiting for all of them
+     * to complete. If writing more than one node fails then the exception of
+     * the primary node, or else that of the first of the other nodes, is
+     * thrown.
+     */
+    public void set(int level, int options,
+            IntFileRootHelper.OperationNotifier notifier)
+            throws IntFileRootHelper.IntWriteException,
+            DimBrightnessNotSupportedException {
+        if (level < 0 || level > 100) {
+            throw new IllegalArgumentException("invalid level: " + level);
+        }
+        final boolean dim = (level != 0 && level != 100);
+        final CapacitiveButtonsBacklightBrightness[] nodes = this.nodes;
+
+        // fail before writing any node if the primary node does not support
+        // the level; the plan is cached, so this is cheap
+        nodes[0].getPlan(level, options);
+
+        final Future<?>[] futures = new Future<?>[nodes.length];
+        final ExecutorService executor = getExecutor();
+        for (int i = 1; i < nodes.length; i++) {
+            final CapacitiveButtonsBacklightBrightness node = nodes[i];
+            if (node.isSupported() && (!dim || node.isDimSupported())) {
+                futures[i] =
+                    executor.submit(new SetTask(node, level, options,
+                        notifier));
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            nodes[0].set(level, options, notifier);
+        } finally {
+            failure = waitForAll(futures);
+        }
+
+        if (failure instanceof IntFileRootHelper.IntWriteException) {
+            throw (IntFileRootHelper.IntWriteException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException("setting brightness failed", failure);
+        }
+    }
+
+    public void setDefault(IntFileRootHelper.OperationNotifier notifier)
+            throws IntFileRootHelper.IntWriteException {
+        for (final CapacitiveButtonsBacklightBrightness node : this.nodes) {
+            node.setDefault(notifier);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor =
+                Executors.newFixedThreadPool(WORKER_THREAD_COUNT,
+                    new WorkerThreadFactory());
+        }
+        return executor;
+    }
+
+    /**
+     * Waits for every non-null future to complete, without being interrupted,
+     * and returns the exception of the first one that failed, or null if none
+     * failed. If the calling thread is interrupted while waiting then it is
+     * interrupted again before returning.
+     */
+    private static Throwable waitForAll(Future<?>[] futures) {
+        boolean interrupted = false;
+        Throwable failure = null;
+        for (final Future<?> future : futures) {
+            if (future == null) {
+                continue;
+            }
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return failure;
+    }
+
+    /**
+     * Sets the brightness of a non-primary node on a worker thread.
+     */
+    private static class SetTask implements Callable<Void> {
+
+        private final CapacitiveButtonsBacklightBrightness node;
+        private final int level;
+        private final int options;
+        private final IntFileRootHelper.OperationNotifier notifier;
+
+        public SetTask(CapacitiveButtonsBacklightBrightness node, int level,
+                int options, IntFileRootHelper.OperationNotifier notifier) {
+            this.node = node;
+            this.level = level;
+            this.options = options;
+            this.notifier = notifier;
+        }
+
+        public Void call() throws Exception {
+            this.node.set(this.level, this.options, this.notifier);
+            return null;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "MultiLedBrightness");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
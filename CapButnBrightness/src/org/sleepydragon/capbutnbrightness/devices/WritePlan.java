@@ -0,0 +1,181 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.util.Arrays;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper;
+
+/**
+ * An immutable, ordered sequence of integer writes to files that sets the
+ * capacitive buttons brightness to a particular level, along with the files
+ * whose ownership and permissions must be managed while doing so. Devices
+ * compile a WritePlan once for each combination of level and options given to
+ * {@link CapacitiveButtonsBacklightBrightness#set}, doing all of the work that
+ * does not change from one call to the next (eg. checking which files exist
+ * and mapping their paths) up front, so that executing the plan is a walk over
+ * arrays.
+ * <p>
+ * WritePlan objects are created with a {@link Builder}.
+ */
+public class WritePlan {
+
+    /**
+     * A plan that performs no writes.
+     */
+    public static final WritePlan EMPTY = new Builder().build();
+
+    private final String[] paths;
+    private final int[] values;
+    private final String[] protectedPaths;
+
+    private WritePlan(String[] paths, int[] values, String[] protectedPaths) {
+        this.paths = paths;
+        this.values = values;
+        this.protectedPaths = protectedPaths;
+    }
+
+    /**
+     * Performs the writes of this plan. Before the writes, the ownership of
+     * the protected files is changed to the current process with a single
+     * request to the root shell, and afterwards they are made read-only, so
+     * that the OS does not change them. Failing to change the ownership or
+     * permissions of the protected files up front only logs a warning; the
+     * writes themselves change the ownership of each file as needed.
+     *
+     * @param intFile the IntFileRootHelper to use to write the files.
+     * @throws IntFileRootHelper.IntWriteException if any write fails.
+     * @throws NullPointerException if intFile==null.
+     */
+    public void execute(IntFileRootHelper intFile)
+            throws IntFileRootHelper.IntWriteException {
+        if (intFile == null) {
+            throw new NullPointerException("intFile==null");
+        }
+        if (this.paths.length == 0) {
+            return;
+        }
+        CapacitiveButtonsBacklightBrightness.ensureFilesOwned(intFile,
+            this.protectedPaths);
+        intFile.writeAll(this.paths, this.values, this.paths.length);
+        CapacitiveButtonsBacklightBrightness.makeFilesReadOnly(intFile,
+            this.protectedPaths);
+    }
+
+    /**
+     * Returns the number of writes that this plan performs.
+     *
+     * @return the number of writes that this plan performs.
+     */
+    public int getCount() {
+        return this.paths.length;
+    }
+
+    /**
+     * Returns the path of the file written by one of the writes of this plan.
+     *
+     * @param index the index of the write.
+     * @return the path of the file, as mapped by the SysfsBackend that was in
+     * use when the plan was compiled.
+     * @throws IndexOutOfBoundsException if index is not a valid index.
+     */
+    public String getPath(int index) {
+        return this.paths[index];
+    }
+
+    /**
+     * Returns the value written by one of the writes of this plan.
+     *
+     * @param index the index of the write.
+     * @return the value that is written.
+     * @throws IndexOutOfBoundsException if index is not a valid index.
+     */
+    public int getValue(int index) {
+        return this.values[index];
+    }
+
+    /**
+     * Builds {@link WritePlan} objects.
+     */
+    public static class Builder {
+
+        private String[] paths = new String[4];
+        private int[] values = new int[4];
+        private int count;
+        private String[] protectedPaths = new String[0];
+
+        /**
+         * Appends a write to the plan. If the write is identical to the write
+         * appended just before it (same path and same value) then it is
+         * dropped, since writing the same value to the same file twice in a
+         * row has no effect. Identical writes that are separated by another
+         * write are kept, because the other write may have caused the kernel
+         * to change the value (eg. writing brightness resets currents).
+         *
+         * @param path the path of the file to which to write.
+         * @param value the value to write.
+         * @return this object, for chaining.
+         * @throws NullPointerException if path==null.
+         */
+        public Builder add(String path, int value) {
+            if (path == null) {
+                throw new NullPointerException("path==null");
+            }
+            final int count = this.count;
+            if (count > 0 && this.values[count - 1] == value
+                && this.paths[count - 1].equals(path)) {
+                return this;
+            }
+            if (count == this.paths.length) {
+                this.paths = Arrays.copyOf(this.paths, count * 2);
+                this.values = Arrays.copyOf(this.values, count * 2);
+            }
+            this.paths[count] = path;
+            this.values[count] = value;
+            this.count = count + 1;
+            return this;
+        }
+
+        /**
+         * Creates a WritePlan from the writes added to this object.
+         *
+         * @return a new WritePlan; never returns null.
+         */
+        public WritePlan build() {
+            final String[] paths = Arrays.copyOf(this.paths, this.count);
+            final int[] values = Arrays.copyOf(this.values, this.count);
+            final String[] protectedPaths = this.protectedPaths.clone();
+            return new WritePlan(paths, values, protectedPaths);
+        }
+
+        /**
+         * Sets the files whose ownership is changed before the writes and
+         * which are made read-only after the writes.
+         *
+         * @param paths the paths of the files; the array is copied.
+         * @return this object, for chaining.
+         * @throws NullPointerException if paths==null.
+         */
+        public Builder setProtectedPaths(String[] paths) {
+            if (paths == null) {
+                throw new NullPointerException("paths==null");
+            }
+            this.protectedPaths = paths.clone();
+            return this;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accumulates statistics about the durations of one stage of an operation:
+ * the number of samples, their minimum, maximum and mean, and a histogram
+ * whose buckets are powers of two. Recording a sample only updates a few
+ * atomic values, so it does not allocate any memory or take any locks and can
+ * be done on performance-sensitive paths.
+ * <p>
+ * This class is thread safe; however, the statistics are not read atomically
+ * as a whole, so a reader may see a sample in some statistics and not others.
+ */
+public class LatencyStat {
+
+    /**
+     * The number of buckets in the histogram. Bucket i holds the samples whose
+     * duration in nanoseconds has i significant bits, that is, that are less
+     * than 2^i nanoseconds and at least 2^(i-1) nanoseconds. The last bucket
+     * also holds all longer samples.
+     */
+    public static final int BUCKET_COUNT = 40;
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxNanos = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Creates a new instance of LatencyStat.
+     *
+     * @param name the name of the stage whose durations are recorded.
+     * @throws NullPointerException if name==null.
+     */
+    public LatencyStat(String name) {
+        if (name == null) {
+            throw new NullPointerException("name==null");
+        }
+        this.name = name;
+    }
+
+    /**
+     * Returns the upper bound of a bucket of the histogram.
+     *
+     * @param bucket the index of the bucket.
+     * @return the number of nanoseconds that all samples in the bucket are
+     * less than, except for the last bucket, which has no upper bound.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        return (1L << bucket);
+    }
+
+    /**
+     * Returns the number of samples in a bucket of the histogram.
+     *
+     * @param bucket the index of the bucket.
+     * @return the number of samples in the bucket.
+     * @throws IndexOutOfBoundsException if bucket is negative or not less than
+     * {@link #BUCKET_COUNT}.
+     */
+    public long getBucketCount(int bucket) {
+        return this.buckets.get(bucket);
+    }
+
+    /**
+     * Returns the number of samples that have been recorded.
+     *
+     * @return the number of samples that have been recorded.
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Returns the longest duration that has been recorded.
+     *
+     * @return the longest duration, in nanoseconds, or 0 if no samples have
+     * been recorded.
+     */
+    public long getMaxNanos() {
+        final long max = this.maxNanos.get();
+        return (max == Long.MIN_VALUE) ? 0 : max;
+    }
+
+    /**
+     * Returns the mean of the durations that have been recorded.
+     *
+     * @return the mean duration, in nanoseconds, or 0 if no samples have been
+     * recorded.
+     */
+    public long getMeanNanos() {
+        final long count = this.count.get();
+        return (count == 0) ? 0 : (this.totalNanos.get() / count);
+    }
+
+    /**
+     * Returns the shortest duration that has been recorded.
+     *
+     * @return the shortest duration, in nanoseconds, or 0 if no samples have
+     * been recorded.
+     */
+    public long getMinNanos() {
+        final long min = this.minNanos.get();
+        return (min == Long.MAX_VALUE) ? 0 : min;
+    }
+
+    /**
+     * Returns the name of the stage whose durations are recorded.
+     *
+     * @return the name of the stage; never returns null.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Records the duration of one execution of the stage.
+     *
+     * @param nanos the duration, in nanoseconds; negative values, which may
+     * result from the clock being adjusted, are recorded as 0.
+     */
+    public void record(long nanos) {
+        final long value = (nanos < 0) ? 0 : nanos;
+        this.count.incrementAndGet();
+        this.totalNanos.addAndGet(value);
+
+        long min = this.minNanos.get();
+        while (value < min && !this.minNanos.compareAndSet(min, value)) {
+            min = this.minNanos.get();
+        }
+        long max = this.maxNanos.get();
+        while (value > max && !this.maxNanos.compareAndSet(max, value)) {
+            max = this.maxNanos.get();
+        }
+
+        final int bits = 64 - Long.numberOfLeadingZeros(value);
+        final int bucket = (bits < BUCKET_COUNT) ? bits : (BUCKET_COUNT - 1);
+        this.buckets.incrementAndGet(bucket);
+    }
+
+    /**
+     * Records the duration of an execution of the stage that started at the
+     * given time and ended now.
+     *
+     * @param startNanos the time at which the execution started, as returned
+     * from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+}
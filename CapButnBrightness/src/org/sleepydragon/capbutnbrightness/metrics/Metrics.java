@@ -0,0 +1,84 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.metrics;
+
+/**
+ * The registry of the {@link LatencyStat} objects that record how long each
+ * stage of setting the capacitive buttons brightness takes. The stats are
+ * shared by the entire process and are displayed by
+ * {@link org.sleepydragon.capbutnbrightness.debug.DebugActivity}.
+ * <p>
+ * A stage is recorded by getting the time with {@link System#nanoTime()}
+ * before it starts and invoking {@link LatencyStat#recordSince} once it
+ * completes, whether or not it completed successfully.
+ */
+public class Metrics {
+
+    /**
+     * The time taken to set the brightness, from the point of view of
+     * {@link org.sleepydragon.capbutnbrightness.SetBrightnessService}.
+     */
+    public static final LatencyStat SET_BRIGHTNESS = new LatencyStat(
+        "setBrightness");
+
+    /**
+     * The time taken to acquire the root shell, including opening it if
+     * necessary.
+     */
+    public static final LatencyStat ROOT_SHELL_ACQUIRE = new LatencyStat(
+        "rootShellAcquire");
+
+    /**
+     * The time taken to stat() a file to get its owner.
+     */
+    public static final LatencyStat GET_FILE_UID = new LatencyStat(
+        "getFileUID");
+
+    /**
+     * The time taken to chown one or more files as root.
+     */
+    public static final LatencyStat CHOWN = new LatencyStat("chown");
+
+    /**
+     * The time taken to chmod a file, not counting those that are skipped
+     * because the file is known to already have the desired permissions.
+     */
+    public static final LatencyStat CHMOD = new LatencyStat("chmod");
+
+    /**
+     * The time taken to write an integer to a file, including any changes to
+     * its owner and permissions, not counting writes that are skipped because
+     * the file already has the value.
+     */
+    public static final LatencyStat WRITE = new LatencyStat("write");
+
+    private static final LatencyStat[] ALL = { SET_BRIGHTNESS,
+        ROOT_SHELL_ACQUIRE, GET_FILE_UID, CHOWN, CHMOD, WRITE, };
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns all of the stats in the registry.
+     *
+     * @return a new array containing all of the stats in the registry; never
+     * returns null.
+     */
+    public static LatencyStat[] getAll() {
+        return ALL.clone();
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.sleepydragon.capbutnbrightness.Constants;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Traces how long it takes from the screen turning on until the saved
+ * capacitive buttons brightness has been written back, which is the latency
+ * that matters most since the OS writes its own value when the screen turns
+ * on. Each trace timestamps the hops of the screen-on path:
+ * <ol>
+ * <li>receive: the SCREEN_ON broadcast was received;</li>
+ * <li>plan: the level to write has been determined;</li>
+ * <li>lock: the write lock has been acquired (time spent here is spent
+ * queued behind other writers);</li>
+ * <li>write: each sysfs write completed, of which the first and last are
+ * kept.</li>
+ * </ol>
+ * <p>
+ * Completed traces are stored in a fixed-size ring buffer in a memory-mapped
+ * file, so that they survive the death of the process, and the oldest trace
+ * is overwritten once the buffer is full.
+ * <p>
+ * A trace is started with {@link #begin(long)} and completed with
+ * {@link #end()} on the same thread; the hops in between are recorded with
+ * {@link #markPlanned()}, {@link #markLocked()} and {@link #markWrites(int)},
+ * of which the latter is static so that the code doing the writes does not
+ * need a reference to the tracer. Recording a trace does not allocate any
+ * memory. This class is thread safe, although only one trace can be in
+ * progress at a time; a trace begun while another is in progress is ignored.
+ */
+public class ScreenOnTracer {
+
+    /**
+     * The name of the file, in the application's files directory, in which
+     * the traces are stored.
+     */
+    public static final String FILE_NAME = "screen_on_traces.bin";
+
+    /**
+     * The maximum number of traces that are stored.
+     */
+    public static final int CAPACITY = 128;
+
+    /**
+     * The index of the hop from receiving the broadcast to having planned the
+     * writes, for use with {@link Trace#getHopMicros}.
+     */
+    public static final int HOP_PLAN = 0;
+
+    /**
+     * The index of the hop from having planned the writes to having acquired
+     * the write lock.
+     */
+    public static final int HOP_LOCK = 1;
+
+    /**
+     * The index of the hop from having acquired the write lock to the first
+     * write completing.
+     */
+    public static final int HOP_FIRST_WRITE = 2;
+
+    /**
+     * The index of the hop from the first write completing to the last write
+     * completing.
+     */
+    public static final int HOP_LAST_WRITE = 3;
+
+    /**
+     * The number of hops.
+     */
+    public static final int HOP_COUNT = 4;
+
+    private static final int MAGIC = 0x43425354; // "CBST"
+    private static final int LAYOUT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 32;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_LAYOUT_VERSION = 4;
+    private static final int OFFSET_NEXT_INDEX = 8;
+    private static final int OFFSET_COUNT = 12;
+
+    /**
+     * The tracer that is shared by the entire process, or null if it has not
+     * yet been opened.
+     */
+    private static volatile ScreenOnTracer instance;
+
+    /**
+     * The tracer with a trace in progress, or null if no trace is in
+     * progress.
+     */
+    private static volatile ScreenOnTracer tracing;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * The thread that started the trace in progress, or null if no trace is
+     * in progress. This field may only be set while synchronized on this
+     * object; the fields that follow may only be accessed by this thread.
+     */
+    private volatile Thread tracingThread;
+    private long receiveNanos;
+    private long plannedNanos;
+    private long lockedNanos;
+    private long firstWriteNanos;
+    private long lastWriteNanos;
+    private int writeCount;
+
+    /**
+     * Creates a new instance of ScreenOnTracer.
+     *
+     * @param buffer the buffer in which to store the traces; must have a
+     * capacity of at least {@link #getSize()} bytes.
+     * @throws NullPointerException if buffer==null.
+     * @throws IllegalArgumentException if the buffer is too small.
+     */
+    ScreenOnTracer(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer==null");
+        } else if (buffer.capacity() < getSize()) {
+            throw new IllegalArgumentException("buffer too small: "
+                + buffer.capacity());
+        }
+        this.buffer = buffer;
+        if (buffer.getInt(OFFSET_MAGIC) != MAGIC
+            || buffer.getInt(OFFSET_LAYOUT_VERSION) != LAYOUT_VERSION) {
+            this.clear();
+        }
+    }
+
+    /**
+     * Returns the number of bytes required to store the traces.
+     *
+     * @return the number of bytes required to store the traces.
+     */
+    public static int getSize() {
+        return HEADER_SIZE + (CAPACITY * RECORD_SIZE);
+    }
+
+    /**
+     * Returns the ScreenOnTracer that is shared by the entire process, opening
+     * its file if this is the first time that it is used in this process. If
+     * the file cannot be opened then the traces are stored in memory instead.
+     *
+     * @param context the context whose files directory contains the file in
+     * which the traces are stored.
+     * @return the ScreenOnTracer that is shared by the entire process; never
+     * returns null.
+     * @throws NullPointerException if context==null.
+     */
+    public static ScreenOnTracer getInstance(Context context) {
+        if (context == null) {
+            throw new NullPointerException("context==null");
+        }
+        ScreenOnTracer tracer = instance;
+        if (tracer != null) {
+            return tracer;
+        }
+        synchronized (ScreenOnTracer.class) {
+            tracer = instance;
+            if (tracer == null) {
+                final File file = new File(context.getFilesDir(), FILE_NAME);
+                try {
+                    tracer = open(file);
+                } catch (final IOException e) {
+                    Log.w(Constants.LOG_TAG, "unable to open screen-on "
+                        + "traces: " + file, e);
+                    tracer = new ScreenOnTracer(ByteBuffer.allocate(getSize()));
+                }
+                instance = tracer;
+            }
+            return tracer;
+        }
+    }
+
+    /**
+     * Opens the given file, creating it if it does not exist, and maps it into
+     * memory.
+     *
+     * @param file the file to open.
+     * @return a new ScreenOnTracer that stores its traces in the given file;
+     * never returns null.
+     * @throws IOException if opening or mapping the file fails.
+     * @throws NullPointerException if file==null.
+     */
+    public static ScreenOnTracer open(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file==null");
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final int size = getSize();
+            if (raf.length() != size) {
+                raf.setLength(size);
+            }
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new ScreenOnTracer(buffer);
+        } finally {
+            // the mapping remains valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Starts a trace, using the current time as the time at which the
+     * SCREEN_ON broadcast was received. Does nothing if another trace is in
+     * progress.
+     *
+     * @return true if the trace was started, false if another trace is in
+     * progress.
+     */
+    public boolean begin() {
+        return this.begin(System.nanoTime());
+    }
+
+    /**
+     * Starts a trace. Does nothing if another trace is in progress.
+     *
+     * @param receiveNanos the System.nanoTime() at which the SCREEN_ON
+     * broadcast was received.
+     * @return true if the trace was started, false if another trace is in
+     * progress.
+     */
+    public boolean begin(long receiveNanos) {
+        synchronized (this) {
+            if (this.tracingThread != null) {
+                return false;
+            }
+            this.tracingThread = Thread.currentThread();
+        }
+        this.receiveNanos = receiveNanos;
+        this.plannedNanos = receiveNanos;
+        this.lockedNanos = receiveNanos;
+        this.firstWriteNanos = 0;
+        this.lastWriteNanos = 0;
+        this.writeCount = 0;
+        tracing = this;
+        return true;
+    }
+
+    /**
+     * Deletes all stored traces.
+     */
+    public synchronized void clear() {
+        final ByteBuffer buffer = this.buffer;
+        for (int i = 0; i < getSize(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_LAYOUT_VERSION, LAYOUT_VERSION);
+    }
+
+    /**
+     * Completes the trace that was started by the calling thread and stores
+     * it, if any writes were recorded. Does nothing if no trace was started by
+     * the calling thread.
+     */
+    public void end() {
+        if (this.tracingThread != Thread.currentThread()) {
+            return;
+        }
+        tracing = null;
+
+        if (this.writeCount > 0) {
+            final int planMicros =
+                toMicros(this.plannedNanos - this.receiveNanos);
+            final int lockMicros =
+                toMicros(this.lockedNanos - this.plannedNanos);
+            final int firstWriteMicros =
+                toMicros(this.firstWriteNanos - this.lockedNanos);
+            final int lastWriteMicros =
+                toMicros(this.lastWriteNanos - this.firstWriteNanos);
+            final int totalMicros =
+                toMicros(this.lastWriteNanos - this.receiveNanos);
+            this.store(System.currentTimeMillis(), planMicros, lockMicros,
+                firstWriteMicros, lastWriteMicros, totalMicros,
+                this.writeCount);
+        }
+
+        synchronized (this) {
+            this.tracingThread = null;
+        }
+    }
+
+    /**
+     * Records that the write lock has been acquired by the trace in progress.
+     * Must be invoked by the thread that started the trace.
+     */
+    public void markLocked() {
+        if (this.tracingThread == Thread.currentThread()) {
+            this.lockedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records that the writes to perform have been determined by the trace in
+     * progress. Must be invoked by the thread that started the trace.
+     */
+    public void markPlanned() {
+        if (this.tracingThread == Thread.currentThread()) {
+            final long now = System.nanoTime();
+            this.plannedNanos = now;
+            this.lockedNanos = now;
+        }
+    }
+
+    /**
+     * Records that writes have completed, if the calling thread is performing
+     * a trace; otherwise, does nothing. This is cheap enough to invoke after
+     * every write.
+     *
+     * @param count the number of writes that completed.
+     */
+    public static void markWrites(int count) {
+        final ScreenOnTracer tracer = tracing;
+        if (tracer == null || count <= 0
+            || tracer.tracingThread != Thread.currentThread()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (tracer.writeCount == 0) {
+            tracer.firstWriteNanos = now;
+        }
+        tracer.lastWriteNanos = now;
+        tracer.writeCount += count;
+    }
+
+    /**
+     * Returns the stored traces.
+     *
+     * @return a new array containing the stored traces, from oldest to newest;
+     * never returns null.
+     */
+    public synchronized Trace[] getTraces() {
+        final ByteBuffer buffer = this.buffer;
+        final int count = Math.min(buffer.getInt(OFFSET_COUNT), CAPACITY);
+        final int nextIndex = buffer.getInt(OFFSET_NEXT_INDEX);
+        final Trace[] traces = new Trace[count];
+        for (int i = 0; i < count; i++) {
+            final int index = (nextIndex - count + i + CAPACITY) % CAPACITY;
+            final int offset = HEADER_SIZE + (index * RECORD_SIZE);
+            final long wallTimeMillis = buffer.getLong(offset);
+            final int[] hopMicros = new int[HOP_COUNT];
+            for (int hop = 0; hop < HOP_COUNT; hop++) {
+                hopMicros[hop] = buffer.getInt(offset + 8 + (hop * 4));
+            }
+            final int totalMicros = buffer.getInt(offset + 24);
+            final int writeCount = buffer.getInt(offset + 28);
+            traces[i] =
+                new Trace(wallTimeMillis, hopMicros, totalMicros, writeCount);
+        }
+        return traces;
+    }
+
+    /**
+     * Returns a percentile of the total latencies of the stored traces.
+     *
+     * @param traces the traces, as returned from {@link #getTraces()}.
+     * @param percentile the percentile to return, between 0 and 100.
+     * @param hop the index of the hop whose latency to use (one of the HOP_
+     * constants), or -1 to use the total latency.
+     * @return the given percentile of the latencies, in microseconds, using
+     * the nearest-rank method, or -1 if traces is empty.
+     * @throws NullPointerException if traces==null.
+     */
+    public static int getPercentileMicros(Trace[] traces, int percentile,
+            int hop) {
+        if (traces.length == 0) {
+            return -1;
+        }
+        final int[] values = new int[traces.length];
+        for (int i = 0; i < traces.length; i++) {
+            final Trace trace = traces[i];
+            values[i] =
+                (hop < 0) ? trace.getTotalMicros() : trace.getHopMicros(hop);
+        }
+        Arrays.sort(values);
+        final int rank = (percentile * values.length + 99) / 100;
+        final int index = Math.max(0, Math.min(values.length - 1, rank - 1));
+        return values[index];
+    }
+
+    private synchronized void store(long wallTimeMillis, int planMicros,
+            int lockMicros, int firstWriteMicros, int lastWriteMicros,
+            int totalMicros, int writeCount) {
+        final ByteBuffer buffer = this.buffer;
+        final int index = buffer.getInt(OFFSET_NEXT_INDEX) % CAPACITY;
+        final int offset = HEADER_SIZE + (index * RECORD_SIZE);
+        buffer.putLong(offset, wallTimeMillis);
+        buffer.putInt(offset + 8, planMicros);
+        buffer.putInt(offset + 12, lockMicros);
+        buffer.putInt(offset + 16, firstWriteMicros);
+        buffer.putInt(offset + 20, lastWriteMicros);
+        buffer.putInt(offset + 24, totalMicros);
+        buffer.putInt(offset + 28, writeCount);
+        buffer.putInt(OFFSET_NEXT_INDEX, (index + 1) % CAPACITY);
+        final int count = buffer.getInt(OFFSET_COUNT);
+        if (count < CAPACITY) {
+            buffer.putInt(OFFSET_COUNT, count + 1);
+        }
+    }
+
+    private static int toMicros(long nanos) {
+        final long micros = nanos / 1000L;
+        if (micros < 0) {
+            return 0;
+        } else if (micros > Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) micros;
+    }
+
+    /**
+     * A stored trace.
+     */
+    public static class Trace {
+
+        private final long wallTimeMillis;
+        private final int[] hopMicros;
+        private final int totalMicros;
+        private final int writeCount;
+
+        Trace(long wallTimeMillis, int[] hopMicros, int totalMicros,
+                int writeCount) {
+            this.wallTimeMillis = wallTimeMillis;
+            this.hopMicros = hopMicros;
+            this.totalMicros = totalMicros;
+            this.writeCount = writeCount;
+        }
+
+        /**
+         * Returns the latency of one hop of the trace.
+         *
+         * @param hop the index of the hop; one of the HOP_ constants.
+         * @return the latency of the hop, in microseconds.
+         * @throws IndexOutOfBoundsException if hop is not a valid index.
+         */
+        public int getHopMicros(int hop) {
+            return this.hopMicros[hop];
+        }
+
+        /**
+         * Returns the latency from receiving the broadcast to the last write
+         * completing.
+         *
+         * @return the total latency, in microseconds.
+         */
+        public int getTotalMicros() {
+            return this.totalMicros;
+        }
+
+        /**
+         * Returns the time at which the trace completed.
+         *
+         * @return the time at which the trace completed, in milliseconds since
+         * the epoch.
+         */
+        public long getWallTimeMillis() {
+            return this.wallTimeMillis;
+        }
+
+        /**
+         * Returns the number of writes that completed during the trace.
+         *
+         * @return the number of writes.
+         */
+        public int getWriteCount() {
+            return this.writeCount;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import org.sleepydragon.capbutnbrightness.clib.CLib;
+import org.sleepydragon.capbutnbrightness.clib.ClibException;
+import org.sleepydragon.capbutnbrightness.clib.Stat;
+
+import android.os.Process;
+
+/**
+ * The {@link FileOperations} that is used on a device, which makes the system
+ * calls through the native library. The native library is only loaded once
+ * one of the operations is first invoked.
+ * <p>
+ * This class is thread safe.
+ */
+public class CLibFileOperations implements FileOperations {
+
+    /**
+     * The Stat object of each thread, re-used by {@link #stat} so that it does
+     * not allocate.
+     */
+    private final ThreadLocal<Stat> stats = new ThreadLocal<Stat>() {
+
+        @Override
+        protected Stat initialValue() {
+            return new Stat();
+        }
+    };
+
+    public int getProcessUid() {
+        return Process.myUid();
+    }
+
+    public void stat(String path, FileStatus status) throws ClibException {
+        if (status == null) {
+            throw new NullPointerException("status==null");
+        }
+        final Stat stat = this.stats.get();
+        CLib.stat(path, stat);
+        status.ino = stat.getIno();
+        status.ctime = stat.getCtime();
+        status.uid = stat.getUid();
+        status.mode = stat.getMode();
+    }
+
+    public void chmod(String path, int mode) throws ClibException {
+        CLib.chmod(path, mode);
+    }
+
+    public void writeIntProtected(String path, int value, int rwMode,
+            int roMode) throws ClibException {
+        CLib.writeIntProtected(path, value, rwMode, roMode);
+    }
+
+    public int applyBatch(String[] paths, int[] values, int count,
+            int[] errnos, int rwMode, int roMode) {
+        return CLib.applyBatch(paths, values, count, errnos, rwMode, roMode);
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.OperationNotifier;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateDeniedException;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateException;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateIOException;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateTimeoutException;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellNotRootedException;
+import org.sleepydragon.capbutnbrightness.metrics.Metrics;
+
+/**
+ * The {@link RootShellProvider} that is used on a device, which runs commands
+ * through a {@link RootCommandChannel} to a single "su" process. Commands from
+ * any number of threads can be in flight at once, and {@link #submit} returns
+ * as soon as the commands have been written to the shell.
+ * <p>
+ * The shell is opened the first time that it is needed and, like the shell of
+ * the {@link org.sleepydragon.capbutnbrightness.RootShellManager}, is closed
+ * once no commands have been submitted to it for the idle timeout, so that
+ * the su process does not linger forever. If the shell dies it is opened
+ * again the next time that commands are submitted. The time taken to get the
+ * shell, including opening it, is recorded in
+ * {@link Metrics#ROOT_SHELL_ACQUIRE}.
+ * <p>
+ * For testing without root, the shell can be any other shell, such as
+ * /bin/sh, in which case the check that the shell runs as root is skipped.
+ * <p>
+ * This class is thread safe.
+ */
+public class ChannelShellProvider implements RootShellProvider {
+
+    /**
+     * The default number of milliseconds that the shell is kept open after
+     * commands were last submitted to it.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * The number of milliseconds to wait for the shell to confirm that it
+     * runs as root, which includes the time taken by the user to answer the
+     * prompt of the su application.
+     */
+    private static final long OPEN_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * The text in the output of "id" if it runs as root.
+     */
+    private static final String ROOT_UID = "uid=0(";
+
+    /**
+     * The thread that closes idle shells, or null if it has not yet been
+     * started. All access to this field must be done while synchronized on
+     * ChannelShellProvider.class.
+     */
+    private static ScheduledExecutorService evictor;
+
+    private final String[] shellCommand;
+    private final boolean requireRoot;
+    private final long idleTimeoutMillis;
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger evictionCount = new AtomicInteger();
+    private final AtomicInteger submittedCount = new AtomicInteger();
+
+    /**
+     * The open channel, or null if there is none. All access to this field
+     * must be done while synchronized on this object.
+     */
+    private RootCommandChannel channel;
+
+    /**
+     * The scheduled task that will close the channel once it has been idle
+     * for long enough, or null if no such task is scheduled. All access to
+     * this field must be done while synchronized on this object.
+     */
+    private ScheduledFuture<?> pendingEviction;
+
+    /**
+     * Creates a new ChannelShellProvider that runs commands in "su".
+     */
+    public ChannelShellProvider() {
+        this(new String[] { "su" }, true, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a new ChannelShellProvider.
+     *
+     * @param shellCommand the command line of the shell in which to run
+     * commands.
+     * @param requireRoot whether or not to verify that the shell runs as root
+     * when it is opened.
+     * @param idleTimeoutMillis the number of milliseconds to keep the shell
+     * open after commands were last submitted to it.
+     * @throws NullPointerException if shellCommand==null.
+     * @throws IllegalArgumentException if idleTimeoutMillis is not positive.
+     */
+    public ChannelShellProvider(String[] shellCommand, boolean requireRoot,
+            long idleTimeoutMillis) {
+        if (shellCommand == null) {
+            throw new NullPointerException("shellCommand==null");
+        } else if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("invalid idleTimeoutMillis: "
+                + idleTimeoutMillis);
+        }
+        this.shellCommand = shellCommand.clone();
+        this.requireRoot = requireRoot;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Returns the number of times that an idle shell has been closed.
+     *
+     * @return the number of idle shells closed.
+     */
+    public int getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Returns the number of times that commands were submitted to a shell that
+     * was already open.
+     *
+     * @return the number of submissions that did not need to open a shell.
+     */
+    public int getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of batches of commands that are in flight in the
+     * current shell.
+     *
+     * @return the number of batches of commands in flight.
+     */
+    public synchronized int getInFlightCount() {
+        return (this.channel == null) ? 0 : this.channel.getInFlightCount();
+    }
+
+    /**
+     * Returns the number of times that a shell needed to be opened in order to
+     * submit commands, whether or not opening it was successful.
+     *
+     * @return the number of submissions that needed to open a shell.
+     */
+    public int getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Returns the number of times that a shell has been opened.
+     *
+     * @return the number of shells opened.
+     */
+    public int getOpenCount() {
+        return this.openCount.get();
+    }
+
+    /**
+     * Returns the number of batches of commands that have been submitted.
+     *
+     * @return the number of batches of commands submitted.
+     */
+    public int getSubmittedCount() {
+        return this.submittedCount.get();
+    }
+
+    public String run(String[] commandLines, OperationNotifier notifier)
+            throws RootShellCreateException, IOException, InterruptedException {
+        final Future<String> future = this.submit(commandLines, notifier);
+        try {
+            return future.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(String.valueOf(cause));
+        }
+    }
+
+    public Future<String> submit(String[] commandLines,
+            OperationNotifier notifier) throws RootShellCreateException,
+            IOException {
+        if (commandLines == null) {
+            throw new NullPointerException("commandLines==null");
+        }
+
+        // the shell is kept open for a while so it may have died since it was
+        // last used, in which case a fresh shell is opened and the submission
+        // is attempted once more
+        RootCommandChannel channel = this.acquireChannel(notifier);
+        Future<String> future;
+        try {
+            future = channel.submit(commandLines);
+        } catch (final IOException e) {
+            this.discardChannel(channel);
+            channel = this.acquireChannel(notifier);
+            try {
+                future = channel.submit(commandLines);
+            } catch (final IOException e2) {
+                this.discardChannel(channel);
+                throw e2;
+            }
+        }
+        this.submittedCount.incrementAndGet();
+        return future;
+    }
+
+    /**
+     * Returns the open channel, opening one if necessary, and schedules it to
+     * be closed once it has been idle for long enough.
+     */
+    private RootCommandChannel acquireChannel(OperationNotifier notifier)
+            throws RootShellCreateException {
+        final long startNanos = System.nanoTime();
+        try {
+            return this.acquireOpenChannel(notifier);
+        } finally {
+            Metrics.ROOT_SHELL_ACQUIRE.recordSince(startNanos);
+        }
+    }
+
+    private synchronized RootCommandChannel acquireOpenChannel(
+            OperationNotifier notifier) throws RootShellCreateException {
+        if (this.channel != null && !this.channel.isClosed()) {
+            this.hitCount.incrementAndGet();
+        } else {
+            this.missCount.incrementAndGet();
+            this.channel = this.openChannel(notifier);
+            this.openCount.incrementAndGet();
+        }
+
+        if (this.pendingEviction != null) {
+            this.pendingEviction.cancel(false);
+        }
+        this.pendingEviction =
+            getEvictor().schedule(new EvictRunnable(), this.idleTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+        return this.channel;
+    }
+
+    private synchronized void discardChannel(RootCommandChannel channel) {
+        channel.close();
+        if (this.channel == channel) {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Closes the channel if it is idle, or schedules another check if commands
+     * are still in flight.
+     */
+    private synchronized void evict() {
+        final RootCommandChannel channel = this.channel;
+        this.pendingEviction = null;
+        if (channel == null) {
+            return;
+        } else if (channel.getInFlightCount() > 0) {
+            this.pendingEviction =
+                getEvictor().schedule(new EvictRunnable(),
+                    this.idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        channel.close();
+        this.channel = null;
+        this.evictionCount.incrementAndGet();
+    }
+
+    private RootCommandChannel openChannel(OperationNotifier notifier)
+            throws RootShellCreateException {
+        if (notifier != null) {
+            notifier.rootRequestStarted();
+        }
+        try {
+            final RootCommandChannel channel;
+            try {
+                channel = new RootCommandChannel(this.shellCommand);
+            } catch (final IOException e) {
+                throw new RootShellCreateIOException(
+                    "starting shell failed: " + e.getMessage());
+            }
+            if (this.requireRoot) {
+                verifyRoot(channel);
+            }
+            return channel;
+        } finally {
+            if (notifier != null) {
+                notifier.rootRequestCompleted();
+            }
+        }
+    }
+
+    /**
+     * Verifies that a newly-opened channel runs commands as root, closing it
+     * if it does not.
+     */
+    private static void verifyRoot(RootCommandChannel channel)
+            throws RootShellCreateException {
+        boolean verified = false;
+        try {
+            final String output =
+                channel.submit("id").get(OPEN_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            if (output.indexOf(ROOT_UID) < 0) {
+                throw new RootShellNotRootedException(
+                    "device needs to be rooted: " + output.trim());
+            }
+            verified = true;
+        } catch (final IOException e) {
+            throw new RootShellCreateIOException(e.getMessage());
+        } catch (final ExecutionException e) {
+            // su exits without running any commands if root is denied
+            throw new RootShellCreateDeniedException(String.valueOf(e
+                .getCause()));
+        } catch (final TimeoutException e) {
+            throw new RootShellCreateTimeoutException(
+                "timeout waiting for root shell");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RootShellCreateIOException(
+                "interrupted waiting for root shell");
+        } finally {
+            if (!verified) {
+                channel.close();
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getEvictor() {
+        if (evictor == null) {
+            evictor =
+                Executors.newSingleThreadScheduledExecutor(
+                    new EvictorThreadFactory());
+        }
+        return evictor;
+    }
+
+    private class EvictRunnable implements Runnable {
+
+        public void run() {
+            ChannelShellProvider.this.evict();
+        }
+    }
+
+    private static class EvictorThreadFactory implements ThreadFactory {
+
+        public Thread newThread(Runnable runnable) {
+            final Thread thread =
+                new Thread(runnable, "ChannelShellEvictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
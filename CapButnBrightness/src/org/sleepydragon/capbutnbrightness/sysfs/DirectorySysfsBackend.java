@@ -0,0 +1,116 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link SysfsBackend} whose files are ordinary files in a directory, with
+ * the same relative layout as in sysfs. For example, with the root directory
+ * /dev/shm/sysfs the file /sys/class/leds/button-backlight/brightness is backed
+ * by /dev/shm/sysfs/sys/class/leds/button-backlight/brightness. Using a
+ * directory on a tmpfs file system, such as /dev/shm, keeps the cost of file
+ * operations close to that of real sysfs files.
+ * <p>
+ * This class is thread safe.
+ */
+public class DirectorySysfsBackend implements SysfsBackend {
+
+    private final File root;
+    private final Map<String, String> paths = new HashMap<String, String>();
+
+    /**
+     * Creates a new instance of DirectorySysfsBackend.
+     *
+     * @param root the directory in which the files live; it does not need to
+     * exist yet.
+     * @throws NullPointerException if root==null.
+     */
+    public DirectorySysfsBackend(File root) {
+        if (root == null) {
+            throw new NullPointerException("root==null");
+        }
+        this.root = root;
+    }
+
+    /**
+     * Creates or replaces the file that backs a sysfs file, creating parent
+     * directories as needed.
+     *
+     * @param path the absolute path of the sysfs file.
+     * @param value the integer value to store into the file.
+     * @return the file that was created.
+     * @throws IOException if creating the file fails.
+     * @throws NullPointerException if path==null.
+     */
+    public File createFile(String path, int value) throws IOException {
+        final File file = new File(this.getPath(path));
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("unable to create directory: " + dir);
+        }
+
+        // the file may have been left read-only by a previous write
+        if (file.exists() && !file.delete()) {
+            throw new IOException("unable to delete file: " + file);
+        }
+
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write((value + "\n").getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Returns the path of the file in the root directory that backs a sysfs
+     * file.
+     *
+     * @param path the absolute path of the sysfs file.
+     * @return the path of the file in the root directory; the same String
+     * object is returned for every invocation with an equal path.
+     * @throws NullPointerException if path==null.
+     */
+    public String getPath(String path) {
+        if (path == null) {
+            throw new NullPointerException("path==null");
+        }
+        synchronized (this.paths) {
+            String mappedPath = this.paths.get(path);
+            if (mappedPath == null) {
+                mappedPath = new File(this.root, path).getPath();
+                this.paths.put(path, mappedPath);
+            }
+            return mappedPath;
+        }
+    }
+
+    /**
+     * Returns the directory in which the files live.
+     *
+     * @return the directory that was specified to the constructor.
+     */
+    public File getRoot() {
+        return this.root;
+    }
+}
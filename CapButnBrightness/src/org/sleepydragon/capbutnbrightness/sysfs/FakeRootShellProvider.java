@@ -0,0 +1,146 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.OperationNotifier;
+
+/**
+ * A {@link RootShellProvider} that runs commands in an ordinary, non-root
+ * /bin/sh after a configurable delay that simulates the latency of a root
+ * shell. This is intended to be used together with a
+ * {@link DirectorySysfsBackend} whose files are owned by the current user, so
+ * that the chown commands run by IntFileRootHelper succeed without root.
+ * {@link #submit} runs the commands before returning.
+ * <p>
+ * This class is thread safe.
+ */
+public class FakeRootShellProvider implements RootShellProvider {
+
+    /**
+     * The task of the already-complete futures returned from submit().
+     */
+    private static final Runnable NO_OP = new Runnable() {
+
+        public void run() {
+        }
+    };
+
+    private final long latencyMillis;
+    private final AtomicInteger runCount = new AtomicInteger();
+
+    /**
+     * Creates a new instance of FakeRootShellProvider.
+     *
+     * @param latencyMillis the number of milliseconds to sleep before running
+     * each batch of commands, to simulate the latency of a root shell; may be
+     * zero.
+     * @throws IllegalArgumentException if latencyMillis is negative.
+     */
+    public FakeRootShellProvider(long latencyMillis) {
+        if (latencyMillis < 0) {
+            throw new IllegalArgumentException("invalid latencyMillis: "
+                + latencyMillis);
+        }
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Returns the latency that was specified to the constructor.
+     *
+     * @return the number of milliseconds that each batch of commands is
+     * delayed by.
+     */
+    public long getLatencyMillis() {
+        return this.latencyMillis;
+    }
+
+    /**
+     * Returns the number of times that {@link #run} has been invoked,
+     * including by {@link #submit}.
+     *
+     * @return the number of batches of commands run.
+     */
+    public int getRunCount() {
+        return this.runCount.get();
+    }
+
+    public String run(String[] commandLines, OperationNotifier notifier)
+            throws IOException, InterruptedException {
+        if (commandLines == null) {
+            throw new NullPointerException("commandLines==null");
+        }
+        this.runCount.incrementAndGet();
+
+        if (this.latencyMillis > 0) {
+            Thread.sleep(this.latencyMillis);
+        }
+
+        final StringBuilder script = new StringBuilder();
+        for (final String commandLine : commandLines) {
+            script.append(commandLine).append('\n');
+        }
+
+        final ProcessBuilder builder =
+            new ProcessBuilder("/bin/sh", "-c", script.toString());
+        builder.redirectErrorStream(true);
+        final Process process = builder.start();
+        try {
+            process.getOutputStream().close();
+            final String output = readFully(process.getInputStream());
+            process.waitFor();
+            return output;
+        } finally {
+            process.destroy();
+        }
+    }
+
+    public Future<String> submit(String[] commandLines,
+            OperationNotifier notifier) throws IOException {
+        final String output;
+        try {
+            output = this.run(commandLines, notifier);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted running commands");
+        }
+        final FutureTask<String> future =
+            new FutureTask<String>(NO_OP, output);
+        future.run();
+        return future;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        while (true) {
+            final int count = in.read(buffer);
+            if (count < 0) {
+                break;
+            }
+            out.write(buffer, 0, count);
+        }
+        return out.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import org.sleepydragon.capbutnbrightness.clib.ClibException;
+
+/**
+ * The operating system calls that IntFileRootHelper makes on the files that it
+ * writes and on the current process: getting the UID of the process, stat()
+ * and chmod() of a file, and the native helpers that write integers to files.
+ * On a device these are provided by the native library and android.os.Process
+ * (see {@link CLibFileOperations}); elsewhere, such as when benchmarking on a
+ * plain Linux JVM, they can be emulated in Java (see
+ * {@link JavaFileOperations}).
+ * <p>
+ * Errors are reported with a {@link ClibException} whose errno is that of the
+ * failed system call; the errno values that IntFileRootHelper checks for are
+ * given by the constants of this interface, which are the same on every Linux
+ * architecture and do not need the native library to be loaded.
+ * <p>
+ * The FileOperations in use is returned from
+ * {@link SysfsEnvironment#getFileOperations()}. Implementations must be thread
+ * safe.
+ */
+public interface FileOperations {
+
+    /**
+     * The errno of an operation that is not permitted.
+     */
+    public static final int EPERM = 1;
+
+    /**
+     * The errno of a file that does not exist.
+     */
+    public static final int ENOENT = 2;
+
+    /**
+     * The errno of a failed read or write.
+     */
+    public static final int EIO = 5;
+
+    /**
+     * The errno of an access that is denied by the permissions of a file.
+     */
+    public static final int EACCES = 13;
+
+    /**
+     * Returns the UID of the current process.
+     *
+     * @return the UID of the current process.
+     */
+    public int getProcessUid();
+
+    /**
+     * Gets the inode number, change time, owner and mode of a file, like
+     * stat().
+     *
+     * @param path the path of the file.
+     * @param status the object into which to store the status of the file.
+     * @throws ClibException if getting the status of the file fails.
+     * @throws NullPointerException if path==null or status==null.
+     */
+    public void stat(String path, FileStatus status) throws ClibException;
+
+    /**
+     * Changes the permissions of a file, like chmod().
+     *
+     * @param path the path of the file.
+     * @param mode the new permission bits of the file.
+     * @throws ClibException if changing the permissions fails.
+     * @throws NullPointerException if path==null.
+     */
+    public void chmod(String path, int mode) throws ClibException;
+
+    /**
+     * Makes a file writable, writes an integer followed by a newline to it,
+     * and makes it read-only again.
+     *
+     * @param path the path of the file.
+     * @param value the integer value to write.
+     * @param rwMode the permissions that the file has while it is written.
+     * @param roMode the permissions that the file has once it is written.
+     * @throws ClibException if changing the permissions or writing fails.
+     * @throws UnsatisfiedLinkError if the implementation relies on a native
+     * library that is too old to provide this operation.
+     * @throws NullPointerException if path==null.
+     */
+    public void writeIntProtected(String path, int value, int rwMode,
+            int roMode) throws ClibException;
+
+    /**
+     * Performs a sequence of {@link #writeIntProtected} operations in order,
+     * stopping at the first one that fails.
+     *
+     * @param paths the paths of the files to which to write.
+     * @param values the integer values to write to the files.
+     * @param count the number of writes to perform.
+     * @param errnos the array into which to store the errno of each write
+     * that was attempted, or 0 for those that were successful.
+     * @param rwMode the permissions that the files have while they are
+     * written.
+     * @param roMode the permissions that the files have once they are
+     * written.
+     * @return the index of the write that failed, or count if all writes were
+     * successful.
+     * @throws UnsatisfiedLinkError if the implementation relies on a native
+     * library that is too old to provide this operation.
+     */
+    public int applyBatch(String[] paths, int[] values, int count,
+            int[] errnos, int rwMode, int roMode);
+}
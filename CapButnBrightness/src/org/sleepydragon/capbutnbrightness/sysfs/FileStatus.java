@@ -0,0 +1,46 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+/**
+ * The status of a file, as returned from {@link FileOperations#stat}. An
+ * instance can be re-used for any number of calls to stat(), so that getting
+ * the status of a file does not allocate.
+ */
+public class FileStatus {
+
+    /**
+     * The inode number of the file.
+     */
+    public long ino;
+
+    /**
+     * The time of the last change to the status of the file, in seconds since
+     * the epoch.
+     */
+    public long ctime;
+
+    /**
+     * The UID of the owner of the file.
+     */
+    public long uid;
+
+    /**
+     * The mode of the file, including the permission bits.
+     */
+    public long mode;
+}
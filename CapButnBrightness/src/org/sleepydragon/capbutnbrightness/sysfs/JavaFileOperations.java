@@ -0,0 +1,188 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.sleepydragon.capbutnbrightness.clib.ClibException;
+
+/**
+ * A {@link FileOperations} that emulates the system calls with java.io.File,
+ * so that IntFileRootHelper can run on a plain Linux JVM, without the native
+ * library or android.os.Process. This is intended to be used together with a
+ * {@link DirectorySysfsBackend} and a {@link FakeRootShellProvider}.
+ * <p>
+ * Plain Java cannot get the owner of a file, so {@link #stat} reports every
+ * file as owned by the UID given to the constructor. Reporting the files as
+ * owned by root, as the real sysfs files are after the device boots, makes
+ * IntFileRootHelper change their ownership through the RootShellProvider
+ * whenever it has no cached ownership for them, so that the latency of the
+ * root shell is part of the measurements; the chown commands succeed in an
+ * ordinary shell because they give the files to the current user, who
+ * already owns them. Only the owner permission bits are changed by
+ * {@link #chmod}, and the inode number is always reported as 0.
+ * <p>
+ * This class is thread safe.
+ */
+public class JavaFileOperations implements FileOperations {
+
+    /**
+     * The UID of root, which is the owner of the real sysfs files.
+     */
+    public static final int ROOT_UID = 0;
+
+    private static final int S_IFREG = 0100000;
+    private static final int S_IRUSR = 0400;
+    private static final int S_IWUSR = 0200;
+    private static final int S_IRGRP_IROTH = 0044;
+
+    private final int fileUid;
+
+    /**
+     * The UID of the current process, or -1 if it has not yet been
+     * determined. All access to this field must be done while synchronized on
+     * this object.
+     */
+    private int processUid = -1;
+
+    /**
+     * Creates a new instance of JavaFileOperations.
+     *
+     * @param fileUid the UID to report as the owner of every file, such as
+     * {@link #ROOT_UID}, or {@link #getProcessUid()} to never change the
+     * ownership of files.
+     */
+    public JavaFileOperations(int fileUid) {
+        this.fileUid = fileUid;
+    }
+
+    /**
+     * Returns the UID of the current process, which is determined by running
+     * "id -u" the first time that it is needed.
+     *
+     * @return the UID of the current process.
+     * @throws IllegalStateException if running "id -u" fails.
+     */
+    public synchronized int getProcessUid() {
+        if (this.processUid < 0) {
+            this.processUid = runIdCommand();
+        }
+        return this.processUid;
+    }
+
+    public void stat(String path, FileStatus status) throws ClibException {
+        if (status == null) {
+            throw new NullPointerException("status==null");
+        }
+        final File file = new File(path);
+        final long lastModified = file.lastModified();
+        if (lastModified == 0 && !file.exists()) {
+            throw new ClibException("stat failed: " + path, ENOENT);
+        }
+        int mode = S_IFREG | S_IRGRP_IROTH;
+        if (file.canRead()) {
+            mode |= S_IRUSR;
+        }
+        if (file.canWrite()) {
+            mode |= S_IWUSR;
+        }
+        status.ino = 0;
+        status.ctime = lastModified / 1000;
+        status.uid = this.fileUid;
+        status.mode = mode;
+    }
+
+    public void chmod(String path, int mode) throws ClibException {
+        final File file = new File(path);
+        if (!file.setReadable((mode & S_IRUSR) != 0, true)
+            || !file.setWritable((mode & S_IWUSR) != 0, true)) {
+            final int errno = file.exists() ? EPERM : ENOENT;
+            throw new ClibException("chmod failed: " + path, errno);
+        }
+    }
+
+    public void writeIntProtected(String path, int value, int rwMode,
+            int roMode) throws ClibException {
+        this.chmod(path, rwMode);
+        try {
+            final FileOutputStream out = new FileOutputStream(path);
+            try {
+                out.write((value + "\n").getBytes("US-ASCII"));
+            } finally {
+                out.close();
+            }
+        } catch (final IOException e) {
+            throw new ClibException(e.getMessage(), EIO);
+        } finally {
+            this.chmod(path, roMode);
+        }
+    }
+
+    public int applyBatch(String[] paths, int[] values, int count,
+            int[] errnos, int rwMode, int roMode) {
+        for (int i = 0; i < count; i++) {
+            try {
+                this.writeIntProtected(paths[i], values[i], rwMode, roMode);
+            } catch (final ClibException e) {
+                errnos[i] = e.getErrno();
+                return i;
+            }
+            errnos[i] = 0;
+        }
+        return count;
+    }
+
+    private static int runIdCommand() {
+        try {
+            final Process process =
+                new ProcessBuilder("id", "-u").redirectErrorStream(true)
+                    .start();
+            try {
+                process.getOutputStream().close();
+                final String output = readFully(process.getInputStream());
+                process.waitFor();
+                return Integer.parseInt(output.trim());
+            } finally {
+                process.destroy();
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("running id failed: " + e);
+        } catch (final NumberFormatException e) {
+            throw new IllegalStateException("invalid output of id: " + e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted running id");
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[64];
+        while (true) {
+            final int count = in.read(buffer);
+            if (count < 0) {
+                break;
+            }
+            out.write(buffer, 0, count);
+        }
+        return out.toString("US-ASCII");
+    }
+}
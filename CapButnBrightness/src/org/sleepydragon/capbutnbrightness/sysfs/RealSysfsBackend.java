@@ -0,0 +1,38 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+/**
+ * The {@link SysfsBackend} that is used on a device, which uses the real sysfs
+ * files.
+ */
+public class RealSysfsBackend implements SysfsBackend {
+
+    /**
+     * Returns the given path, unmodified.
+     *
+     * @param path the absolute path of the sysfs file.
+     * @return the given path.
+     * @throws NullPointerException if path==null.
+     */
+    public String getPath(String path) {
+        if (path == null) {
+            throw new NullPointerException("path==null");
+        }
+        return path;
+    }
+}
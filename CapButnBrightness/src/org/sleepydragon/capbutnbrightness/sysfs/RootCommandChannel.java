@@ -0,0 +1,352 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A channel to a long-lived shell process, such as "su", through which
+ * commands are sent without waiting for earlier commands to complete.
+ * <p>
+ * Each batch of commands given to {@link #submit} is written to the standard
+ * input of the shell as a "frame": the commands, grouped so that their
+ * standard input is /dev/null and their standard error is merged into their
+ * standard output, followed by a command that prints a marker line containing
+ * the ID of the frame. A single reader thread collects the output of the shell
+ * and, on each marker line, completes the future of the frame with the output
+ * that preceded it. The shell runs the frames in the order that they were
+ * written, but callers never wait for each other: any number of frames can be
+ * in flight at once, and each caller waits only for its own future.
+ * <p>
+ * Frame IDs come from an atomic counter and pending frames are kept in a
+ * concurrent map, so the only lock is the one that keeps frames from being
+ * interleaved as they are written to the shell.
+ * <p>
+ * If the shell exits, or the channel is closed, the futures of all frames that
+ * have not completed fail with an IOException.
+ * <p>
+ * This class is thread safe.
+ */
+public class RootCommandChannel {
+
+    /**
+     * The prefix of the marker line that ends the output of each frame.
+     */
+    private static final String FRAME_MARKER = "CapButnFrame ";
+
+    private final Process process;
+    private final Writer writer;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger submittedCount = new AtomicInteger();
+    private final Map<Integer, PendingFrame> pending =
+        new ConcurrentHashMap<Integer, PendingFrame>();
+
+    /**
+     * Whether or not the channel has been closed or the shell has exited.
+     * Writing to this field must be done while synchronized on writer.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new RootCommandChannel by starting a shell process.
+     *
+     * @param command the command line of the shell, such as { "su" } or, when
+     * testing without root, { "/bin/sh" }.
+     * @throws IOException if starting the shell fails.
+     * @throws NullPointerException if command==null or any element of it is
+     * null.
+     */
+    public RootCommandChannel(String... command) throws IOException {
+        if (command == null) {
+            throw new NullPointerException("command==null");
+        }
+        final ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        this.process = builder.start();
+        this.writer =
+            new OutputStreamWriter(this.process.getOutputStream(), "UTF-8");
+
+        final Thread thread =
+            new Thread(new ReadRunnable(), "RootCommandChannel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Closes the channel, terminating the shell. The futures of frames that
+     * have not completed fail with an IOException. Does nothing if the
+     * channel is already closed.
+     */
+    public void close() {
+        synchronized (this.writer) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                this.writer.write("exit\n");
+                this.writer.close();
+            } catch (final IOException e) {
+                // the shell has already gone away
+            }
+        }
+        this.process.destroy();
+        this.failPending("channel closed");
+    }
+
+    /**
+     * Returns the number of frames that have been submitted but have not yet
+     * completed.
+     *
+     * @return the number of frames in flight.
+     */
+    public int getInFlightCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * Returns the number of frames that have been submitted.
+     *
+     * @return the number of frames submitted.
+     */
+    public int getSubmittedCount() {
+        return this.submittedCount.get();
+    }
+
+    /**
+     * Returns whether or not this channel has been closed or its shell has
+     * exited, in which case no more frames can be submitted.
+     *
+     * @return true if the channel is closed, false otherwise.
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Sends commands to the shell as one frame, without waiting for them or
+     * for any earlier frames to complete.
+     *
+     * @param commandLines the shell command lines to run, in order; each must
+     * be a complete command, since an unterminated quote or compound command
+     * would swallow the frames that follow it.
+     * @return a future that completes with the combined standard output and
+     * standard error of the commands, or fails with an IOException if the
+     * shell exits or the channel is closed first; never returns null.
+     * @throws IOException if this channel is closed or writing to the shell
+     * fails.
+     * @throws NullPointerException if commandLines==null or any element of it
+     * is null.
+     */
+    public Future<String> submit(String... commandLines) throws IOException {
+        if (commandLines == null) {
+            throw new NullPointerException("commandLines==null");
+        }
+        final int id = this.nextId.getAndIncrement() & Integer.MAX_VALUE;
+        final StringBuilder frame = new StringBuilder();
+        frame.append("{\n");
+        for (final String commandLine : commandLines) {
+            if (commandLine == null) {
+                throw new NullPointerException("commandLines contains null");
+            }
+            frame.append(commandLine).append('\n');
+        }
+        if (commandLines.length == 0) {
+            frame.append(":\n"); // an empty group is a syntax error
+        }
+        frame.append("} </dev/null 2>&1\n");
+        frame.append("printf '\\n").append(FRAME_MARKER).append("%d\\n' ")
+            .append(id).append('\n');
+
+        // register the frame before writing it, since the shell may complete
+        // it before write() returns
+        final PendingFrame pendingFrame = new PendingFrame();
+        this.pending.put(id, pendingFrame);
+        try {
+            synchronized (this.writer) {
+                if (this.closed) {
+                    throw new IOException("channel closed");
+                }
+                this.writer.write(frame.toString());
+                this.writer.flush();
+            }
+        } catch (final IOException e) {
+            this.pending.remove(id);
+            throw e;
+        }
+        this.submittedCount.incrementAndGet();
+        return pendingFrame;
+    }
+
+    private void failPending(String message) {
+        final Iterator<PendingFrame> iterator =
+            this.pending.values().iterator();
+        while (iterator.hasNext()) {
+            final PendingFrame frame = iterator.next();
+            iterator.remove();
+            frame.fail(new IOException(message));
+        }
+    }
+
+    /**
+     * Reads the output of the shell and completes each frame as its marker
+     * line is read, until the shell exits.
+     */
+    private void readOutput() {
+        final StringBuilder output = new StringBuilder();
+        try {
+            final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(
+                    this.process.getInputStream(), "UTF-8"));
+            while (true) {
+                final String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                final int id = parseMarker(line);
+                if (id < 0) {
+                    output.append(line).append('\n');
+                    continue;
+                }
+
+                // the marker is printed after a newline so that it starts a
+                // line even if the output of the commands does not end with
+                // one; that newline is not part of the output
+                final int length = output.length();
+                if (length > 0) {
+                    output.setLength(length - 1);
+                }
+                final PendingFrame frame = this.pending.remove(id);
+                if (frame != null) {
+                    frame.complete(output.toString());
+                }
+                output.setLength(0);
+            }
+        } catch (final IOException e) {
+            // the shell has gone away; handled below
+        }
+
+        synchronized (this.writer) {
+            this.closed = true;
+        }
+        this.failPending("shell exited");
+    }
+
+    private static int parseMarker(String line) {
+        if (!line.startsWith(FRAME_MARKER)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(line.substring(FRAME_MARKER.length()));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The future of a frame, which is completed by the reader thread, or
+     * failed if the shell exits or the channel is closed first. Only the first
+     * call to complete() or fail() has any effect. A frame cannot be
+     * cancelled, since it has already been written to the shell by the time
+     * its future is returned.
+     */
+    private static class PendingFrame implements Future<String> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * The output of the frame, or null if it has not completed or failed.
+         * This field is only written while synchronized on this object and
+         * before done is counted down, and only read after done is counted
+         * down.
+         */
+        private String output;
+
+        /**
+         * The reason that the frame failed, or null if it has not failed.
+         * This field is accessed in the same way as output.
+         */
+        private Throwable failure;
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public synchronized void complete(String output) {
+            if (this.done.getCount() > 0) {
+                this.output = output;
+                this.done.countDown();
+            }
+        }
+
+        public synchronized void fail(Throwable cause) {
+            if (this.done.getCount() > 0) {
+                this.failure = cause;
+                this.done.countDown();
+            }
+        }
+
+        public String get() throws InterruptedException, ExecutionException {
+            this.done.await();
+            return this.getResult();
+        }
+
+        public String get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!this.done.await(timeout, unit)) {
+                throw new TimeoutException("frame did not complete");
+            }
+            return this.getResult();
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return (this.done.getCount() == 0);
+        }
+
+        private String getResult() throws ExecutionException {
+            if (this.failure != null) {
+                throw new ExecutionException(this.failure);
+            }
+            return this.output;
+        }
+    }
+
+    private class ReadRunnable implements Runnable {
+
+        public void run() {
+            RootCommandChannel.this.readOutput();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.OperationNotifier;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateException;
+
+/**
+ * Runs commands as root, such as the chown commands that give the current
+ * process ownership of the sysfs files. On a device the commands are run in a
+ * real root shell (see {@link ChannelShellProvider}); elsewhere, such as when
+ * benchmarking on a plain Linux JVM, they can be run in an ordinary shell (see
+ * {@link FakeRootShellProvider}).
+ * <p>
+ * The provider in use is returned from
+ * {@link SysfsEnvironment#getRootShellProvider()}. Implementations must be
+ * thread safe.
+ */
+public interface RootShellProvider {
+
+    /**
+     * Runs commands as root, as a single request to the root shell, and waits
+     * for them to complete.
+     *
+     * @param commandLines the shell command lines to run, in order.
+     * @param notifier the object to notify if a request for root privileges
+     * needs to be made; may be null to not send notifications.
+     * @return the combined output of all of the commands; may be null if the
+     * commands produced no output.
+     * @throws RootShellCreateException if opening the root shell fails.
+     * @throws IOException if sending the commands to the root shell fails.
+     * @throws InterruptedException if interrupted while waiting for the
+     * commands to complete.
+     * @throws NullPointerException if commandLines==null.
+     */
+    public String run(String[] commandLines, OperationNotifier notifier)
+            throws RootShellCreateException, IOException, InterruptedException;
+
+    /**
+     * Sends commands to be run as root, as a single request to the root
+     * shell, without waiting for them to complete. Implementations that
+     * cannot run commands asynchronously may run them before returning, in
+     * which case the returned future is already complete.
+     *
+     * @param commandLines the shell command lines to run, in order.
+     * @param notifier the object to notify if a request for root privileges
+     * needs to be made; may be null to not send notifications.
+     * @return a future that completes with the combined output of all of the
+     * commands, which may be null if the commands produced no output, or that
+     * fails with an IOException if running the commands fails; never returns
+     * null.
+     * @throws RootShellCreateException if opening the root shell fails.
+     * @throws IOException if sending the commands to the root shell fails.
+     * @throws NullPointerException if commandLines==null.
+     */
+    public Future<String> submit(String[] commandLines,
+            OperationNotifier notifier) throws RootShellCreateException,
+            IOException;
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.OperationNotifier;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateException;
+import org.sleepydragon.capbutnbrightness.RootShellManager;
+
+import com.stericson.RootTools.execution.Command;
+import com.stericson.RootTools.execution.CommandCapture;
+import com.stericson.RootTools.execution.Shell;
+
+/**
+ * The {@link RootShellProvider} that is used on a device, which runs commands
+ * in the root shell shared by the {@link RootShellManager}. Each batch of
+ * commands waits for the previous batch to complete, so {@link #submit} runs
+ * the commands before returning; {@link ChannelShellProvider} is used instead
+ * by default.
+ */
+public class RootToolsShellProvider implements RootShellProvider {
+
+    /**
+     * The ID to use for the next CommandCapture object.
+     */
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * The task of the already-complete futures returned from submit().
+     */
+    private static final Runnable NO_OP = new Runnable() {
+
+        public void run() {
+        }
+    };
+
+    public String run(String[] commandLines, OperationNotifier notifier)
+            throws RootShellCreateException, IOException, InterruptedException {
+        if (commandLines == null) {
+            throw new NullPointerException("commandLines==null");
+        }
+
+        // launch the commands; since the root shell is shared and kept open
+        // for a while it may have died since it was last used, in which case a
+        // fresh shell is opened and the launch is attempted once more
+        final RootShellManager manager = RootShellManager.getInstance();
+        Shell shell = manager.acquire(notifier);
+        Command command = new CommandCapture(getNextId(), commandLines);
+        try {
+            shell.add(command);
+        } catch (final IOException e) {
+            manager.invalidate(shell);
+            shell = manager.acquire(notifier);
+            command = new CommandCapture(getNextId(), commandLines);
+            try {
+                shell.add(command);
+            } catch (final IOException e2) {
+                manager.invalidate(shell);
+                throw e2;
+            }
+        }
+
+        // wait for the commands to complete
+        try {
+            command.waitForFinish();
+        } finally {
+            manager.release(shell);
+        }
+
+        return command.toString();
+    }
+
+    public Future<String> submit(String[] commandLines,
+            OperationNotifier notifier) throws RootShellCreateException,
+            IOException {
+        final String output;
+        try {
+            output = this.run(commandLines, notifier);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted running commands");
+        }
+        final FutureTask<String> future =
+            new FutureTask<String>(NO_OP, output);
+        future.run();
+        return future;
+    }
+
+    private static int getNextId() {
+        return nextId.getAndIncrement();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+/**
+ * Determines where the sysfs files that control the capacitive buttons
+ * backlight, such as /sys/class/leds/button-backlight/brightness, actually
+ * live. On a device these are the real sysfs files; elsewhere, such as when
+ * benchmarking on a plain Linux JVM, they can be ordinary files in a
+ * directory (see {@link DirectorySysfsBackend}).
+ * <p>
+ * The backend in use is returned from {@link SysfsEnvironment#getBackend()}.
+ * Implementations must be thread safe.
+ */
+public interface SysfsBackend {
+
+    /**
+     * Returns the path of the file that backs a sysfs file.
+     *
+     * @param path the absolute path of the sysfs file, such as
+     * /sys/class/leds/button-backlight/brightness.
+     * @return the path of the file that backs the sysfs file with the given
+     * path; never returns null. Repeated invocations with the same path should
+     * return the same String object, so that looking up the path does not
+     * allocate.
+     * @throws NullPointerException if path==null.
+     */
+    public String getPath(String path);
+}
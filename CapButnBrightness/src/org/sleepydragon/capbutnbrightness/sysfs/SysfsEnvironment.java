@@ -0,0 +1,124 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+/**
+ * Holds the {@link SysfsBackend}, {@link RootShellProvider} and
+ * {@link FileOperations} used by the entire process. By default these operate
+ * on the real sysfs files, the real root shell and the native library;
+ * benchmarks and tests can replace them, for example with a
+ * {@link DirectorySysfsBackend}, a {@link FakeRootShellProvider} and a
+ * {@link JavaFileOperations}, so that the full flow of setting the brightness
+ * can run without a rooted device, or on a plain Linux JVM (see SetBenchmark
+ * in the test project).
+ * <p>
+ * This class is thread safe.
+ */
+public class SysfsEnvironment {
+
+    private static volatile SysfsBackend backend = new RealSysfsBackend();
+    private static volatile RootShellProvider rootShellProvider =
+        new ChannelShellProvider();
+    private static volatile FileOperations fileOperations =
+        new CLibFileOperations();
+
+    private SysfsEnvironment() {
+    }
+
+    /**
+     * Returns the SysfsBackend used by the process.
+     *
+     * @return the SysfsBackend used by the process; never returns null.
+     * @see #setBackend(SysfsBackend)
+     */
+    public static SysfsBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the FileOperations used by the process.
+     *
+     * @return the FileOperations used by the process; never returns null.
+     * @see #setFileOperations(FileOperations)
+     */
+    public static FileOperations getFileOperations() {
+        return fileOperations;
+    }
+
+    /**
+     * Returns the RootShellProvider used by the process.
+     *
+     * @return the RootShellProvider used by the process; never returns null.
+     * @see #setRootShellProvider(RootShellProvider)
+     */
+    public static RootShellProvider getRootShellProvider() {
+        return rootShellProvider;
+    }
+
+    /**
+     * Restores the default SysfsBackend, RootShellProvider and
+     * FileOperations, which use the real sysfs files, the real root shell and
+     * the native library.
+     */
+    public static void reset() {
+        setBackend(new RealSysfsBackend());
+        setRootShellProvider(new ChannelShellProvider());
+        setFileOperations(new CLibFileOperations());
+    }
+
+    /**
+     * Sets the SysfsBackend used by the process.
+     *
+     * @param backend the SysfsBackend to use.
+     * @throws NullPointerException if backend==null.
+     * @see #getBackend()
+     */
+    public static void setBackend(SysfsBackend backend) {
+        if (backend == null) {
+            throw new NullPointerException("backend==null");
+        }
+        SysfsEnvironment.backend = backend;
+    }
+
+    /**
+     * Sets the FileOperations used by the process.
+     *
+     * @param fileOperations the FileOperations to use.
+     * @throws NullPointerException if fileOperations==null.
+     * @see #getFileOperations()
+     */
+    public static void setFileOperations(FileOperations fileOperations) {
+        if (fileOperations == null) {
+            throw new NullPointerException("fileOperations==null");
+        }
+        SysfsEnvironment.fileOperations = fileOperations;
+    }
+
+    /**
+     * Sets the RootShellProvider used by the process.
+     *
+     * @param provider the RootShellProvider to use.
+     * @throws NullPointerException if provider==null.
+     * @see #getRootShellProvider()
+     */
+    public static void setRootShellProvider(RootShellProvider provider) {
+        if (provider == null) {
+            throw new NullPointerException("provider==null");
+        }
+        SysfsEnvironment.rootShellProvider = provider;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.test.AndroidTestCase;
+
+public class TestCoalescingExecutor extends AndroidTestCase {
+
+    private CoalescingExecutor executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.executor = new CoalescingExecutor("TestCoalescingExecutor");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.executor.shutdown();
+        super.tearDown();
+    }
+
+    /**
+     * Test that tasks submitted for the same target while an earlier task is
+     * running replace each other, so that only the latest one runs.
+     */
+    public void test_submit_LatestWins() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final List<String> ran = new ArrayList<String>();
+
+        this.executor.submit("a", new BlockingTask(started, unblock));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertFalse(this.executor.submit("a", new RecordingTask(ran, "a1")));
+        assertTrue(this.executor.submit("a", new RecordingTask(ran, "a2")));
+        assertFalse(this.executor.submit("b", new RecordingTask(ran, "b1")));
+        assertTrue(this.executor.submit("a", new RecordingTask(ran, "a3")));
+        assertEquals(2, this.executor.getQueueDepth());
+        assertEquals(2, this.executor.getDropCount());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final CountDownLatch noWait = new CountDownLatch(0);
+        this.executor.submit("c", new BlockingTask(done, noWait));
+        unblock.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        synchronized (ran) {
+            assertEquals(2, ran.size());
+            assertEquals("a3", ran.get(0));
+            assertEquals("b1", ran.get(1));
+        }
+        assertEquals(0, this.executor.getQueueDepth());
+        assertEquals(4, this.executor.getExecutedCount());
+    }
+
+    private static class BlockingTask implements Runnable {
+
+        private final CountDownLatch started;
+        private final CountDownLatch unblock;
+
+        public BlockingTask(CountDownLatch started, CountDownLatch unblock) {
+            this.started = started;
+            this.unblock = unblock;
+        }
+
+        public void run() {
+            this.started.countDown();
+            try {
+                this.unblock.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class RecordingTask implements Runnable {
+
+        private final List<String> ran;
+        private final String name;
+
+        public RecordingTask(List<String> ran, String name) {
+            this.ran = ran;
+            this.name = name;
+        }
+
+        public void run() {
+            synchronized (this.ran) {
+                this.ran.add(this.name);
+            }
+        }
+    }
+}
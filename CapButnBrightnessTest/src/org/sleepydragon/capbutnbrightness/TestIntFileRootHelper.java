@@ -0,0 +1,286 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+public class TestIntFileRootHelper extends AndroidTestCase {
+
+    private File file;
+    private IntFileRootHelper helper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.file = File.createTempFile("TestIntFileRootHelper", ".txt",
+            this.getContext().getCacheDir());
+        this.helper = new IntFileRootHelper(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.helper.close();
+        this.file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Test that write() stores the value such that read() returns it, even
+     * when a shorter value is written after a longer one.
+     */
+    public void test_write_ReadBack() throws Exception {
+        final String path = this.file.getPath();
+        final int[] values = { 0, 100, 5, -2147483648, 2147483647, -1, 42 };
+        for (final int value : values) {
+            this.helper.write(path, value);
+            assertEquals(value, this.helper.read(path));
+        }
+    }
+
+    /**
+     * Test that once warmed up, repeated calls to write() do not allocate any
+     * objects.
+     */
+    public void test_write_DoesNotAllocate() throws Exception {
+        final String path = this.file.getPath();
+
+        // warm up: the first write stat()s and opens the file
+        this.helper.write(path, 1);
+        this.helper.write(path, 100);
+
+        final int allocCount;
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < 100; i++) {
+                this.helper.write(path, i);
+            }
+            allocCount = Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        assertEquals(0, allocCount);
+    }
+
+    /**
+     * Test that read() ignores leading and trailing whitespace.
+     */
+    public void test_read_Whitespace() throws Exception {
+        this.writeString(" \t-42 \n\n");
+        assertEquals(-42, this.helper.read(this.file.getPath()));
+    }
+
+    /**
+     * Test that read() throws IntParseException if the file does not contain
+     * an integer.
+     */
+    public void test_read_NotAnInteger() throws Exception {
+        final String[] contents = { "", "\n", "-", "12a\n", "2147483648\n" };
+        for (final String s : contents) {
+            this.writeString(s);
+            try {
+                this.helper.read(this.file.getPath());
+                fail("should have thrown: " + s);
+            } catch (final IntFileRootHelper.IntParseException e) {
+                assertEquals(s, e.getString());
+            }
+        }
+
+        // bytes that are not US-ASCII must not be trimmed as whitespace
+        final byte[][] rawContents =
+            { { (byte) 0xFF, '1', '2', '\n' }, { '1', '2', (byte) 0x80 } };
+        for (final byte[] raw : rawContents) {
+            final FileOutputStream out = new FileOutputStream(this.file);
+            try {
+                out.write(raw);
+            } finally {
+                out.close();
+            }
+            try {
+                this.helper.read(this.file.getPath());
+                fail("should have thrown: " + Arrays.toString(raw));
+            } catch (final IntFileRootHelper.IntParseException e) {
+                assertTrue(e.getString().indexOf('\uFFFD') >= 0);
+            }
+        }
+    }
+
+    /**
+     * Test that readAll() stores the value of each file at the index of its
+     * path.
+     */
+    public void test_readAll() throws Exception {
+        final File file2 = File.createTempFile("TestIntFileRootHelper",
+            ".txt", this.getContext().getCacheDir());
+        try {
+            final String[] paths = { this.file.getPath(), file2.getPath() };
+            this.helper.writeAll(paths, new int[] { 12, 34 }, 2);
+            final int[] values = new int[2];
+            this.helper.readAll(paths, values);
+            assertEquals(12, values[0]);
+            assertEquals(34, values[1]);
+        } finally {
+            file2.delete();
+        }
+    }
+
+    /**
+     * Test that once warmed up, repeated calls to read() do not allocate any
+     * objects.
+     */
+    public void test_read_DoesNotAllocate() throws Exception {
+        final String path = this.file.getPath();
+        this.helper.write(path, 123);
+        this.helper.read(path);
+
+        final int allocCount;
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < 100; i++) {
+                this.helper.read(path);
+            }
+            allocCount = Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        assertEquals(0, allocCount);
+    }
+
+    /**
+     * Test that write() throws IntWriteException if the file does not
+     * exist.
+     */
+    public void test_write_FileDoesNotExist() throws IOException {
+        final String path = this.file.getPath();
+        this.file.delete();
+        try {
+            this.helper.write(path, 1);
+            fail("should have thrown");
+        } catch (final IntFileRootHelper.IntWriteException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that writeAll() with a conditional write mode skips its writes only
+     * if every one of them is redundant, and otherwise does all of them.
+     */
+    public void test_writeAll_ElidesAllOrNothing() throws Exception {
+        final File other = File.createTempFile("TestIntFileRootHelper",
+            ".txt", this.getContext().getCacheDir());
+        try {
+            final String[] paths = { this.file.getPath(), other.getPath() };
+            final int[] values = { 1, 2 };
+            this.helper.setConditionalWriteMode(
+                IntFileRootHelper.ConditionalWriteMode.SKIP_IF_LAST_WRITTEN_AND_UNCHANGED);
+            this.helper.writeAll(paths, values, 2);
+
+            // nothing changed, so both writes are skipped
+            int elided = IntFileRootHelper.getElidedWriteCount();
+            int performed = IntFileRootHelper.getPerformedWriteCount();
+            this.helper.writeAll(paths, values, 2);
+            assertEquals(elided + 2, IntFileRootHelper.getElidedWriteCount());
+            assertEquals(performed, IntFileRootHelper.getPerformedWriteCount());
+
+            // the second file changed, so both writes are done, even though
+            // the first file still contains its value
+            IntFileRootHelper.makeWritable(other.getPath());
+            final FileOutputStream out = new FileOutputStream(other);
+            try {
+                out.write("7\n".getBytes("US-ASCII"));
+            } finally {
+                out.close();
+            }
+            elided = IntFileRootHelper.getElidedWriteCount();
+            performed = IntFileRootHelper.getPerformedWriteCount();
+            this.helper.writeAll(paths, values, 2);
+            assertEquals(elided, IntFileRootHelper.getElidedWriteCount());
+            assertEquals(performed + 2,
+                IntFileRootHelper.getPerformedWriteCount());
+            assertEquals(2, this.helper.read(other.getPath()));
+        } finally {
+            other.delete();
+        }
+    }
+
+    /**
+     * Test that a file that is re-created at the same path after its
+     * ownership and permissions were cached, as the kernel does when it
+     * re-creates a sysfs node, is still written and left read-only: the
+     * permission failure caused by the stale cached state must discard it.
+     */
+    public void test_write_RecreatedFile() throws Exception {
+        final String path = this.file.getPath();
+        this.helper.write(path, 1);
+        IntFileRootHelper.makeWritable(path);
+
+        // re-create the file as read-only, while the cache still says that
+        // the old file is writable
+        assertTrue(this.file.delete());
+        this.writeString("5\n");
+        assertTrue(this.file.setWritable(false, false));
+
+        this.helper.write(path, 2);
+        assertEquals("2\n", this.readString());
+        assertFalse(this.file.canWrite());
+    }
+
+    /**
+     * Test that quoteShellArgument() quotes shell metacharacters, including
+     * single quotes, so that a path is passed to the root shell as one word.
+     */
+    public void test_quoteShellArgument() {
+        assertEquals("'/sys/class/leds/button-backlight/brightness'",
+            IntFileRootHelper.quoteShellArgument(
+                "/sys/class/leds/button-backlight/brightness"));
+        assertEquals("'a b;$(reboot)`id`'",
+            IntFileRootHelper.quoteShellArgument("a b;$(reboot)`id`"));
+        assertEquals("'it'\\''s'",
+            IntFileRootHelper.quoteShellArgument("it's"));
+        assertEquals("''", IntFileRootHelper.quoteShellArgument(""));
+    }
+
+    private String readString() throws IOException {
+        final FileInputStream in = new FileInputStream(this.file);
+        try {
+            final byte[] buffer = new byte[128];
+            final int length = Math.max(in.read(buffer), 0);
+            return new String(buffer, 0, length, "US-ASCII");
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        final FileOutputStream out = new FileOutputStream(this.file);
+        try {
+            out.write(s.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
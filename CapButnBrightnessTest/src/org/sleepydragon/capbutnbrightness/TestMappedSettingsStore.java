@@ -0,0 +1,84 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.io.File;
+
+import android.test.AndroidTestCase;
+
+public class TestMappedSettingsStore extends AndroidTestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.file = File.createTempFile("TestMappedSettingsStore", ".bin",
+            this.getContext().getCacheDir());
+        this.file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Test that a newly-created store is not initialized and that a store is
+     * initialized once it has been written to.
+     */
+    public void test_isInitialized() throws Exception {
+        final MappedSettingsStore store = MappedSettingsStore.open(this.file);
+        assertFalse(store.isInitialized());
+        store.initialize(null, true);
+        assertTrue(store.isInitialized());
+        assertNull(store.getLevel());
+        assertEquals(MappedSettingsStore.FLAG_SET_BRIGHTNESS_ON_BOOT,
+            store.getFlags());
+    }
+
+    /**
+     * Test that the setters change only their own setting.
+     */
+    public void test_setters() throws Exception {
+        final MappedSettingsStore store = MappedSettingsStore.open(this.file);
+        store.initialize(50, true);
+        store.setLevel(0);
+        assertEquals(Integer.valueOf(0), store.getLevel());
+        store.setSetBrightnessOnBoot(false);
+        assertEquals(Integer.valueOf(0), store.getLevel());
+        assertEquals(MappedSettingsStore.FLAG_LEVEL_SET, store.getFlags());
+        store.setLevel(null);
+        assertNull(store.getLevel());
+        assertEquals(0, store.getFlags());
+    }
+
+    /**
+     * Test that values written through one mapping of the file are seen
+     * through another mapping of the same file.
+     */
+    public void test_sharedMapping() throws Exception {
+        final MappedSettingsStore writer = MappedSettingsStore.open(this.file);
+        final MappedSettingsStore reader = MappedSettingsStore.open(this.file);
+        writer.initialize(100, false);
+        assertTrue(reader.isInitialized());
+        assertEquals(Integer.valueOf(100), reader.getLevel());
+        writer.setLevel(50);
+        assertEquals(Integer.valueOf(50), reader.getLevel());
+    }
+}
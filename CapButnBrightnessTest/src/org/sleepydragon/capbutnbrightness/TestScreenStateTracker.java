@@ -0,0 +1,53 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import android.test.AndroidTestCase;
+
+public class TestScreenStateTracker extends AndroidTestCase {
+
+    /**
+     * Test that an event reporting the current state is dropped.
+     */
+    public void test_onEvent_DropsDuplicates() {
+        final ScreenStateTracker tracker = new ScreenStateTracker();
+        assertTrue(tracker.onEvent(ScreenStateTracker.STATE_ON, 1));
+        assertEquals(ScreenStateTracker.STATE_ON, tracker.takePendingState());
+        assertFalse(tracker.onEvent(ScreenStateTracker.STATE_ON, 2));
+        assertEquals(ScreenStateTracker.STATE_UNKNOWN,
+            tracker.takePendingState());
+        assertEquals(1, tracker.getStateNanos());
+        assertEquals(2, tracker.getEventCount());
+        assertEquals(1, tracker.getDuplicateCount());
+    }
+
+    /**
+     * Test that events received while a state is waiting to be applied are
+     * collapsed into a single state, which is that of the latest event.
+     */
+    public void test_onEvent_CollapsesPending() {
+        final ScreenStateTracker tracker = new ScreenStateTracker();
+        assertTrue(tracker.onEvent(ScreenStateTracker.STATE_OFF, 1));
+        assertFalse(tracker.onEvent(ScreenStateTracker.STATE_ON, 2));
+        assertFalse(tracker.onEvent(ScreenStateTracker.STATE_OFF, 3));
+        assertFalse(tracker.onEvent(ScreenStateTracker.STATE_ON, 4));
+        assertEquals(4, tracker.getStateNanos());
+        assertEquals(ScreenStateTracker.STATE_ON, tracker.takePendingState());
+        assertEquals(3, tracker.getCollapsedCount());
+        assertTrue(tracker.onEvent(ScreenStateTracker.STATE_OFF, 5));
+    }
+}
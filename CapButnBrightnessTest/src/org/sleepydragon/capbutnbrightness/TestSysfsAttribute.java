@@ -0,0 +1,114 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.test.AndroidTestCase;
+
+public class TestSysfsAttribute extends AndroidTestCase {
+
+    private File file;
+    private SysfsAttribute attribute;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.file = File.createTempFile("TestSysfsAttribute", ".txt",
+            this.getContext().getCacheDir());
+        this.attribute = new SysfsAttribute(this.file.getPath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.attribute.close();
+        this.file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Test that a write replaces the whole contents of the file, even if the
+     * previous contents were longer, and that the same channels are used for
+     * each read and write.
+     */
+    public void test_write_Truncates() throws Exception {
+        this.write("100\n");
+        assertEquals("100\n", this.read());
+        final FileChannel readChannel = this.attribute.getOpenReadChannel();
+        final FileChannel writeChannel = this.attribute.getOpenWriteChannel();
+
+        this.write("5\n");
+        assertEquals("5\n", this.read());
+        assertSame(readChannel, this.attribute.getOpenReadChannel());
+        assertSame(writeChannel, this.attribute.getOpenWriteChannel());
+    }
+
+    /**
+     * Test that reads and writes succeed through re-opened channels after the
+     * held channels stop working, such as when the kernel re-creates a sysfs
+     * node and the old file descriptors go stale.
+     */
+    public void test_readWrite_ReopensStaleChannels() throws Exception {
+        this.write("1\n");
+        assertEquals("1\n", this.read());
+        final FileChannel readChannel = this.attribute.getOpenReadChannel();
+        final FileChannel writeChannel = this.attribute.getOpenWriteChannel();
+        assertNotNull(readChannel);
+        assertNotNull(writeChannel);
+
+        // replace the file, then make the handles to the old file fail
+        assertTrue(this.file.delete());
+        this.writeFile("2\n");
+        readChannel.close();
+        writeChannel.close();
+
+        assertEquals("2\n", this.read());
+        assertNotSame(readChannel, this.attribute.getOpenReadChannel());
+        assertTrue(this.attribute.getOpenReadChannel().isOpen());
+
+        this.write("3\n");
+        assertNotSame(writeChannel, this.attribute.getOpenWriteChannel());
+        assertTrue(this.attribute.getOpenWriteChannel().isOpen());
+        assertEquals("3\n", this.read());
+    }
+
+    private String read() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(64);
+        final int length = this.attribute.read(buffer);
+        if (length < 0) {
+            return "";
+        }
+        return new String(buffer.array(), 0, length, "US-ASCII");
+    }
+
+    private void write(String s) throws IOException {
+        this.attribute.write(ByteBuffer.wrap(s.getBytes("US-ASCII")));
+    }
+
+    private void writeFile(String s) throws IOException {
+        final FileOutputStream out = new FileOutputStream(this.file);
+        try {
+            out.write(s.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.io.File;
+
+import org.sleepydragon.capbutnbrightness.FileStateCache;
+import org.sleepydragon.capbutnbrightness.metrics.LatencyStat;
+import org.sleepydragon.capbutnbrightness.sysfs.DirectorySysfsBackend;
+import org.sleepydragon.capbutnbrightness.sysfs.FakeRootShellProvider;
+import org.sleepydragon.capbutnbrightness.sysfs.JavaFileOperations;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsEnvironment;
+
+/**
+ * Times the full set() flow of every device in the catalogue on a plain Linux
+ * JVM, so that regressions in the write path can be measured before shipping
+ * to devices. The files are ordinary files in a directory (see
+ * {@link DirectorySysfsBackend}), the root shell is a
+ * {@link FakeRootShellProvider} with the given latency, and the system calls
+ * are emulated by a {@link JavaFileOperations} that reports the files as owned
+ * by another user, so that the first set() of each device changes their
+ * ownership through the fake root shell just as on a device after it boots.
+ * <p>
+ * For each device, "cold" times set() after the cached state of the files has
+ * been forgotten, which includes one request to the root shell, and "warm"
+ * times set() once the state is cached, alternating between the levels 100 and
+ * 0 so that no write is skipped as unchanged.
+ * <p>
+ * This is not a test case; run it with the compiled classes of the
+ * application and of this project on the class path, for example:
+ * <pre>
+ * java org.sleepydragon.capbutnbrightness.devices.SetBenchmark \
+ *     CapButnBrightness/assets/devices.txt /dev/shm/sysfs 20 1000
+ * </pre>
+ * The arguments are the catalogue, the directory in which to create the
+ * files, the latency of the fake root shell in milliseconds, and the number
+ * of warm iterations per device; all but the first are optional.
+ */
+public class SetBenchmark {
+
+    private static final long DEFAULT_LATENCY_MILLIS = 20;
+    private static final int DEFAULT_ITERATIONS = 1000;
+    private static final int COLD_ITERATIONS = 5;
+    private static final int OTHER_UID = 1000;
+
+    private SetBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("usage: SetBenchmark <catalogue> [directory]"
+                + " [latencyMillis] [iterations]");
+            System.exit(2);
+        }
+        final File catalogue = new File(args[0]);
+        final File root =
+            new File((args.length > 1) ? args[1] : System
+                .getProperty("java.io.tmpdir"), "sysfs");
+        final long latencyMillis =
+            (args.length > 2) ? Long.parseLong(args[2])
+                : DEFAULT_LATENCY_MILLIS;
+        final int iterations =
+            (args.length > 3) ? Integer.parseInt(args[3])
+                : DEFAULT_ITERATIONS;
+
+        final DirectorySysfsBackend backend = new DirectorySysfsBackend(root);
+        final FakeRootShellProvider rootShellProvider =
+            new FakeRootShellProvider(latencyMillis);
+        SysfsEnvironment.setBackend(backend);
+        SysfsEnvironment.setRootShellProvider(rootShellProvider);
+        SysfsEnvironment.setFileOperations(new JavaFileOperations(
+            getFileUid()));
+        BacklightCapabilities.getInstance().invalidate();
+
+        try {
+            final DeviceInfoDatabase db = new DeviceInfoDatabase(catalogue);
+            System.out.println("fake root shell latency: " + latencyMillis
+                + " ms");
+            for (final String id : db.getKnownIds()) {
+                final DeviceInfo deviceInfo = db.getById(id);
+                if (deviceInfo == null) {
+                    System.out.println(id + ": invalid profile");
+                    continue;
+                }
+                final CapacitiveButtonsBacklightBrightness device =
+                    deviceInfo.getCapacitiveButtonsBacklightBrightness();
+                backend.createFile(
+                    CapacitiveButtonsBacklightBrightness.CURRENTS_PATH, 42);
+                backend.createFile(
+                    CapacitiveButtonsBacklightBrightness.BRIGHTNESS_PATH, 42);
+
+                final int runCount = rootShellProvider.getRunCount();
+                final LatencyStat cold = new LatencyStat(id + " cold");
+                for (int i = 0; i < COLD_ITERATIONS; i++) {
+                    FileStateCache.getInstance().clear();
+                    final long startNanos = System.nanoTime();
+                    device.set(100, 0, null);
+                    cold.recordSince(startNanos);
+                }
+                if (rootShellProvider.getRunCount() == runCount) {
+                    throw new IllegalStateException(id
+                        + ": set() did not use the root shell");
+                }
+
+                final LatencyStat warm = new LatencyStat(id + " warm");
+                for (int i = 0; i < iterations; i++) {
+                    final long startNanos = System.nanoTime();
+                    device.set(((i & 1) == 0) ? 0 : 100, 0, null);
+                    warm.recordSince(startNanos);
+                }
+
+                print(cold);
+                print(warm);
+            }
+        } finally {
+            SysfsEnvironment.reset();
+        }
+    }
+
+    /**
+     * Returns the UID to report as the owner of the files: root, as on a
+     * device, unless this process is itself running as root, in which case
+     * files owned by root would never be given to it; the files are then
+     * reported as owned by {@link #OTHER_UID} instead.
+     */
+    private static int getFileUid() {
+        final int processUid = new JavaFileOperations(
+            JavaFileOperations.ROOT_UID).getProcessUid();
+        return (processUid == JavaFileOperations.ROOT_UID) ? OTHER_UID
+            : JavaFileOperations.ROOT_UID;
+    }
+
+    private static void print(LatencyStat stat) {
+        System.out.println(stat.getName() + ": " + stat.getCount()
+            + " samples, min " + toMicros(stat.getMinNanos()) + " us, mean "
+            + toMicros(stat.getMeanNanos()) + " us, max "
+            + toMicros(stat.getMaxNanos()) + " us");
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.io.File;
+
+import org.sleepydragon.capbutnbrightness.FileStateCache;
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper;
+import org.sleepydragon.capbutnbrightness.sysfs.DirectorySysfsBackend;
+import org.sleepydragon.capbutnbrightness.sysfs.FakeRootShellProvider;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsEnvironment;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Runs the full set() flow of every device against a DirectorySysfsBackend and
+ * a FakeRootShellProvider.
+ */
+public class TestDevicesOnDirectorySysfsBackend extends AndroidTestCase {
+
+    private DirectorySysfsBackend backend;
+    private FakeRootShellProvider rootShellProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final File root = new File(this.getContext().getCacheDir(), "sysfs");
+        this.backend = new DirectorySysfsBackend(root);
+        this.rootShellProvider = new FakeRootShellProvider(0);
+        SysfsEnvironment.setBackend(this.backend);
+        SysfsEnvironment.setRootShellProvider(this.rootShellProvider);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SysfsEnvironment.reset();
+        FileStateCache.getInstance().clear();
+        super.tearDown();
+    }
+
+    /**
+     * Test that setting the level to 100 stores each device's "bright"
+     * currents value.
+     */
+    public void test_set_Bright() throws Exception {
+        this.assertCurrentsAfterSet("m7", 100, 20);
+        this.assertCurrentsAfterSet("evita", 100, 3);
+        this.assertCurrentsAfterSet("evitareul", 100, 3);
+        this.assertCurrentsAfterSet("endeavoru", 100, 3);
+        this.assertCurrentsAfterSet("pyramid", 100, 8);
+    }
+
+    /**
+     * Test that setting the level to 0 stores 0 into the currents file of
+     * every device.
+     */
+    public void test_set_Off() throws Exception {
+        this.assertCurrentsAfterSet("m7", 0, 0);
+        this.assertCurrentsAfterSet("evita", 0, 0);
+        this.assertCurrentsAfterSet("evitareul", 0, 0);
+        this.assertCurrentsAfterSet("endeavoru", 0, 0);
+        this.assertCurrentsAfterSet("pyramid", 0, 0);
+    }
+
+    /**
+     * Test that no root commands are needed when the files are already owned
+     * by the current process.
+     */
+    public void test_set_NoRootCommandsIfOwned() throws Exception {
+        this.assertCurrentsAfterSet("evitareul", 50, 1);
+        assertEquals(0, this.rootShellProvider.getRunCount());
+    }
+
+    /**
+     * Test that plans are compiled once per level and options, and compiled
+     * again once the SysfsBackend changes.
+     */
+    public void test_getPlan_Cached() throws Exception {
+        final String currentsPath =
+            CapacitiveButtonsBacklightBrightness.CURRENTS_PATH;
+        final String brightnessPath =
+            CapacitiveButtonsBacklightBrightness.BRIGHTNESS_PATH;
+        this.backend.createFile(currentsPath, 42);
+        this.backend.createFile(brightnessPath, 42);
+
+        final CapacitiveButtonsBacklightBrightness device =
+            this.getDevice("evitareul");
+        final int options =
+            CapacitiveButtonsBacklightBrightness.OPTION_SCREEN_ON;
+        final WritePlan plan = device.getPlan(100, options);
+        assertSame(plan, device.getPlan(100, options));
+        assertNotSame(plan, device.getPlan(100, 0));
+        assertSame(WritePlan.EMPTY, device.getPlan(0, options));
+
+        // when the screen turns on, the currents file is only written after
+        // the brightness file
+        assertEquals(2, plan.getCount());
+        assertEquals(this.backend.getPath(brightnessPath), plan.getPath(0));
+        assertEquals(this.backend.getPath(currentsPath), plan.getPath(1));
+        assertEquals(3, plan.getValue(1));
+
+        SysfsEnvironment.setBackend(new DirectorySysfsBackend(new File(
+            this.getContext().getCacheDir(), "sysfs2")));
+        assertNotSame(plan, device.getPlan(100, options));
+    }
+
+    /**
+     * Test that the profiles in the catalogue, including those that are "like"
+     * another device, produce the writes of each device.
+     */
+    public void test_getPlan_Profiles() throws Exception {
+        this.backend.createFile(
+            CapacitiveButtonsBacklightBrightness.CURRENTS_PATH, 42);
+        this.backend.createFile(
+            CapacitiveButtonsBacklightBrightness.BRIGHTNESS_PATH, 42);
+        final String currentsPath =
+            this.backend
+                .getPath(CapacitiveButtonsBacklightBrightness.CURRENTS_PATH);
+        final String brightnessPath =
+            this.backend
+                .getPath(CapacitiveButtonsBacklightBrightness.BRIGHTNESS_PATH);
+        final int screenOn =
+            CapacitiveButtonsBacklightBrightness.OPTION_SCREEN_ON;
+
+        final WritePlan dim = this.getDevice("pyramid").getPlan(50, 0);
+        assertEquals(3, dim.getCount());
+        assertEquals(currentsPath, dim.getPath(0));
+        assertEquals(3, dim.getValue(0));
+        assertEquals(brightnessPath, dim.getPath(1));
+        assertEquals(255, dim.getValue(1));
+        assertEquals(currentsPath, dim.getPath(2));
+        assertEquals(3, dim.getValue(2));
+
+        // pyramid has no screen_on_dim, so its screen-on dim writes must come
+        // from its own dim attribute rather than from that of evitareul
+        final WritePlan dimOn =
+            this.getDevice("pyramid").getPlan(50, screenOn);
+        assertEquals(3, dimOn.getCount());
+        assertEquals(currentsPath, dimOn.getPath(0));
+        assertEquals(3, dimOn.getValue(0));
+        assertEquals(brightnessPath, dimOn.getPath(1));
+        assertEquals(255, dimOn.getValue(1));
+        assertEquals(currentsPath, dimOn.getPath(2));
+        assertEquals(3, dimOn.getValue(2));
+
+        final WritePlan bright =
+            this.getDevice("endeavoru").getPlan(100, screenOn);
+        assertEquals(1, bright.getCount());
+        assertEquals(brightnessPath, bright.getPath(0));
+
+        final WritePlan off = this.getDevice("ville").getPlan(0, screenOn);
+        assertSame(WritePlan.EMPTY, off);
+        final WritePlan on = this.getDevice("ville").getPlan(100, screenOn);
+        assertEquals(2, on.getCount());
+        assertEquals(3, on.getValue(1));
+
+        assertEquals("HTC One", new DeviceInfoDatabase(this.getContext())
+            .getById("m7").getName());
+    }
+
+    /**
+     * Test that the backlight directory is listed once, no matter how many
+     * devices are checked, and listed again after being invalidated.
+     */
+    public void test_BacklightCapabilities_SingleScan() throws Exception {
+        this.backend.createFile(
+            CapacitiveButtonsBacklightBrightness.BRIGHTNESS_PATH, 42);
+        new File(this.backend
+            .getPath(CapacitiveButtonsBacklightBrightness.CURRENTS_PATH))
+            .delete();
+        final BacklightCapabilities capabilities =
+            BacklightCapabilities.getInstance();
+        capabilities.invalidate();
+        final int probeCount = capabilities.getProbeCount();
+
+        assertTrue(this.getDevice("endeavoru").isSupported());
+        assertFalse(this.getDevice("endeavoru").isDimSupported());
+        assertFalse(this.getDevice("m7").isSupported());
+        assertEquals(BacklightCapabilities.CAPABILITY_DIRECTORY
+            | BacklightCapabilities.CAPABILITY_BRIGHTNESS,
+            capabilities.getCapabilities());
+        assertEquals(probeCount + 1, capabilities.getProbeCount());
+
+        this.backend.createFile(
+            CapacitiveButtonsBacklightBrightness.CURRENTS_PATH, 42);
+        assertFalse(this.getDevice("m7").isSupported());
+        capabilities.invalidate();
+        assertTrue(this.getDevice("m7").isSupported());
+        assertEquals(probeCount + 2, capabilities.getProbeCount());
+    }
+
+    /**
+     * Test that identical consecutive writes are dropped from a plan but that
+     * identical writes separated by another write are kept.
+     */
+    public void test_WritePlan_DropsConsecutiveDuplicates() {
+        final WritePlan plan =
+            new WritePlan.Builder().add("a", 1).add("a", 1).add("b", 1)
+                .add("a", 1).add("a", 2).build();
+        assertEquals(4, plan.getCount());
+        assertEquals("a", plan.getPath(0));
+        assertEquals("b", plan.getPath(1));
+        assertEquals("a", plan.getPath(2));
+        assertEquals(2, plan.getValue(3));
+    }
+
+    private CapacitiveButtonsBacklightBrightness getDevice(String id) {
+        final DeviceInfoDatabase db = new DeviceInfoDatabase(this.getContext());
+        final DeviceInfo deviceInfo = db.getById(id);
+        assertNotNull(id, deviceInfo);
+        return deviceInfo.getCapacitiveButtonsBacklightBrightness();
+    }
+
+    private void assertCurrentsAfterSet(String id, int level,
+            int expectedCurrents) throws Exception {
+        final CapacitiveButtonsBacklightBrightness device = this.getDevice(id);
+        final String currentsPath =
+            CapacitiveButtonsBacklightBrightness.CURRENTS_PATH;
+        final String brightnessPath =
+            CapacitiveButtonsBacklightBrightness.BRIGHTNESS_PATH;
+        this.backend.createFile(currentsPath, 42);
+        this.backend.createFile(brightnessPath, 42);
+        FileStateCache.getInstance().clear();
+
+        assertTrue(device.isSupported());
+        device.set(level, 0, null);
+
+        final IntFileRootHelper intFile = new IntFileRootHelper(null);
+        try {
+            final int currents =
+                intFile.read(this.backend.getPath(currentsPath));
+            assertEquals(id, expectedCurrents, currents);
+        } finally {
+            intFile.close();
+        }
+    }
+}
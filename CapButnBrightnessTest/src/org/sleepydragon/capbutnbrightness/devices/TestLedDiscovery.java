@@ -0,0 +1,154 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import java.io.File;
+
+import org.sleepydragon.capbutnbrightness.Constants;
+import org.sleepydragon.capbutnbrightness.sysfs.DirectorySysfsBackend;
+import org.sleepydragon.capbutnbrightness.sysfs.SysfsEnvironment;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Runs LedDiscovery against fake /sys/class/leds trees in a
+ * DirectorySysfsBackend.
+ */
+public class TestLedDiscovery extends AndroidTestCase {
+
+    /**
+     * The number of uninteresting nodes in the benchmark tree, which is
+     * similar to that of devices with many GPIO and MMC LED triggers.
+     */
+    private static final int BENCHMARK_NODE_COUNT = 500;
+
+    /**
+     * The maximum number of milliseconds that discovery may take on the
+     * benchmark tree; it runs in the boot receiver, which must finish well
+     * within the 10 seconds that the OS allows.
+     */
+    private static final long BENCHMARK_MAX_MILLIS = 200;
+
+    private DirectorySysfsBackend backend;
+
+    @Override
+    protected void tearDown() throws Exception {
+        SysfsEnvironment.reset();
+        LedDiscovery.getInstance().invalidate();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the best node of each kind is found, that nodes without a
+     * brightness file are ignored and that the synthetic DeviceInfo of an
+     * unknown device controls the buttons node, along with the keyboard
+     * node.
+     */
+    public void test_getResult_Scores() throws Exception {
+        this.setUpBackend("leds-scores");
+        this.createNode("lcd-backlight", 255);
+        this.createNode("keyboard-backlight", -1);
+        this.createNode("kpdbl-pwm", 100);
+        this.createNode("touchkey-fake", -1);
+        new File(this.backend.getPath(LedDiscovery.LEDS_DIR
+            + "/touchkey-fake/brightness")).delete();
+        this.createNode("mmc0::", 255);
+
+        final LedDiscovery.Result result =
+            LedDiscovery.getInstance().getResult();
+        assertEquals(5, result.getNodeCount());
+        assertEquals(4, result.getListCount());
+        final LedDiscovery.Node buttons =
+            result.getNode(LedDiscovery.KIND_BUTTONS);
+        assertEquals("kpdbl-pwm", buttons.getName());
+        assertEquals(100, buttons.getMaxBrightness());
+        assertEquals("keyboard-backlight",
+            result.getNode(LedDiscovery.KIND_KEYBOARD).getName());
+        assertEquals("lcd-backlight",
+            result.getNode(LedDiscovery.KIND_BACKLIGHT).getName());
+        assertSame(result, LedDiscovery.getInstance().getResult());
+
+        final DeviceInfo deviceInfo =
+            new DeviceInfoDatabase(this.getContext())
+                .getById(DeviceInfoDatabase.UNKNOWN_DEVICE_ID);
+        final CapacitiveButtonsBacklightBrightness device =
+            deviceInfo.getCapacitiveButtonsBacklightBrightness();
+        assertTrue(device instanceof MultiLedBrightness);
+        assertTrue(device.isSupported());
+        assertTrue(device.isDimSupported());
+        final WritePlan plan = device.getPlan(30, 0);
+        assertEquals(1, plan.getCount());
+        assertEquals(this.backend.getPath(buttons
+            .getAttributePath("brightness")), plan.getPath(0));
+        assertEquals(30, plan.getValue(0));
+        assertEquals(100, device.getPlan(100, 0).getValue(0));
+    }
+
+    /**
+     * Benchmark discovery on a tree with hundreds of nodes, only a few of
+     * which look like backlights.
+     */
+    public void test_getResult_Benchmark() throws Exception {
+        this.setUpBackend("leds-benchmark");
+        for (int i = 0; i < BENCHMARK_NODE_COUNT; i++) {
+            this.createNode("gpio" + i + "::trigger", 1);
+        }
+        this.createNode("button-backlight", 255);
+        this.createNode("lcd-backlight", 255);
+
+        final LedDiscovery discovery = LedDiscovery.getInstance();
+        final int discoveryCount = discovery.getDiscoveryCount();
+        final long startNanos = System.nanoTime();
+        final LedDiscovery.Result result = discovery.getResult();
+        final long millis = (System.nanoTime() - startNanos) / 1000000;
+        Log.i(Constants.LOG_TAG, "discovery of " + result.getNodeCount()
+            + " LED nodes took " + millis + " ms");
+
+        assertEquals(discoveryCount + 1, discovery.getDiscoveryCount());
+        assertEquals(BENCHMARK_NODE_COUNT + 2, result.getNodeCount());
+        assertEquals(2, result.getListCount());
+        assertEquals("button-backlight",
+            result.getNode(LedDiscovery.KIND_BUTTONS).getName());
+        assertTrue("took " + millis + " ms", millis < BENCHMARK_MAX_MILLIS);
+    }
+
+    private void setUpBackend(String name) {
+        final File root = new File(this.getContext().getCacheDir(), name);
+        delete(root);
+        this.backend = new DirectorySysfsBackend(root);
+        SysfsEnvironment.setBackend(this.backend);
+    }
+
+    private void createNode(String name, int maxBrightness) throws Exception {
+        final String dir = LedDiscovery.LEDS_DIR + "/" + name;
+        this.backend.createFile(dir + "/brightness", 0);
+        if (maxBrightness >= 0) {
+            this.backend.createFile(dir + "/max_brightness", maxBrightness);
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.devices;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests MultiLedBrightness with nodes that simulate slow writes.
+ */
+public class TestMultiLedBrightness extends AndroidTestCase {
+
+    /**
+     * The number of milliseconds that each simulated node takes to write.
+     */
+    private static final long WRITE_MILLIS = 100;
+
+    /**
+     * Test that the nodes are written in parallel, so that the time taken is
+     * close to that of one node rather than the sum of all of them, and that
+     * the primary node is written by the calling thread.
+     */
+    public void test_set_Parallel() throws Exception {
+        final SlowNode[] nodes =
+            { new SlowNode("a", null), new SlowNode("b", null),
+                new SlowNode("c", null), };
+        final MultiLedBrightness multi = new MultiLedBrightness(nodes);
+
+        final long startNanos = System.nanoTime();
+        multi.set(100, 0, null);
+        final long millis = (System.nanoTime() - startNanos) / 1000000;
+
+        assertTrue("took " + millis + " ms", millis < WRITE_MILLIS * 2);
+        assertSame(Thread.currentThread(), nodes[0].thread);
+        for (final SlowNode node : nodes) {
+            assertEquals(100, node.level);
+        }
+        assertNotSame(nodes[1].thread, nodes[2].thread);
+    }
+
+    /**
+     * Test that a failure of a non-primary node is thrown once all of the
+     * nodes have been written, and that nodes that do not support dim are
+     * skipped for a dim level.
+     */
+    public void test_set_Failure() throws Exception {
+        final SlowNode[] nodes =
+            { new SlowNode("a", null), new SlowNode("b", "failed"),
+                new SlowNode("c", null), };
+        nodes[2].dimSupported = false;
+        final MultiLedBrightness multi = new MultiLedBrightness(nodes);
+
+        try {
+            multi.set(50, 0, null);
+            fail("IntWriteException should have been thrown");
+        } catch (final IntFileRootHelper.IntWriteException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(50, nodes[0].level);
+        assertEquals(-1, nodes[2].level);
+    }
+
+    /**
+     * Test that objects that write the same node share a lock.
+     */
+    public void test_getNodeLock() {
+        assertSame(CapacitiveButtonsBacklightBrightness.getNodeLock("a"),
+            CapacitiveButtonsBacklightBrightness.getNodeLock("a"));
+        assertNotSame(CapacitiveButtonsBacklightBrightness.getNodeLock("a"),
+            CapacitiveButtonsBacklightBrightness.getNodeLock("b"));
+    }
+
+    /**
+     * A node that records the level that it is set to after sleeping, and
+     * optionally fails.
+     */
+    private static class SlowNode extends CapacitiveButtonsBacklightBrightness {
+
+        private final String nodePath;
+        private final String failure;
+        public volatile boolean dimSupported = true;
+        public volatile int level = -1;
+        public volatile Thread thread;
+
+        public SlowNode(String nodePath, String failure) {
+            this.nodePath = nodePath;
+            this.failure = failure;
+        }
+
+        protected WritePlan compilePlan(int level, int options) {
+            return WritePlan.EMPTY;
+        }
+
+        public String getNodePath() {
+            return this.nodePath;
+        }
+
+        public String[] getRequiredFiles() {
+            return new String[0];
+        }
+
+        public boolean isDimSupported() {
+            return this.dimSupported;
+        }
+
+        public void set(int level, int options,
+                IntFileRootHelper.OperationNotifier notifier)
+                throws IntFileRootHelper.IntWriteException {
+            this.thread = Thread.currentThread();
+            try {
+                Thread.sleep(WRITE_MILLIS);
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (this.failure != null) {
+                throw new IntFileRootHelper.IntWriteException(this.failure);
+            }
+            this.level = level;
+        }
+    }
+}
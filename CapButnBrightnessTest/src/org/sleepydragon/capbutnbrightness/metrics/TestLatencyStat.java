@@ -0,0 +1,71 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.metrics;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+public class TestLatencyStat extends AndroidTestCase {
+
+    /**
+     * Test that the count, min, max and mean reflect the recorded samples and
+     * that each sample lands in the bucket for its number of bits.
+     */
+    public void test_record() {
+        final LatencyStat stat = new LatencyStat("test");
+        assertEquals(0, stat.getCount());
+        assertEquals(0, stat.getMinNanos());
+        assertEquals(0, stat.getMaxNanos());
+        assertEquals(0, stat.getMeanNanos());
+
+        stat.record(0);
+        stat.record(5);
+        stat.record(1000);
+        stat.record(-3);
+        stat.record(Long.MAX_VALUE / 2);
+
+        assertEquals(5, stat.getCount());
+        assertEquals(0, stat.getMinNanos());
+        assertEquals(Long.MAX_VALUE / 2, stat.getMaxNanos());
+        assertEquals(2, stat.getBucketCount(0));
+        assertEquals(1, stat.getBucketCount(3));
+        assertEquals(1, stat.getBucketCount(10));
+        assertEquals(1, stat.getBucketCount(LatencyStat.BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Test that recording a sample does not allocate any objects.
+     */
+    public void test_record_DoesNotAllocate() {
+        final LatencyStat stat = new LatencyStat("test");
+        stat.recordSince(System.nanoTime());
+
+        final int allocCount;
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < 100; i++) {
+                stat.recordSince(System.nanoTime() - i);
+            }
+            allocCount = Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        assertEquals(0, allocCount);
+    }
+}
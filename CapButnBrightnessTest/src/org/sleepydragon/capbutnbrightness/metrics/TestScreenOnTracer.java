@@ -0,0 +1,94 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.metrics;
+
+import java.io.File;
+
+import android.test.AndroidTestCase;
+
+public class TestScreenOnTracer extends AndroidTestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.file = File.createTempFile("TestScreenOnTracer", ".bin",
+            this.getContext().getCacheDir());
+        this.file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Test that a trace is only stored if writes were recorded during it, and
+     * that writes on other threads are not recorded.
+     */
+    public void test_end_StoresOnlyTracesWithWrites() throws Exception {
+        final ScreenOnTracer tracer = ScreenOnTracer.open(this.file);
+        assertTrue(tracer.begin());
+        tracer.end();
+        assertEquals(0, tracer.getTraces().length);
+
+        assertTrue(tracer.begin());
+        assertFalse(tracer.begin());
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                ScreenOnTracer.markWrites(1);
+            }
+        };
+        thread.start();
+        thread.join();
+        tracer.end();
+        assertEquals(0, tracer.getTraces().length);
+
+        assertTrue(tracer.begin());
+        tracer.markPlanned();
+        tracer.markLocked();
+        ScreenOnTracer.markWrites(1);
+        ScreenOnTracer.markWrites(2);
+        tracer.end();
+        final ScreenOnTracer.Trace[] traces = tracer.getTraces();
+        assertEquals(1, traces.length);
+        assertEquals(3, traces[0].getWriteCount());
+    }
+
+    /**
+     * Test that the oldest traces are overwritten once the ring buffer is full
+     * and that the traces survive re-opening the file.
+     */
+    public void test_getTraces_WrapsAndPersists() throws Exception {
+        final ScreenOnTracer tracer = ScreenOnTracer.open(this.file);
+        final int total = ScreenOnTracer.CAPACITY + 5;
+        for (int i = 0; i < total; i++) {
+            assertTrue(tracer.begin());
+            ScreenOnTracer.markWrites(i + 1);
+            tracer.end();
+        }
+
+        final ScreenOnTracer reopened = ScreenOnTracer.open(this.file);
+        final ScreenOnTracer.Trace[] traces = reopened.getTraces();
+        assertEquals(ScreenOnTracer.CAPACITY, traces.length);
+        assertEquals(6, traces[0].getWriteCount());
+        assertEquals(total, traces[traces.length - 1].getWriteCount());
+    }
+}
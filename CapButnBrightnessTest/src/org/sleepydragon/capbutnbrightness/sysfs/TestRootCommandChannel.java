@@ -0,0 +1,200 @@
+/*
+ * This file is part of Capacitive Buttons.
+ *
+ * Capacitive Buttons is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * Capacitive Buttons is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Capacitive Buttons.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.sleepydragon.capbutnbrightness.sysfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.sleepydragon.capbutnbrightness.IntFileRootHelper.RootShellCreateIOException;
+import org.sleepydragon.capbutnbrightness.metrics.Metrics;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests RootCommandChannel and ChannelShellProvider using /bin/sh in place of
+ * a root shell.
+ */
+public class TestRootCommandChannel extends AndroidTestCase {
+
+    private static final String[] SHELL = { "/bin/sh" };
+
+    private RootCommandChannel channel;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.channel = new RootCommandChannel(SHELL);
+    }
+
+    protected void tearDown() throws Exception {
+        this.channel.close();
+        super.tearDown();
+    }
+
+    /**
+     * Test that frames are submitted without waiting for earlier frames to
+     * complete and that each future gets the output of its own commands,
+     * including standard error and output that does not end with a newline.
+     */
+    public void test_submit_Pipelined() throws Exception {
+        final Future<String> a = this.channel.submit("sleep 0.2", "echo a");
+        final Future<String> b = this.channel.submit("echo b 1>&2");
+        final Future<String> c = this.channel.submit("printf c");
+        final Future<String> d = this.channel.submit();
+        assertFalse(a.isDone());
+        assertEquals(4, this.channel.getSubmittedCount());
+
+        assertEquals("c", c.get());
+        assertEquals("a\n", a.get());
+        assertEquals("b\n", b.get());
+        assertEquals("", d.get());
+        assertEquals(0, this.channel.getInFlightCount());
+    }
+
+    /**
+     * Test that frames submitted by several threads at once each get their
+     * own output.
+     */
+    public void test_submit_Concurrent() throws Exception {
+        final int threadCount = 4;
+        final int frameCount = 25;
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int threadIndex = i;
+            threads[i] = new Thread() {
+
+                public void run() {
+                    try {
+                        final List<Future<String>> futures =
+                            new ArrayList<Future<String>>();
+                        for (int j = 0; j < frameCount; j++) {
+                            futures.add(TestRootCommandChannel.this.channel
+                                .submit("echo " + threadIndex + "-" + j));
+                        }
+                        for (int j = 0; j < frameCount; j++) {
+                            assertEquals(threadIndex + "-" + j + "\n",
+                                futures.get(j).get());
+                        }
+                    } catch (final Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(failures.toString(), 0, failures.size());
+        assertEquals(threadCount * frameCount,
+            this.channel.getSubmittedCount());
+    }
+
+    /**
+     * Test that waiting for a frame with a timeout times out while the frame
+     * is still running, and that the frame cannot be cancelled.
+     */
+    public void test_submit_Timeout() throws Exception {
+        final Future<String> future = this.channel.submit("sleep 0.2");
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail("TimeoutException should have been thrown");
+        } catch (final TimeoutException e) {
+            // expected
+        }
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+        assertEquals("", future.get(5, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+    }
+
+    /**
+     * Test that closing the channel fails the frames in flight and that
+     * frames cannot be submitted afterwards.
+     */
+    public void test_close() throws Exception {
+        final Future<String> future = this.channel.submit("sleep 5");
+        this.channel.close();
+        assertTrue(this.channel.isClosed());
+
+        try {
+            future.get();
+            fail("ExecutionException should have been thrown");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try {
+            this.channel.submit("echo a");
+            fail("IOException should have been thrown");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that ChannelShellProvider opens a new shell once the previous one
+     * has exited.
+     */
+    public void test_ChannelShellProvider_Reopen() throws Exception {
+        final ChannelShellProvider provider =
+            new ChannelShellProvider(SHELL, false,
+                ChannelShellProvider.DEFAULT_IDLE_TIMEOUT_MILLIS);
+        final long acquireCount = Metrics.ROOT_SHELL_ACQUIRE.getCount();
+        assertEquals("a\n", provider.run(new String[] { "echo a" }, null));
+
+        try {
+            provider.run(new String[] { "exit 1" }, null);
+            fail("IOException should have been thrown");
+        } catch (final IOException e) {
+            // expected
+        }
+
+        assertEquals("b\n", provider.submit(new String[] { "echo b" }, null)
+            .get());
+        assertEquals(2, provider.getOpenCount());
+        assertEquals(2, provider.getMissCount());
+        assertEquals(3, provider.getSubmittedCount());
+        assertTrue(provider.getHitCount() >= 1);
+        assertTrue(Metrics.ROOT_SHELL_ACQUIRE.getCount() >= acquireCount + 3);
+    }
+
+    /**
+     * Test that ChannelShellProvider reports a failure to start the shell as a
+     * RootShellCreateIOException.
+     */
+    public void test_ChannelShellProvider_StartFails() throws Exception {
+        final ChannelShellProvider provider =
+            new ChannelShellProvider(new String[] { "/nonexistent/sh" },
+                false, ChannelShellProvider.DEFAULT_IDLE_TIMEOUT_MILLIS);
+        try {
+            provider.run(new String[] { "echo a" }, null);
+            fail("RootShellCreateIOException should have been thrown");
+        } catch (final RootShellCreateIOException e) {
+            // expected
+        }
+        assertEquals(0, provider.getOpenCount());
+        assertEquals(1, provider.getMissCount());
+    }
+}